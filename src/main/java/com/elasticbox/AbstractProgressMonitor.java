@@ -12,10 +12,13 @@
 
 package com.elasticbox;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import net.sf.json.JSONObject;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.concurrent.Callable;
 
 public abstract class AbstractProgressMonitor implements IProgressMonitor {
     private final String resourceUrl;
@@ -45,24 +48,72 @@ public abstract class AbstractProgressMonitor implements IProgressMonitor {
         return isDone(getResource());
     }
 
-    public void waitForDone(int timeout)
-            throws IProgressMonitor.IncompleteException, IOException, InterruptedException {
+    /**
+     * Returns the tracker that refreshes the resource of this monitor together with the resources of the other
+     * monitors, or null if this monitor must poll its resource itself.
+     */
+    protected InstanceStateTracker getStateTracker() {
+        return null;
+    }
 
-        long startTime = System.currentTimeMillis();
-        long remainingTime = timeout * 60000;
-        do {
-            if (isDone()) {
-                return;
-            }
+    /**
+     * Returns the workspace of the resource if it can be fetched in a batch with other instances of the workspace.
+     */
+    protected String getWorkspaceId() {
+        return null;
+    }
+
+    /**
+     * Returns a future that completes with the resource once it is done, without blocking any thread while
+     * waiting if the monitor has a state tracker. It fails with the same errors thrown by {@link #waitForDone(int)}.
+     *
+     * @param timeout in minutes, 0 or less to wait forever
+     */
+    public ListenableFuture<JSONObject> whenDone(final int timeout) {
+        InstanceStateTracker stateTracker = getStateTracker();
+        if (stateTracker != null) {
+            return stateTracker.track(this, getWorkspaceId(), timeout);
+        }
 
-            synchronized (this) {
-                wait(1000);
+        return AsyncClient.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                waitForDone(timeout);
+                return getResource();
             }
+        });
+    }
 
-            long currentTime = System.currentTimeMillis();
-            remainingTime =  remainingTime - (currentTime - startTime);
-            startTime = currentTime;
-        } while (timeout <= 0 || remainingTime > 0);
+    public void waitForDone(int timeout)
+            throws IProgressMonitor.IncompleteException, IOException, InterruptedException {
+
+        InstanceStateTracker stateTracker = getStateTracker();
+        if (stateTracker != null) {
+            InstanceStateTracker.Registration registration = stateTracker.register(this, getWorkspaceId());
+            try {
+                if (registration.await(timeout * 60000L)) {
+                    return;
+                }
+            } finally {
+                registration.cancel();
+            }
+        } else {
+            long startTime = System.currentTimeMillis();
+            long remainingTime = timeout * 60000L;
+            do {
+                if (isDone()) {
+                    return;
+                }
+
+                synchronized (this) {
+                    wait(1000);
+                }
+
+                long currentTime = System.currentTimeMillis();
+                remainingTime =  remainingTime - (currentTime - startTime);
+                startTime = currentTime;
+            } while (timeout <= 0 || remainingTime > 0);
+        }
 
         JSONObject resource = getResource();
         if (!isDone(resource)) {
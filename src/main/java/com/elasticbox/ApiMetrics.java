@@ -0,0 +1,200 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of the API requests sent to each ElasticBox endpoint, grouped by operation. The operation is derived
+ * from the request, like <code>get-instances</code>, <code>get-box</code>, <code>deploy</code> or
+ * <code>terminate</code>. The statistics of each operation are also registered in JMX under
+ * <code>com.elasticbox:type=ApiMetrics</code>.
+ */
+public class ApiMetrics {
+    private static final Logger LOGGER = Logger.getLogger(ApiMetrics.class.getName());
+
+    private static final String SERVICES_PATH = "/services/";
+
+    // operations whose path doesn't follow the naming rules of toOperation
+    private static final Map<String, String> SPECIAL_OPERATIONS = new HashMap<String, String>();
+
+    static {
+        SPECIAL_OPERATIONS.put("POST /services/instances", "deploy");
+        SPECIAL_OPERATIONS.put("POST /services/security/token", "login");
+        SPECIAL_OPERATIONS.put("POST /services/blobs/upload", "upload-blob");
+    }
+
+    private static final ConcurrentHashMap<String, ApiMetrics> endpointToMetricsMap =
+            new ConcurrentHashMap<String, ApiMetrics>();
+
+    private final String endpointUrl;
+    private final ConcurrentHashMap<String, OperationStats> operationToStatsMap =
+            new ConcurrentHashMap<String, OperationStats>();
+
+    ApiMetrics(String endpointUrl) {
+        this.endpointUrl = endpointUrl;
+    }
+
+    public static ApiMetrics forEndpoint(String endpointUrl) {
+        ApiMetrics metrics = endpointToMetricsMap.get(endpointUrl);
+        if (metrics == null) {
+            metrics = new ApiMetrics(endpointUrl);
+            ApiMetrics existingMetrics = endpointToMetricsMap.putIfAbsent(endpointUrl, metrics);
+            if (existingMetrics != null) {
+                metrics = existingMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    public static List<ApiMetrics> getAll() {
+        List<ApiMetrics> metrics = new ArrayList<ApiMetrics>(endpointToMetricsMap.values());
+        Collections.sort(metrics, new Comparator<ApiMetrics>() {
+            @Override
+            public int compare(ApiMetrics metrics1, ApiMetrics metrics2) {
+                return metrics1.endpointUrl.compareTo(metrics2.endpointUrl);
+            }
+        });
+        return metrics;
+    }
+
+    public String getEndpointUrl() {
+        return endpointUrl;
+    }
+
+    /**
+     * Returns the statistics of the operations, sorted by name.
+     */
+    public List<OperationStats> getOperations() {
+        List<OperationStats> operations = new ArrayList<OperationStats>(operationToStatsMap.values());
+        Collections.sort(operations, new Comparator<OperationStats>() {
+            @Override
+            public int compare(OperationStats stats1, OperationStats stats2) {
+                return stats1.getOperation().compareTo(stats2.getOperation());
+            }
+        });
+        return operations;
+    }
+
+    public void reset() {
+        for (OperationStats stats : operationToStatsMap.values()) {
+            stats.reset();
+        }
+    }
+
+    OperationStats getStats(String method, URI uri) {
+        String operation = toOperation(method, uri.getRawPath(), uri.getRawQuery());
+        OperationStats stats = operationToStatsMap.get(operation);
+        if (stats == null) {
+            stats = new OperationStats(endpointUrl, operation);
+            OperationStats existingStats = operationToStatsMap.putIfAbsent(operation, stats);
+            if (existingStats != null) {
+                stats = existingStats;
+            } else {
+                register(stats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Names the operation of a request from its method and path. The path segments of the ElasticBox API alternate
+     * between resource names and IDs, for example <code>/services/workspaces/{id}/instances</code>. The operation is
+     * named after the last resource: <code>get-instances</code> when it lists the resources,
+     * <code>get-instance</code> when it addresses one, <code>create-box</code> when it creates one. A name following
+     * an ID is an action on the resource, like <code>/services/instances/{id}/shutdown</code>. The instance
+     * operations sent as <code>DELETE</code> requests are named after their <code>operation</code> parameter.
+     */
+    static String toOperation(String method, String path, String query) {
+        int servicesIndex = path != null ? path.indexOf(SERVICES_PATH) : -1;
+        if (servicesIndex == -1) {
+            return method.toLowerCase();
+        }
+        path = StringUtils.removeEnd(path.substring(servicesIndex), "/");
+        String specialOperation = SPECIAL_OPERATIONS.get(method + ' ' + path);
+        if (specialOperation != null) {
+            return specialOperation;
+        }
+
+        String[] segments = path.substring(SERVICES_PATH.length()).split("/");
+        if ("DELETE".equals(method) && query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("operation=")) {
+                    return parameter.substring("operation=".length()).replace('_', '-');
+                }
+            }
+        }
+
+        boolean endsWithId = segments.length % 2 == 0;
+        if (!endsWithId && segments.length > 1 && !"GET".equals(method)) {
+            // action on a resource, like /services/instances/{id}/poweron
+            return segments[segments.length - 1].replace('_', '-');
+        }
+
+        String resource = segments[endsWithId ? segments.length - 2 : segments.length - 1];
+        if (endsWithId || "POST".equals(method)) {
+            resource = toSingular(resource);
+        }
+        return toVerb(method) + '-' + resource;
+    }
+
+    private static String toVerb(String method) {
+        switch (method) {
+            case "POST":
+                return "create";
+            case "PUT":
+                return "update";
+            default:
+                return method.toLowerCase();
+        }
+    }
+
+    private static String toSingular(String name) {
+        if (name.endsWith("ies")) {
+            return name.substring(0, name.length() - 3) + 'y';
+        }
+        if (name.endsWith("xes")) {
+            return name.substring(0, name.length() - 2);
+        }
+        return StringUtils.removeEnd(name, "s");
+    }
+
+    private static void register(OperationStats stats) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MessageFormat.format("com.elasticbox:type=ApiMetrics,endpoint={0},"
+                    + "operation={1}", ObjectName.quote(stats.getEndpointUrl()), stats.getOperation()));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(stats, name);
+            }
+        } catch (Exception ex) {
+            LOGGER.log(Level.FINE, MessageFormat.format("Cannot register the JMX metrics of {0} {1}",
+                    stats.getEndpointUrl(), stats.getOperation()), ex);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Asynchronous variant of {@link ApiClient}. Each method returns immediately with a future of the result of the
+ * corresponding {@link Client} method, which fails with the exception the blocking method would have thrown.
+ */
+public interface AsyncApiClient {
+
+    ListenableFuture<JSONArray> getWorkspaces();
+
+    ListenableFuture<JSONArray> getAllBoxes(String workspaceId);
+
+    ListenableFuture<JSONObject> getBox(String boxId);
+
+    ListenableFuture<JSONArray> getBoxVersions(String boxId);
+
+    ListenableFuture<JSONObject> getInstance(String instanceId);
+
+    ListenableFuture<JSONArray> getInstances(String workspaceId);
+
+    ListenableFuture<JSONArray> getInstances(String workspaceId, List<String> instanceIDs);
+
+    ListenableFuture<IProgressMonitor> deploy(String boxVersion, String policyId, String instanceName,
+                                              String workspaceId, List<String> tags, JSONArray variables,
+                                              String expirationTime, String expirationOperation,
+                                              JSONArray policyVariables, String automaticUpdates);
+
+    ListenableFuture<IProgressMonitor> terminate(String instanceId);
+
+    ListenableFuture<IProgressMonitor> forceTerminate(String instanceId);
+
+    ListenableFuture<IProgressMonitor> poweron(String instanceId);
+
+    ListenableFuture<IProgressMonitor> shutdown(String instanceId);
+
+    /**
+     * Returns a future that completes with the resource of the monitor once it is done. No thread is blocked while
+     * waiting for the monitors of a {@link Client}.
+     *
+     * @param timeout in minutes, 0 or less to wait forever
+     */
+    ListenableFuture<JSONObject> whenDone(IProgressMonitor monitor, int timeout);
+}
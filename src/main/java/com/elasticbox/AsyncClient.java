@@ -0,0 +1,203 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import com.elasticbox.jenkins.BoundedExecutor;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link AsyncApiClient} backed by a {@link Client}. The requests are sent from a small {@link BoundedExecutor} of
+ * {@link #THREADS} threads shared by all the clients, so callers never block and a burst of calls queues up instead
+ * of taking one thread each. The calls that don't fit in the queue fail right away. Waiting for a resource to be done
+ * takes no thread at all: the future is completed by the {@link InstanceStateTracker} of the client.
+ */
+public class AsyncClient implements AsyncApiClient {
+
+    public static final int THREADS = Integer.getInteger("elasticbox.jenkins.client.asyncThreads", 16);
+
+    public static final int QUEUE_SIZE = 1024;
+
+    private static final ListeningExecutorService executor = MoreExecutors.listeningDecorator(
+            BoundedExecutor.get("async-client", THREADS, QUEUE_SIZE, BoundedExecutor.OverflowPolicy.ABORT));
+
+    private final Client client;
+
+    public AsyncClient(Client client) {
+        this.client = client;
+    }
+
+    static <T> ListenableFuture<T> submit(Callable<T> task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException ex) {
+            return Futures.immediateFailedFuture(ex);
+        }
+    }
+
+    @Override
+    public ListenableFuture<JSONArray> getWorkspaces() {
+        return submit(new Callable<JSONArray>() {
+            @Override
+            public JSONArray call() throws Exception {
+                return client.getWorkspaces();
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<JSONArray> getAllBoxes(final String workspaceId) {
+        return submit(new Callable<JSONArray>() {
+            @Override
+            public JSONArray call() throws Exception {
+                return client.getAllBoxes(workspaceId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> getBox(final String boxId) {
+        return submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return client.getBox(boxId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<JSONArray> getBoxVersions(final String boxId) {
+        return submit(new Callable<JSONArray>() {
+            @Override
+            public JSONArray call() throws Exception {
+                return client.getBoxVersions(boxId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> getInstance(final String instanceId) {
+        return submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return client.getInstance(instanceId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<JSONArray> getInstances(final String workspaceId) {
+        return submit(new Callable<JSONArray>() {
+            @Override
+            public JSONArray call() throws Exception {
+                return client.getInstances(workspaceId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<JSONArray> getInstances(final String workspaceId, final List<String> instanceIDs) {
+        return submit(new Callable<JSONArray>() {
+            @Override
+            public JSONArray call() throws Exception {
+                return client.getInstances(workspaceId, instanceIDs);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<IProgressMonitor> deploy(final String boxVersion, final String policyId,
+                                                     final String instanceName, final String workspaceId,
+                                                     final List<String> tags, final JSONArray variables,
+                                                     final String expirationTime, final String expirationOperation,
+                                                     final JSONArray policyVariables, final String automaticUpdates) {
+        return submit(new Callable<IProgressMonitor>() {
+            @Override
+            public IProgressMonitor call() throws Exception {
+                return client.deploy(boxVersion, policyId, instanceName, workspaceId, tags, variables,
+                        expirationTime, expirationOperation, policyVariables, automaticUpdates);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<IProgressMonitor> terminate(final String instanceId) {
+        return submit(new Callable<IProgressMonitor>() {
+            @Override
+            public IProgressMonitor call() throws Exception {
+                return client.terminate(instanceId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<IProgressMonitor> forceTerminate(final String instanceId) {
+        return submit(new Callable<IProgressMonitor>() {
+            @Override
+            public IProgressMonitor call() throws Exception {
+                return client.forceTerminate(instanceId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<IProgressMonitor> poweron(final String instanceId) {
+        return submit(new Callable<IProgressMonitor>() {
+            @Override
+            public IProgressMonitor call() throws Exception {
+                return client.poweron(instanceId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<IProgressMonitor> shutdown(final String instanceId) {
+        return submit(new Callable<IProgressMonitor>() {
+            @Override
+            public IProgressMonitor call() throws Exception {
+                return client.shutdown(instanceId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> whenDone(final IProgressMonitor monitor, final int timeout) {
+        if (monitor instanceof AbstractProgressMonitor) {
+            return ((AbstractProgressMonitor) monitor).whenDone(timeout);
+        }
+        if (monitor instanceof IProgressMonitor.DoneMonitor) {
+            SettableFuture<JSONObject> future = SettableFuture.create();
+            future.set(null);
+            return future;
+        }
+
+        return submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                monitor.waitForDone(timeout);
+                return null;
+            }
+        });
+    }
+}
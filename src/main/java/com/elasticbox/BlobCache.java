@@ -0,0 +1,206 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the blobs uploaded by each account of an endpoint by the SHA-256 hash of their content, so a file that
+ * was already uploaded, like the same script attached to every slave, is not uploaded again. The URL of an uploaded
+ * blob is reused for {@link #TTL} milliseconds; a TTL of zero or less disables the cache.
+ *
+ * <p>The hashes of local files are remembered as well, as long as their size and modification time don't change,
+ * so they are read only once.</p>
+ */
+public class BlobCache {
+
+    public static final long TTL = Long.getLong("elasticbox.jenkins.client.blobCacheTtl", 60 * 60 * 1000);
+
+    public static final int MAX_ENTRIES = Integer.getInteger("elasticbox.jenkins.client.blobCacheSize", 500);
+
+    private static final BlobCache instance = new BlobCache(TTL);
+
+    private final Map<String, Entry> blobs = new LruMap<Entry>();
+    private final Map<String, FileHash> fileHashes = new LruMap<FileHash>();
+    private final long ttl;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    BlobCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public static BlobCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Builds the key of a blob uploaded by an account, blobs uploaded by other accounts are not visible to it.
+     */
+    static String toKey(String endpointUrl, String account, String hash, String contentType, String fileName) {
+        return endpointUrl + '|' + account + '|' + hash + '|' + contentType + '|' + fileName;
+    }
+
+    /**
+     * Returns a copy of the info of the blob uploaded with the specified key, or null if it is not known or expired.
+     */
+    JSONObject get(String key) {
+        if (ttl <= 0) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (blobs) {
+            entry = blobs.get(key);
+            if (entry != null && entry.isExpired()) {
+                blobs.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return JSONObject.fromObject(entry.blobInfo);
+    }
+
+    void put(String key, JSONObject blobInfo) {
+        if (ttl <= 0) {
+            return;
+        }
+        synchronized (blobs) {
+            blobs.put(key, new Entry(JSONObject.fromObject(blobInfo), System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the content of the file, reading it only if it changed since the last
+     * time.
+     */
+    String getHash(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (fileHashes) {
+            FileHash fileHash = fileHashes.get(path);
+            if (fileHash != null && fileHash.length == length && fileHash.lastModified == lastModified) {
+                return fileHash.hash;
+            }
+        }
+
+        MessageDigest digest = createDigest();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            for (int count = input.read(buffer); count != -1; count = input.read(buffer)) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+
+        String hash = toHex(digest.digest());
+        synchronized (fileHashes) {
+            fileHashes.put(path, new FileHash(length, lastModified, hash));
+        }
+        return hash;
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String toHex(byte[] digest) {
+        return String.format("%0" + (digest.length * 2) + "x", new BigInteger(1, digest));
+    }
+
+    public void invalidateAll() {
+        synchronized (blobs) {
+            blobs.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (blobs) {
+            return blobs.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("BlobCache'{'size={0}, hits={1}, misses={2}'}'", String.valueOf(size()),
+                String.valueOf(getHitCount()), String.valueOf(getMissCount()));
+    }
+
+    private static final class LruMap<T> extends LinkedHashMap<String, T> {
+        private LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+
+    private static final class Entry {
+        private final JSONObject blobInfo;
+        private final long expirationTime;
+
+        private Entry(JSONObject blobInfo, long expirationTime) {
+            this.blobInfo = blobInfo;
+            this.expirationTime = expirationTime;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expirationTime;
+        }
+    }
+
+    private static final class FileHash {
+        private final long length;
+        private final long lastModified;
+        private final String hash;
+
+        private FileHash(long length, long lastModified, String hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the box definitions fetched by a client: the boxes of each workspace, single boxes and the
+ * versions of a box. Entries expire after {@link #TTL} milliseconds and the least recently used entries are evicted
+ * once there are more than {@link #MAX_ENTRIES}. A TTL of zero or less disables the cache.
+ *
+ * <p>Callers get their own copy of the cached JSON, so they can modify it freely. The {@link PolicyIndex} of a
+ * workspace is built from its cached boxes and shares their JSON instead.</p>
+ *
+ * <p>Concurrent misses for the same entry share a single load: the first thread loads the entry and the others wait
+ * for it. A load in flight when its entry is invalidated is not cached, since it may have been read before the
+ * change.</p>
+ */
+public class BoxCache {
+
+    public static final long TTL = Long.getLong("elasticbox.jenkins.client.boxCacheTtl", 60 * 1000);
+
+    public static final int MAX_ENTRIES = Integer.getInteger("elasticbox.jenkins.client.boxCacheSize", 500);
+
+    private static final String WORKSPACE_BOXES_PREFIX = "workspace:";
+    private static final String BOX_PREFIX = "box:";
+    private static final String BOX_VERSIONS_PREFIX = "versions:";
+
+    interface Loader<T extends JSON> {
+        T load() throws IOException;
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // loads in flight, guarded by entries
+    private final Map<String, Load> keyToLoadMap = new HashMap<String, Load>();
+
+    // stacks of box versions, which never change so they don't expire
+    private final Map<String, BoxStack> versionToStackMap = new LinkedHashMap<String, BoxStack>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BoxStack> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final long ttl;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public BoxCache() {
+        this(TTL);
+    }
+
+    public BoxCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    JSONArray getWorkspaceBoxes(String workspaceId, Loader<JSONArray> loader) throws IOException {
+        return get(WORKSPACE_BOXES_PREFIX + workspaceId, loader);
+    }
+
+    JSONObject getBox(String boxId, Loader<JSONObject> loader) throws IOException {
+        return get(BOX_PREFIX + boxId, loader);
+    }
+
+    JSONArray getBoxVersions(String boxId, Loader<JSONArray> loader) throws IOException {
+        return get(BOX_VERSIONS_PREFIX + boxId, loader);
+    }
+
+    /**
+     * Returns the index of the deployment policies of the workspace. The index is built once from the cached boxes
+     * of the workspace and discarded with them.
+     */
+    PolicyIndex getPolicyIndex(String workspaceId, Loader<JSONArray> loader) throws IOException {
+        if (ttl <= 0) {
+            return new PolicyIndex(loader.load());
+        }
+
+        Entry entry = getEntry(WORKSPACE_BOXES_PREFIX + workspaceId, loader);
+        synchronized (entry) {
+            if (entry.policyIndex == null) {
+                entry.policyIndex = new PolicyIndex((JSONArray) entry.json);
+            }
+            return entry.policyIndex;
+        }
+    }
+
+    /**
+     * Returns the memoized stack of the specified box version, or null if there is none.
+     */
+    BoxStack getBoxStack(String boxVersion) {
+        synchronized (versionToStackMap) {
+            return versionToStackMap.get(boxVersion);
+        }
+    }
+
+    /**
+     * Memoizes the stack if it is the stack of a box version.
+     */
+    void putBoxStack(String boxVersion, BoxStack boxStack) {
+        if (ttl > 0 && boxStack.isVersion()) {
+            synchronized (versionToStackMap) {
+                versionToStackMap.put(boxVersion, boxStack);
+            }
+        }
+    }
+
+    private <T extends JSON> T get(String key, Loader<T> loader) throws IOException {
+        if (ttl <= 0) {
+            return loader.load();
+        }
+
+        return copy((T) getEntry(key, loader).json);
+    }
+
+    private Entry getEntry(String key, Loader<? extends JSON> loader) throws IOException {
+        Load load;
+        boolean leader = false;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && !entry.isExpired()) {
+                hitCount.incrementAndGet();
+                return entry;
+            }
+
+            load = keyToLoadMap.get(key);
+            if (load == null) {
+                load = new Load();
+                keyToLoadMap.put(key, load);
+                leader = true;
+            }
+        }
+
+        if (!leader) {
+            // the entry is loaded once for all the concurrent misses
+            hitCount.incrementAndGet();
+            return load.await();
+        }
+
+        missCount.incrementAndGet();
+        Entry entry = null;
+        Throwable error = null;
+        try {
+            entry = new Entry(loader.load(), System.currentTimeMillis() + ttl);
+        } catch (IOException | RuntimeException | Error ex) {
+            error = ex;
+            throw ex;
+        } finally {
+            synchronized (entries) {
+                // a load detached by an invalidation may be older than the change, it is not cached
+                if (keyToLoadMap.get(key) == load) {
+                    keyToLoadMap.remove(key);
+                    if (entry != null) {
+                        entries.put(key, entry);
+                    }
+                }
+            }
+            load.complete(entry, error);
+        }
+        if (key.startsWith(BOX_PREFIX)) {
+            updatePolicyIndexes((JSONObject) entry.json);
+        }
+        return entry;
+    }
+
+    /**
+     * Updates the fresh copy of a box in the policy indexes that already have it, so a policy whose claims changed
+     * is found without rebuilding the indexes.
+     */
+    private void updatePolicyIndexes(JSONObject box) {
+        List<PolicyIndex> policyIndexes = new ArrayList<PolicyIndex>();
+        synchronized (entries) {
+            for (Entry entry : entries.values()) {
+                if (entry.policyIndex != null) {
+                    policyIndexes.add(entry.policyIndex);
+                }
+            }
+        }
+        String boxId = box.getString("id");
+        for (PolicyIndex policyIndex : policyIndexes) {
+            if (policyIndex.contains(boxId)) {
+                policyIndex.put(box);
+            }
+        }
+    }
+
+    private static <T extends JSON> T copy(T json) {
+        return (T) (json.isArray() ? JSONArray.fromObject(json) : JSONObject.fromObject(json));
+    }
+
+    /**
+     * Removes the cached box lists of the specified workspace.
+     */
+    public void invalidateWorkspace(String workspaceId) {
+        synchronized (entries) {
+            entries.remove(WORKSPACE_BOXES_PREFIX + workspaceId);
+            keyToLoadMap.remove(WORKSPACE_BOXES_PREFIX + workspaceId);
+        }
+    }
+
+    /**
+     * Removes the specified box and its versions. The box lists of all workspaces are removed as well because the
+     * box may be shared with any of them.
+     */
+    public void invalidateBox(String boxId) {
+        synchronized (entries) {
+            removeBox(entries, boxId);
+            removeBox(keyToLoadMap, boxId);
+        }
+    }
+
+    private static void removeBox(Map<String, ?> map, String boxId) {
+        map.remove(BOX_PREFIX + boxId);
+        map.remove(BOX_VERSIONS_PREFIX + boxId);
+        for (Iterator<String> iter = map.keySet().iterator(); iter.hasNext(); ) {
+            if (iter.next().startsWith(WORKSPACE_BOXES_PREFIX)) {
+                iter.remove();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            keyToLoadMap.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("BoxCache'{'size={0}, hits={1}, misses={2}'}'", String.valueOf(size()),
+                String.valueOf(getHitCount()), String.valueOf(getMissCount()));
+    }
+
+    private static final class Load {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Entry entry;
+        private Throwable error;
+
+        private void complete(Entry entry, Throwable error) {
+            this.entry = entry;
+            this.error = error;
+            done.countDown();
+        }
+
+        private Entry await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the load of another thread");
+            }
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            return entry;
+        }
+    }
+
+    private static final class Entry {
+        private final JSON json;
+        private final long expirationTime;
+        private volatile PolicyIndex policyIndex;
+
+        private Entry(JSON json, long expirationTime) {
+            this.json = json;
+            this.expirationTime = expirationTime;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expirationTime;
+        }
+    }
+}
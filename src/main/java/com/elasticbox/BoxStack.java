@@ -17,61 +17,154 @@ import net.sf.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Runtime stack of a box: the box and the boxes of its box variables, recursively, with the variables of each box
+ * scoped and overridden by the variables of the boxes above it.
+ *
+ * <p>The boxes are indexed by ID and by the box they are a version of, and the overridden variables by scope and
+ * name, so the stack is built in a single pass over the boxes. The stack is built once and never changes, so a
+ * {@link BoxStack} of a box version can be shared, see {@link Client#getIndexedBoxStack(String)}. Callers get
+ * their own copy of the stack JSON.</p>
+ */
 public class BoxStack {
 
-    private final List<JSONObject> overriddenVariables;
-    private final JSONArray boxes;
+    private static final String DEFAULT_ICON = "/images/platform/box.png";
+
     private final String boxId;
+    private final JSONArray boxes;
     private final Client client;
+    private final Map<String, JSONObject> overriddenVariables = new HashMap<String, JSONObject>();
+    private final Map<String, JSONObject> idToBoxMap = new HashMap<String, JSONObject>();
+    private final Map<String, JSONObject> versionedBoxToBoxMap = new HashMap<String, JSONObject>();
+
+    // built on first use
+    private List<JSONObject> stackBoxes;
+    private Map<String, JSONObject> stackVariables;
 
     public BoxStack(String boxId, JSONArray boxes, Client client) {
-        this(boxId, boxes, client, new ArrayList<JSONObject>());
+        this(boxId, boxes, client, Collections.<JSONObject>emptyList());
     }
 
     public BoxStack(String boxId, JSONArray boxes, Client client, List<JSONObject> overridenVariables) {
         this.boxId = boxId;
         this.boxes = boxes;
         this.client = client;
-        this.overriddenVariables = overridenVariables;
+        for (JSONObject variable : overridenVariables) {
+            String scope = (String) variable.get("scope");
+            if (scope == null) {
+                continue;
+            }
+            String key = toKey(scope, (String) variable.get("name"));
+            if (!overriddenVariables.containsKey(key)) {
+                overriddenVariables.put(key, variable);
+            }
+        }
+        for (Object json : boxes) {
+            JSONObject box = (JSONObject) json;
+            String id = box.getString("id");
+            if (!idToBoxMap.containsKey(id)) {
+                idToBoxMap.put(id, box);
+            }
+            if (box.containsKey("version")) {
+                String versionedBoxId = box.getJSONObject("version").getString("box");
+                if (!versionedBoxToBoxMap.containsKey(versionedBoxId)) {
+                    versionedBoxToBoxMap.put(versionedBoxId, box);
+                }
+            }
+        }
     }
 
     public JSONArray toJsonArray() {
-        return JSONArray.fromObject(createBoxStack("", boxId));
+        return JSONArray.fromObject(getStackBoxes());
     }
 
+    /**
+     * Returns the box with the specified ID, or the first version of the box with that ID.
+     */
     public JSONObject findBox(String boxId) {
+        JSONObject box = idToBoxMap.get(boxId);
+        return box != null ? box : versionedBoxToBoxMap.get(boxId);
+    }
+
+    /**
+     * Same as {@link #findBox(String)} without indexing the boxes, for a single lookup.
+     */
+    public static JSONObject findBox(String boxId, JSONArray boxes) {
+        JSONObject versionBox = null;
         for (Object json : boxes) {
             JSONObject box = (JSONObject) json;
             if (box.getString("id").equals(boxId)) {
                 return box;
             }
+            if (versionBox == null && box.containsKey("version")
+                    && box.getJSONObject("version").getString("box").equals(boxId)) {
+                versionBox = box;
+            }
         }
-        for (Object json : boxes) {
-            JSONObject box = (JSONObject) json;
-            if (box.containsKey("version") && box.getJSONObject("version").getString("box").equals(boxId)) {
-                return box;
+        return versionBox;
+    }
+
+    /**
+     * Returns true if the stack is of a box version, which never changes.
+     */
+    public boolean isVersion() {
+        JSONObject box = idToBoxMap.get(boxId);
+        return box != null && box.containsKey("version");
+    }
+
+    /**
+     * Returns a copy of the variables of the specified box of the stack, or null if the box is not in the stack.
+     */
+    public JSONArray getVariables(String stackBoxId) {
+        for (JSONObject stackBox : getStackBoxes()) {
+            if (stackBox.getString("id").equals(stackBoxId)) {
+                return JSONArray.fromObject(stackBox.getJSONArray("variables"));
             }
         }
         return null;
     }
 
-    private JSONObject findOverriddenVariable(String name, String scope) {
-        for (Object json : overriddenVariables) {
-            JSONObject variable = (JSONObject) json;
-            if (scope.equals(variable.get("scope")) && variable.get("name").equals(name)) {
-                return variable;
+    /**
+     * Returns a copy of the variable of the stack with the specified name and full scope, or null if there is none.
+     */
+    public JSONObject findVariable(String name, String scope) {
+        getStackBoxes();
+        JSONObject variable = stackVariables.get(toKey(scope != null ? scope : "", name));
+        return variable != null ? JSONObject.fromObject(variable) : null;
+    }
+
+    private synchronized List<JSONObject> getStackBoxes() {
+        if (stackBoxes == null) {
+            List<JSONObject> boxStack = new ArrayList<JSONObject>();
+            createBoxStack("", boxId, boxStack);
+            Map<String, JSONObject> variables = new HashMap<String, JSONObject>();
+            for (JSONObject stackBox : boxStack) {
+                for (Object json : stackBox.getJSONArray("variables")) {
+                    JSONObject variable = (JSONObject) json;
+                    String key = toKey(variable.getString("scope"), variable.getString("name"));
+                    if (!variables.containsKey(key)) {
+                        variables.put(key, variable);
+                    }
+                }
             }
+            stackBoxes = Collections.unmodifiableList(boxStack);
+            stackVariables = variables;
         }
-        return null;
+        return stackBoxes;
     }
 
-    private List<JSONObject> createBoxStack(String scope, String boxId) {
+    private static String toKey(String scope, String name) {
+        return scope + '\n' + name;
+    }
 
+    private void createBoxStack(String scope, String boxId, List<JSONObject> boxStack) {
         JSONObject box = findBox(boxId);
         if (box == null) {
-            return Collections.EMPTY_LIST;
+            return;
         }
 
         JSONObject stackBox = new JSONObject();
@@ -80,16 +173,15 @@ public class BoxStack {
             icon = box.getString("icon");
         }
         if (icon == null || icon.isEmpty()) {
-            icon = "/images/platform/box.png";
+            icon = DEFAULT_ICON;
         } else if (icon.charAt(0) != '/') {
             icon = '/' + icon;
         }
         stackBox.put("id", box.getString("id"));
         stackBox.put("name", box.getString("name"));
         stackBox.put("icon", client.getEndpointUrl() + icon);
-
-        List<JSONObject> boxStack = new ArrayList<JSONObject>();
         boxStack.add(stackBox);
+
         JSONArray stackBoxVariables = new JSONArray();
         JSONArray variables = box.getJSONArray("variables");
         List<JSONObject> boxVariables = new ArrayList<JSONObject>();
@@ -97,18 +189,18 @@ public class BoxStack {
             JSONObject variable = (JSONObject) json;
             String varScope = (String) variable.get("scope");
             if (varScope != null && !varScope.isEmpty()) {
+                // the variables of the boxes above override the ones of the boxes below
                 String fullScope = scope.isEmpty() ? varScope : scope + '.' + varScope;
-                if (findOverriddenVariable(variable.getString("name"), scope) == null) {
-                    JSONObject overriddenVariable = JSONObject.fromObject(variable);
-                    overriddenVariable.put("scope", fullScope);
-                    overriddenVariables.add(overriddenVariable);
+                String key = toKey(fullScope, variable.getString("name"));
+                if (!overriddenVariables.containsKey(key)) {
+                    overriddenVariables.put(key, variable);
                 }
             } else if (variable.getString("type").equals("Box")) {
                 boxVariables.add(variable);
             } else {
                 JSONObject stackBoxVariable = JSONObject.fromObject(variable);
                 stackBoxVariable.put("scope", scope);
-                JSONObject overriddenVariable = findOverriddenVariable(stackBoxVariable.getString("name"), scope);
+                JSONObject overriddenVariable = overriddenVariables.get(toKey(scope, variable.getString("name")));
                 if (overriddenVariable != null) {
                     stackBoxVariable.put("value", overriddenVariable.get("value"));
                 }
@@ -119,13 +211,9 @@ public class BoxStack {
 
         for (JSONObject boxVariable : boxVariables) {
             String variableName = boxVariable.getString("name");
-            boxStack.addAll(
-                    createBoxStack(
-                            scope.isEmpty() ? variableName : scope + '.' + variableName,
-                            boxVariable.getString("value")));
+            createBoxStack(scope.isEmpty() ? variableName : scope + '.' + variableName,
+                    boxVariable.getString("value"), boxStack);
         }
-
-        return boxStack;
     }
 
 }
@@ -0,0 +1,151 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Stops sending requests to an endpoint after {@link #FAILURE_THRESHOLD} consecutive failures. While open, requests
+ * fail immediately with {@link EndpointUnavailableException}. After {@link #OPEN_TIME} milliseconds a single probe
+ * request is let through: the breaker closes again if it succeeds, otherwise it stays open for another period.
+ *
+ * <p>Only connection errors and the responses telling that the server is overloaded or unreachable count as
+ * failures, client errors like 404 don't.</p>
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public static final int FAILURE_THRESHOLD =
+            Integer.getInteger("elasticbox.jenkins.client.circuitBreakerFailures", 10);
+
+    public static final long OPEN_TIME = Long.getLong("elasticbox.jenkins.client.circuitBreakerOpenTime", 30 * 1000);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final ConcurrentHashMap<String, CircuitBreaker> endpointToBreakerMap =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private final String endpointUrl;
+    private final int failureThreshold;
+    private final long openTime;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInProgress;
+
+    public CircuitBreaker(String endpointUrl, int failureThreshold, long openTime) {
+        this.endpointUrl = endpointUrl;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    public static CircuitBreaker forEndpoint(String endpointUrl) {
+        CircuitBreaker breaker = endpointToBreakerMap.get(endpointUrl);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(endpointUrl, FAILURE_THRESHOLD, OPEN_TIME);
+            CircuitBreaker existingBreaker = endpointToBreakerMap.putIfAbsent(endpointUrl, breaker);
+            if (existingBreaker != null) {
+                breaker = existingBreaker;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Returns true if the error of a request sent to the endpoint means that the endpoint is unhealthy.
+     */
+    public static boolean isFailureStatus(int status) {
+        return status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Checks whether a request can be sent. Each successful call must be followed by a call to
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #onCancelled()} with the outcome of the request.
+     *
+     * @throws EndpointUnavailableException if the breaker is open
+     */
+    public synchronized void acquire() throws EndpointUnavailableException {
+        if (failureThreshold <= 0) {
+            return;
+        }
+
+        switch (state) {
+            case OPEN:
+                long remainingTime = openedAt + openTime - System.currentTimeMillis();
+                if (remainingTime > 0) {
+                    throw new EndpointUnavailableException(MessageFormat.format(
+                            "ElasticBox at {0} is not responding, requests are suspended for {1} more seconds",
+                            endpointUrl, String.valueOf(Math.max(1, remainingTime / 1000))));
+                }
+                state = State.HALF_OPEN;
+                probeInProgress = true;
+                return;
+
+            case HALF_OPEN:
+                if (probeInProgress) {
+                    throw new EndpointUnavailableException(MessageFormat.format(
+                            "ElasticBox at {0} is not responding, checking whether it is back", endpointUrl));
+                }
+                probeInProgress = true;
+                return;
+
+            default:
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probeInProgress = false;
+        if (state != State.CLOSED) {
+            LOGGER.info(MessageFormat.format("ElasticBox at {0} is responding again", endpointUrl));
+            state = State.CLOSED;
+        }
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        probeInProgress = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failureThreshold > 0
+                && consecutiveFailures >= failureThreshold)) {
+
+            if (state == State.CLOSED) {
+                LOGGER.warning(MessageFormat.format("{0} consecutive requests to ElasticBox at {1} failed, "
+                        + "suspending requests for {2} seconds", consecutiveFailures, endpointUrl,
+                        String.valueOf(openTime / 1000)));
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Called instead of {@link #onSuccess()} or {@link #onFailure()} when the request was not completed for reasons
+     * unrelated to the endpoint, like the calling thread being interrupted.
+     */
+    public synchronized void onCancelled() {
+        probeInProgress = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MessageFormat.format("CircuitBreaker'{'endpoint={0}, state={1}, consecutiveFailures={2}'}'",
+                endpointUrl, state, String.valueOf(consecutiveFailures));
+    }
+}
@@ -17,8 +17,10 @@ import net.sf.json.JSONArray;
 import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
@@ -28,33 +30,27 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.config.Registry;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.socket.PlainConnectionSocketFactory;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.ssl.SSLContextBuilder;
-import org.apache.http.conn.ssl.TrustStrategy;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -62,12 +58,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.net.ssl.SSLContext;
 
 public class Client implements ApiClient {
     private static final Logger LOGGER = Logger.getLogger(Client.class.getName());
@@ -88,6 +88,10 @@ public class Client implements ApiClient {
             Arrays.asList(InstanceOperation.SHUTDOWN, InstanceOperation.SHUTDOWN_SERVICE,
                     InstanceOperation.TERMINATE, InstanceOperation.TERMINATE_SERVICE));
 
+    public static final int MAX_URL_LENGTH = Integer.getInteger("elasticbox.jenkins.client.maxUrlLength", 4000);
+
+    private static final int MAX_REMEMBERED_INSTANCES = 10000;
+
     private static final Set<String> PROVIDER_FINISH_STATES = new HashSet<String>(
             Arrays.asList(ProviderState.READY, ProviderState.UNAVAILABLE));
 
@@ -99,7 +103,16 @@ public class Client implements ApiClient {
     private final String endpointUrl;
     private final String username;
     private final String password;
-    private String token = null;
+    private volatile String token = null;
+    private final Object authenticationLock = new Object();
+    private final AtomicLong reauthenticationCount = new AtomicLong();
+    private InstanceStateTracker stateTracker;
+    private AsyncApiClient asyncClient;
+    private final BoxCache boxCache = new BoxCache();
+    private final ResponseCache responseCache = new ResponseCache();
+    private final RequestCoalescer requestCoalescer = new RequestCoalescer();
+    private final ConcurrentHashMap<String, String> instanceIdToWorkspaceMap =
+            new ConcurrentHashMap<String, String>();
 
     public static interface InstanceState {
         String PROCESSING = "processing";
@@ -155,6 +168,54 @@ public class Client implements ApiClient {
         return endpointUrl;
     }
 
+    /**
+     * Returns the tracker shared by the progress monitors of this client to refresh their resources.
+     */
+    public synchronized InstanceStateTracker getStateTracker() {
+        if (stateTracker == null) {
+            stateTracker = new InstanceStateTracker(this);
+        }
+        return stateTracker;
+    }
+
+    /**
+     * Returns the asynchronous variant of this client.
+     */
+    public synchronized AsyncApiClient async() {
+        if (asyncClient == null) {
+            asyncClient = new AsyncClient(this);
+        }
+        return asyncClient;
+    }
+
+    /**
+     * Returns the cache of the box definitions fetched by this client.
+     */
+    public BoxCache getBoxCache() {
+        return boxCache;
+    }
+
+    /**
+     * Returns the cache of the responses revalidated with their ETag or last modification time.
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Returns the number of times this client logged in again because its token was rejected.
+     */
+    public long getReauthenticationCount() {
+        return reauthenticationCount.get();
+    }
+
+    /**
+     * Returns the number of GET requests that were not sent because an identical one was already in flight.
+     */
+    public long getCoalescedRequestCount() {
+        return requestCoalescer.getCoalescedCount();
+    }
+
     protected String getUsername() {
         return username;
     }
@@ -179,7 +240,8 @@ public class Client implements ApiClient {
         json.put("email", getUsername());
         json.put("password", getPassword());
         post.setEntity(new StringEntity(json.toString(), ContentType.APPLICATION_JSON));
-        HttpResponse response = httpClient.execute(post);
+        post.setConfig(getConnectionSettings().toRequestConfig());
+        HttpResponse response = send(post);
         int status = response.getStatusLine().getStatusCode();
         if (status != HttpStatus.SC_OK) {
             throw new ClientException(MessageFormat.format("Error {0} connecting to ElasticBox at {1}: {2}", status,
@@ -203,9 +265,14 @@ public class Client implements ApiClient {
         return (JSONArray) doGet(MessageFormat.format("{0}/services/workspaces", endpointUrl), true);
     }
 
-    public JSONArray getAllBoxes(String workspaceId) throws IOException {
-        return (JSONArray) doGet(MessageFormat.format("{0}/services/workspaces/{1}/boxes", endpointUrl,
-                URLEncoder.encode(workspaceId, Constants.UTF_8)), true);
+    public JSONArray getAllBoxes(final String workspaceId) throws IOException {
+        return boxCache.getWorkspaceBoxes(workspaceId, new BoxCache.Loader<JSONArray>() {
+            @Override
+            public JSONArray load() throws IOException {
+                return (JSONArray) doGet(MessageFormat.format("{0}/services/workspaces/{1}/boxes", endpointUrl,
+                        URLEncoder.encode(workspaceId, Constants.UTF_8)), true);
+            }
+        });
     }
 
     public JSONArray getBoxes(String workspaceId) throws IOException {
@@ -220,12 +287,23 @@ public class Client implements ApiClient {
         return boxes;
     }
 
-    public JSONArray getBoxVersions(String boxId) throws IOException {
-        return (JSONArray) doGet(MessageFormat.format("{0}/services/boxes/{1}/versions", endpointUrl, boxId), true);
+    public JSONArray getBoxVersions(final String boxId) throws IOException {
+        return boxCache.getBoxVersions(boxId, new BoxCache.Loader<JSONArray>() {
+            @Override
+            public JSONArray load() throws IOException {
+                return (JSONArray) doGet(
+                        MessageFormat.format("{0}/services/boxes/{1}/versions", endpointUrl, boxId), true);
+            }
+        });
     }
 
-    public JSONObject getBox(String boxId) throws IOException {
-        return (JSONObject) doGet(MessageFormat.format("{0}/services/boxes/{1}", endpointUrl, boxId), false);
+    public JSONObject getBox(final String boxId) throws IOException {
+        return boxCache.getBox(boxId, new BoxCache.Loader<JSONObject>() {
+            @Override
+            public JSONObject load() throws IOException {
+                return (JSONObject) doGet(MessageFormat.format("{0}/services/boxes/{1}", endpointUrl, boxId), false);
+            }
+        });
     }
 
     public JSONObject getProvider(String providerId) throws IOException {
@@ -237,33 +315,73 @@ public class Client implements ApiClient {
     }
 
     private JSONObject uploadFile(URI fileUri, ContentType contentType) throws IOException {
-        MultipartEntityBuilder entityBuilder = MultipartEntityBuilder.create().setLaxMode();
         if (fileUri.getScheme().equalsIgnoreCase("file")) {
             File file = new File(fileUri);
             if (contentType == null) {
                 String mimeType = Files.probeContentType(FileSystems.getDefault().getPath(file.getPath()));
                 contentType = mimeType != null ? ContentType.create(mimeType) : ContentType.DEFAULT_BINARY;
             }
-            entityBuilder.addBinaryBody("blob", file, contentType, file.getName());
-        } else {
-            URL fileUrl = fileUri.toURL();
-            URLConnection connection = fileUrl.openConnection();
-            if (contentType == null) {
-                String mimeType = connection.getContentType();
-                contentType = mimeType != null ? ContentType.create(mimeType) : ContentType.DEFAULT_BINARY;
+            return uploadFile(file, BlobCache.getInstance().getHash(file), contentType, file.getName());
+        }
+
+        URL fileUrl = fileUri.toURL();
+        URLConnection connection = fileUrl.openConnection();
+        if (contentType == null) {
+            String mimeType = connection.getContentType();
+            contentType = mimeType != null ? ContentType.create(mimeType) : ContentType.DEFAULT_BINARY;
+        }
+        String[] segments = fileUrl.getPath().split("/");
+        // download the file to hash it, and to upload it from disk if it wasn't uploaded before
+        File tempFile = File.createTempFile("elasticbox-blob", null);
+        try {
+            MessageDigest digest = BlobCache.createDigest();
+            InputStream input = new DigestInputStream(connection.getInputStream(), digest);
+            try {
+                FileUtils.copyInputStreamToFile(input, tempFile);
+            } finally {
+                input.close();
             }
-            String[] segments = fileUrl.getPath().split("/");
-            entityBuilder.addBinaryBody(
-                    "blob", connection.getInputStream(), contentType, segments[segments.length - 1]);
+            return uploadFile(tempFile, BlobCache.toHex(digest.digest()), contentType, segments[segments.length - 1]);
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    private JSONObject uploadFile(File file, String hash, ContentType contentType, String fileName)
+            throws IOException {
+
+        BlobCache blobCache = BlobCache.getInstance();
+        String key = BlobCache.toKey(endpointUrl, getAccount(), hash, contentType.toString(), fileName);
+        JSONObject blobInfo = blobCache.get(key);
+        if (blobInfo != null) {
+            return blobInfo;
         }
+
         HttpPost post = new HttpPost(prepareUrl("/services/blobs/upload"));
-        post.setEntity(entityBuilder.build());
+        post.setEntity(MultipartEntityBuilder.create().setLaxMode()
+                .addBinaryBody("blob", file, contentType, fileName).build());
         try {
             HttpResponse response = execute(post);
-            return JSONObject.fromObject(getResponseBodyAsString(response));
+            blobInfo = JSONObject.fromObject(getResponseBodyAsString(response));
         } finally {
             post.reset();
         }
+        blobCache.put(key, blobInfo);
+        return blobInfo;
+    }
+
+    /**
+     * Returns the account of the client: its user, or a digest of its token if it authenticates with a token only.
+     */
+    private String getAccount() {
+        String account = getUsername();
+        if (account == null) {
+            String currentToken = token;
+            account = currentToken != null
+                    ? BlobCache.toHex(BlobCache.createDigest().digest(currentToken.getBytes(StandardCharsets.UTF_8)))
+                    : null;
+        }
+        return account;
     }
 
     public JSONObject createWorkspace(String name) throws IOException {
@@ -304,7 +422,20 @@ public class Client implements ApiClient {
     }
 
     private boolean isPolicy(JSONObject boxJson) {
-        return boxJson.getString("schema").endsWith("/boxes/policy");
+        return PolicyIndex.isPolicy(boxJson);
+    }
+
+    /**
+     * Returns the index of the deployment policies of the workspace, built from its cached boxes.
+     */
+    public PolicyIndex getPolicyIndex(final String workspaceId) throws IOException {
+        return boxCache.getPolicyIndex(workspaceId, new BoxCache.Loader<JSONArray>() {
+            @Override
+            public JSONArray load() throws IOException {
+                return (JSONArray) doGet(MessageFormat.format("{0}/services/workspaces/{1}/boxes", endpointUrl,
+                        URLEncoder.encode(workspaceId, Constants.UTF_8)), true);
+            }
+        });
     }
 
     public JSONArray getProfiles(String workspaceId, String boxId) throws IOException {
@@ -316,47 +447,36 @@ public class Client implements ApiClient {
         if (isPolicy(box)) {
             throw new IOException("Cannot get deployment policies for a deployment policy box");
         }
-        JSONArray requiredServices = box.getJSONArray("requirements");
-        JSONArray profiles = new JSONArray();
-        for (Object b : getAllBoxes(workspaceId)) {
-            JSONObject boxJson = (JSONObject) b;
-            if (isPolicy(boxJson)) {
-                Set<String> providedServices = new HashSet(boxJson.getJSONArray("claims"));
-                if (providedServices.containsAll(requiredServices)) {
-                    profiles.add(boxJson);
-                }
-            }
+        Set<String> requiredServices = new HashSet<String>();
+        for (Object requirement : box.getJSONArray("requirements")) {
+            requiredServices.add(requirement.toString());
         }
-
-        return profiles;
+        return toJsonArray(getPolicyIndex(workspaceId).getPolicies(requiredServices));
     }
 
     public JSONArray getProfiles(String workspaceId) throws IOException {
-        JSONArray profiles = new JSONArray();
-        for (Object b : getAllBoxes(workspaceId)) {
-            JSONObject boxJson = (JSONObject) b;
-            if (isPolicy(boxJson)) {
-                profiles.add(boxJson);
-            }
-        }
-
-        return profiles;
+        return toJsonArray(getPolicyIndex(workspaceId).getPolicies());
     }
 
     public List<JSONObject> getPolicies(String workspaceId, Collection<String> claims) throws IOException {
         List<JSONObject> profiles = new ArrayList<JSONObject>();
         if (!claims.isEmpty()) {
-            for (Object profile : getProfiles(workspaceId)) {
-                JSONObject profileJson = (JSONObject) profile;
-                if (profileJson.getJSONArray("claims").containsAll(claims)) {
-                    profiles.add(profileJson);
-                }
+            for (JSONObject policy : getPolicyIndex(workspaceId).getPolicies(claims)) {
+                profiles.add(JSONObject.fromObject(policy));
             }
         }
 
         return profiles;
     }
 
+    private static JSONArray toJsonArray(List<JSONObject> policies) {
+        JSONArray profiles = new JSONArray();
+        for (JSONObject policy : policies) {
+            profiles.add(JSONObject.fromObject(policy));
+        }
+        return profiles;
+    }
+
     public JSONObject getInstance(String instanceId) throws IOException {
         if (StringUtils.isBlank(instanceId)) {
             throw new IOException("instanceId cannot be blank");
@@ -383,54 +503,162 @@ public class Client implements ApiClient {
         return instances;
     }
 
+    /**
+     * Returns the summaries of the instances of the specified workspace, decoded directly from the response stream.
+     */
+    public List<InstanceSummary> getInstanceSummaries(String workspaceId) throws IOException {
+        if (StringUtils.isBlank(workspaceId)) {
+            throw new IOException("workspaceId cannot be blank");
+        }
+
+        return doGet(MessageFormat.format("/services/workspaces/{0}/instances", workspaceId),
+                InstanceSummary.DECODER);
+    }
+
+    /**
+     * Returns the instances of the workspace with the specified IDs. The IDs are sent in as many requests as needed
+     * to keep their URLs within {@link #MAX_URL_LENGTH}, and the requests are sent concurrently.
+     */
     public JSONArray getInstances(String workspaceId, List<String> instanceIDs) throws IOException {
         if (StringUtils.isBlank(workspaceId)) {
             throw new IOException("workspaceId cannot be blank");
         }
 
-        JSONArray instances = new JSONArray();
-        for (int start = 0; start < instanceIDs.size(); ) {
-            int end = Math.min(800, instanceIDs.size());
-            StringBuilder ids = new StringBuilder();
-            for (int i = start; i < end; i++) {
-                ids.append(instanceIDs.get(i)).append(',');
-            }
-            instances.addAll((JSONArray) doGet(
-                    MessageFormat.format("/services/workspaces/{0}/instances?ids={1}",
-                            workspaceId, ids.toString()), true));
-            start = end;
+        final String baseUrl = MessageFormat.format("/services/workspaces/{0}/instances?ids=", workspaceId);
+        List<Callable<JSONArray>> requests = new ArrayList<Callable<JSONArray>>();
+        for (final String ids : joinIds(instanceIDs, MAX_URL_LENGTH - prepareUrl(baseUrl).length())) {
+            requests.add(new Callable<JSONArray>() {
+                @Override
+                public JSONArray call() throws IOException {
+                    return (JSONArray) doGet(baseUrl + ids, true);
+                }
+            });
         }
 
+        JSONArray instances = new JSONArray();
+        for (JSONArray chunk : ParallelRequestExecutor.invokeAll(endpointUrl, requests)) {
+            instances.addAll(chunk);
+        }
         return instances;
     }
 
+    /**
+     * Joins the specified IDs, URL encoded and separated by commas, in as few strings as possible that are not
+     * longer than the specified length. An ID that doesn't fit on its own is returned in its own string.
+     */
+    static List<String> joinIds(List<String> ids, int maxLength) throws IOException {
+        List<String> chunks = new ArrayList<String>();
+        StringBuilder chunk = new StringBuilder();
+        for (String id : ids) {
+            String encodedId = URLEncoder.encode(id, Constants.UTF_8);
+            if (chunk.length() > 0 && chunk.length() + encodedId.length() + 1 > maxLength) {
+                chunks.add(chunk.toString());
+                chunk.setLength(0);
+            }
+            chunk.append(encodedId).append(',');
+        }
+        if (chunk.length() > 0) {
+            chunks.add(chunk.toString());
+        }
+        return chunks;
+    }
+
+    /**
+     * Looks for the instances with the specified IDs in all the workspaces, and removes the IDs of the instances found
+     * from the specified list. The workspaces where the instances were last seen are queried first, then the rest of
+     * the workspaces are queried concurrently, {@link ParallelRequestExecutor#MAX_PARALLEL_REQUESTS} at a time, until
+     * all the instances are found.
+     */
     public JSONArray getInstances(List<String> instanceIDs) throws IOException {
         JSONArray instances = new JSONArray();
-        Set<String> fetchedInstanceIDs = new HashSet<String>();
-        JSONArray workspaces = getWorkspaces();
-        for (Object workspace : workspaces) {
-            JSONArray workspaceInstances = getInstances(((JSONObject) workspace).getString("id"), instanceIDs);
-            for (Object instance : workspaceInstances) {
-                String instanceId = ((JSONObject) instance).getString("id");
-                instanceIDs.remove(instanceId);
-                if (!fetchedInstanceIDs.contains(instanceId)) {
-                    instances.add(instance);
-                    fetchedInstanceIDs.add(instanceId);
+        Set<String> remainingIDs = new LinkedHashSet<String>(instanceIDs);
+
+        Map<String, List<String>> workspaceToInstanceIDsMap = new LinkedHashMap<String, List<String>>();
+        for (String instanceId : remainingIDs) {
+            String workspaceId = instanceIdToWorkspaceMap.get(instanceId);
+            if (workspaceId != null) {
+                List<String> workspaceInstanceIDs = workspaceToInstanceIDsMap.get(workspaceId);
+                if (workspaceInstanceIDs == null) {
+                    workspaceInstanceIDs = new ArrayList<String>();
+                    workspaceToInstanceIDsMap.put(workspaceId, workspaceInstanceIDs);
                 }
+                workspaceInstanceIDs.add(instanceId);
             }
+        }
+        if (!workspaceToInstanceIDsMap.isEmpty()) {
+            fetchInstances(workspaceToInstanceIDsMap, remainingIDs, instances);
+            // forget the workspaces of the instances that were not found there
+            for (String instanceId : remainingIDs) {
+                instanceIdToWorkspaceMap.remove(instanceId);
+            }
+        }
+
+        if (!remainingIDs.isEmpty()) {
+            List<String> workspaceIDs = new ArrayList<String>();
+            for (Object workspace : getWorkspaces()) {
+                workspaceIDs.add(((JSONObject) workspace).getString("id"));
+            }
+            for (int start = 0; start < workspaceIDs.size() && !remainingIDs.isEmpty();
+                 start += ParallelRequestExecutor.MAX_PARALLEL_REQUESTS) {
 
-            if (instanceIDs.isEmpty()) {
-                break;
+                workspaceToInstanceIDsMap.clear();
+                int end = Math.min(start + ParallelRequestExecutor.MAX_PARALLEL_REQUESTS, workspaceIDs.size());
+                for (String workspaceId : workspaceIDs.subList(start, end)) {
+                    workspaceToInstanceIDsMap.put(workspaceId, new ArrayList<String>(remainingIDs));
+                }
+                fetchInstances(workspaceToInstanceIDsMap, remainingIDs, instances);
             }
         }
 
+        instanceIDs.retainAll(remainingIDs);
         return instances;
     }
 
+    private void fetchInstances(Map<String, List<String>> workspaceToInstanceIDsMap, Set<String> remainingIDs,
+                                JSONArray instances) throws IOException {
+
+        final List<String> workspaceIDs = new ArrayList<String>(workspaceToInstanceIDsMap.keySet());
+        List<Callable<JSONArray>> requests = new ArrayList<Callable<JSONArray>>();
+        for (final Map.Entry<String, List<String>> entry : workspaceToInstanceIDsMap.entrySet()) {
+            requests.add(new Callable<JSONArray>() {
+                @Override
+                public JSONArray call() throws IOException {
+                    return getInstances(entry.getKey(), entry.getValue());
+                }
+            });
+        }
+
+        List<JSONArray> results = ParallelRequestExecutor.invokeAll(endpointUrl, requests);
+        if (instanceIdToWorkspaceMap.size() > MAX_REMEMBERED_INSTANCES) {
+            instanceIdToWorkspaceMap.clear();
+        }
+        for (int i = 0; i < results.size(); i++) {
+            for (Object instance : results.get(i)) {
+                String instanceId = ((JSONObject) instance).getString("id");
+                if (remainingIDs.remove(instanceId)) {
+                    instances.add(instance);
+                    instanceIdToWorkspaceMap.put(instanceId, workspaceIDs.get(i));
+                }
+            }
+        }
+    }
+
     public JSONArray getBoxStack(String boxId) throws IOException {
         return (JSONArray) doGet(MessageFormat.format("/services/boxes/{0}/stack", boxId), true);
     }
 
+    /**
+     * Returns the indexed stack of the specified box. The stacks of box versions are built once and shared.
+     */
+    public BoxStack getIndexedBoxStack(String boxId) throws IOException {
+        BoxStack boxStack = boxCache.getBoxStack(boxId);
+        if (boxStack == null) {
+            boxStack = new BoxStack(boxId, getBoxStack(boxId), this);
+            boxCache.putBoxStack(boxId, boxStack);
+        }
+        return boxStack;
+    }
+
     public String getLatestBoxVersion(String workspace, String boxId) throws IOException {
         JSONObject boxJson = getBox(boxId);
         boolean canWrite;
@@ -462,7 +690,7 @@ public class Client implements ApiClient {
     }
 
     public JSONObject updateInstance(JSONObject instance) throws IOException {
-        HttpPut put = new HttpPut(getInstanceUrl(instance.getString("id")));
+        HttpPut put = new ResourcePut(getInstanceUrl(instance.getString("id")));
         put.setEntity(new StringEntity(instance.toString(), ContentType.APPLICATION_JSON));
         try {
             HttpResponse response = execute(put);
@@ -472,46 +700,31 @@ public class Client implements ApiClient {
         }
     }
 
+    /**
+     * Merges the variables into the instance and updates it. The update is skipped if no variable changed.
+     */
     public JSONObject updateInstance(JSONObject instance, JSONArray variables) throws IOException {
         if (variables != null && !variables.isEmpty()) {
             JSONArray instanceBoxes = instance.getJSONArray("boxes");
             JSONObject mainBox = instanceBoxes.getJSONObject(0);
-            JSONArray boxStack = new BoxStack(mainBox.getString("id"), instanceBoxes, this).toJsonArray();
-            JSONArray boxVariables = new JSONArray();
-            for (Object box : boxStack) {
-                boxVariables.addAll(((JSONObject) box).getJSONArray("variables"));
-            }
+            BoxStack boxStack = new BoxStack(mainBox.getString("id"), instanceBoxes, this);
             JSONArray instanceVariables = instance.getJSONArray("variables");
-            List<JSONObject> newVariables = new ArrayList<JSONObject>();
+            VariableMerger merger = new VariableMerger(instanceVariables, boxStack);
             for (Object variable : variables) {
                 JSONObject variableJson = (JSONObject) variable;
-                JSONObject instanceVariable = findVariable(variableJson, instanceVariables);
-                if (instanceVariable == null) {
-                    JSONObject boxVariable = findVariable(variableJson, boxVariables);
-                    if (boxVariable != null) {
-                        instanceVariable = JSONObject.fromObject(boxVariable);
-                        if (instanceVariable.getString("scope").isEmpty()) {
-                            instanceVariable.remove("scope");
-                        }
-                        newVariables.add(instanceVariable);
-                    }
-                }
-                if (instanceVariable != null) {
-                    if ("File".equals(variableJson.getString("type"))) {
-                        uploadFileVariable(variableJson);
-                    } else if (Constants.BINDING_TYPE_VARIABLE.equals(
-                            variableJson.getString("type")) && variableJson.containsKey("tags")) {
-
-                        instanceVariable.put("tags", variableJson.getJSONArray("tags"));
-                    }
-
-                    if (variableJson.containsKey("value")) {
-                        instanceVariable.put("value", variableJson.getString("value"));
-                    }
+                if ("File".equals(variableJson.getString("type")) && merger.contains(variableJson)) {
+                    uploadFileVariable(variableJson);
                 }
             }
-            instanceVariables.addAll(newVariables);
+            List<JSONObject> changedVariables = merger.merge(variables);
             instance.put("variables", instanceVariables);
+            if (changedVariables.isEmpty()) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine(MessageFormat.format("Instance {0} not updated, none of its variables changed",
+                            instance.getString("id")));
+                }
+                return instance;
+            }
         }
 
         return updateInstance(instance);
@@ -523,21 +736,13 @@ public class Client implements ApiClient {
             JSONArray instanceBoxes = instance.getJSONArray("boxes");
             JSONObject mainBox = instanceBoxes.getJSONObject(0);
             BoxStack boxStack = new BoxStack(mainBox.getString("id"), instanceBoxes, this);
-            JSONArray stackBoxes = boxStack.toJsonArray();
             JSONObject boxVersionJson = boxStack.findBox(boxVersion);
             if (boxVersionJson == null) {
                 throw new IOException(MessageFormat.format(
                         "Instance {0} does not have box version {1}", instance.getString("id"), boxVersion));
             }
             boxVersion = boxVersionJson.getString("id");
-            JSONArray boxVariables = null;
-            for (Object box : stackBoxes) {
-                JSONObject boxJson = (JSONObject) box;
-                if (boxJson.getString("id").equals(boxVersion)) {
-                    boxVariables = boxJson.getJSONArray("variables");
-                    break;
-                }
-            }
+            JSONArray boxVariables = boxStack.getVariables(boxVersion);
             if (boxVariables == null) {
                 throw new IOException(
                         MessageFormat.format(
@@ -593,7 +798,7 @@ public class Client implements ApiClient {
         }
 
         if (variables != null && !variables.isEmpty()) {
-            JSONArray boxStack = new BoxStack(boxId, getBoxStack(boxId), this).toJsonArray();
+            JSONArray boxStack = getIndexedBoxStack(boxId).toJsonArray();
             JSONArray boxVariables = new JSONArray();
             for (Object stackBox : boxStack) {
                 boxVariables.addAll(((JSONObject) stackBox).getJSONArray("variables"));
@@ -627,6 +832,15 @@ public class Client implements ApiClient {
         return doUpdate(boxUrl, box);
     }
 
+    /**
+     * PUT of a whole resource, which leaves the resource the same however many times it is sent.
+     */
+    private static final class ResourcePut extends HttpPut {
+        ResourcePut(String uri) {
+            super(uri);
+        }
+    }
+
     protected abstract class ProgressMonitor extends AbstractProgressMonitor {
         protected final String lastModified;
 
@@ -648,14 +862,27 @@ public class Client implements ApiClient {
             }
         }
 
+        @Override
+        protected InstanceStateTracker getStateTracker() {
+            return Client.this.getStateTracker();
+        }
+
     }
 
     protected class InstanceProgressMonitor extends ProgressMonitor {
         private final Set<String> operations;
+        private final String workspaceId;
 
-        private InstanceProgressMonitor(String instanceUrl, Set<String> operations, String lastModified) {
+        private InstanceProgressMonitor(String instanceUrl, Set<String> operations, String lastModified,
+                                        String workspaceId) {
             super(instanceUrl, lastModified);
             this.operations = operations;
+            this.workspaceId = workspaceId;
+        }
+
+        @Override
+        protected String getWorkspaceId() {
+            return workspaceId;
         }
 
         public boolean isDone(JSONObject instance) throws IProgressMonitor.IncompleteException, IOException {
@@ -795,13 +1022,14 @@ public class Client implements ApiClient {
         JSONObject instance = doPost("/services/instances", deployRequest, false);
 
         return new InstanceProgressMonitor(endpointUrl + instance.getString("uri"),
-                Collections.singleton(InstanceOperation.DEPLOY), instance.getString("updated"));
+                Collections.singleton(InstanceOperation.DEPLOY), instance.getString("updated"), workspaceId);
     }
 
     public IProgressMonitor reconfigure(String instanceId, JSONArray variables) throws IOException {
         JSONObject instance = doOperation(instanceId, InstanceOperation.RECONFIGURE, variables);
         return new InstanceProgressMonitor(getInstanceUrl(instanceId),
-                Collections.singleton(InstanceOperation.RECONFIGURE), instance.getString("updated"));
+                Collections.singleton(InstanceOperation.RECONFIGURE), instance.getString("updated"),
+                instance.optString("owner", null));
     }
 
     private JSONObject doOperation(String instanceId, String operation, JSONArray variables) throws IOException {
@@ -817,7 +1045,7 @@ public class Client implements ApiClient {
 
         HttpPut put = new HttpPut(MessageFormat.format("{0}/{1}", instanceUrl, operation));
         try {
-            execute(put);
+            EntityUtils.consumeQuietly(execute(put).getEntity());
             return instance;
         } finally {
             put.reset();
@@ -831,8 +1059,9 @@ public class Client implements ApiClient {
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.fine("Executing HTTP delete on instance[" + instanceUrl + "] - " + delete);
             }
-            execute(delete);
-            return new InstanceProgressMonitor(instanceUrl, TERMINATE_OPERATIONS, instance.getString("updated"));
+            EntityUtils.consumeQuietly(execute(delete).getEntity());
+            return new InstanceProgressMonitor(instanceUrl, TERMINATE_OPERATIONS, instance.getString("updated"),
+                    instance.optString("owner", null));
         } finally {
             delete.reset();
         }
@@ -866,13 +1095,14 @@ public class Client implements ApiClient {
 
         instance = doOperation(instance, InstanceOperation.POWERON, null);
         return new InstanceProgressMonitor(getInstanceUrl(instanceId),
-                Collections.singleton(InstanceOperation.POWERON), instance.getString("updated"));
+                Collections.singleton(InstanceOperation.POWERON), instance.getString("updated"),
+                instance.optString("owner", null));
     }
 
     public IProgressMonitor shutdown(String instanceId) throws IOException {
         JSONObject instance = doOperation(instanceId, InstanceOperation.SHUTDOWN, null);
         return new InstanceProgressMonitor(getInstanceUrl(instanceId),
-                SHUTDOWN_OPERATIONS, instance.getString("updated"));
+                SHUTDOWN_OPERATIONS, instance.getString("updated"), instance.optString("owner", null));
     }
 
     public void delete(String instanceId) throws IOException {
@@ -882,7 +1112,8 @@ public class Client implements ApiClient {
     public IProgressMonitor reinstall(String instanceId, JSONArray variables) throws IOException {
         JSONObject instance = doOperation(instanceId, InstanceOperation.REINSTALL, variables);
         return new InstanceProgressMonitor(getInstanceUrl(instanceId),
-                Collections.singleton(InstanceOperation.REINSTALL), instance.getString("updated"));
+                Collections.singleton(InstanceOperation.REINSTALL), instance.getString("updated"),
+                instance.optString("owner", null));
     }
 
     public IProgressMonitor createTemplate(
@@ -915,13 +1146,77 @@ public class Client implements ApiClient {
         return url.startsWith("/") ? endpointUrl + url : url;
     }
 
-    public JSON doGet(String url, boolean isArray) throws IOException {
-        HttpGet get = new HttpGet(prepareUrl(url));
+    private void invalidateCaches(String url) {
+        requestCoalescer.detachAll();
+        if (prepareUrl(url).startsWith(endpointUrl + "/services/boxes")) {
+            boxCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Gets a JSON object or array. Concurrent calls for the same URL share a single request.
+     */
+    public JSON doGet(final String url, final boolean isArray) throws IOException {
+        String key = (isArray ? "array:" : "object:") + prepareUrl(url);
+        return requestCoalescer.execute(key, new RequestCoalescer.Request<JSON>() {
+            @Override
+            public JSON execute() throws IOException {
+                return doGetUncoalesced(url, isArray);
+            }
+        });
+    }
+
+    /**
+     * Gets a JSON object or array, revalidating the cached response of the URL if there is one. Lists are cached too,
+     * like the workspaces and the boxes read on every configuration page, within the memory bound of the cache.
+     */
+    private JSON doGetUncoalesced(String url, boolean isArray) throws IOException {
+        url = prepareUrl(url);
+        HttpGet get = new HttpGet(url);
         get.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+        boolean conditional = responseCache.addValidators(url, get);
         try {
             HttpResponse response = execute(get);
-            return isArray ? JSONArray.fromObject(getResponseBodyAsString(response))
-                    : JSONObject.fromObject(getResponseBodyAsString(response));
+            if (conditional && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                JSON json = responseCache.getNotModified(url);
+                if (json != null) {
+                    return json;
+                }
+                // evicted since the request was sent, get it again without validators
+                get.reset();
+                get = new HttpGet(url);
+                get.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+                response = execute(get);
+            }
+
+            String responseBody = getResponseBodyAsString(response);
+            JSON json = isArray ? JSONArray.fromObject(responseBody) : JSONObject.fromObject(responseBody);
+            return responseCache.put(url, response, json,
+                    ResponseCache.weigh(json, responseBody != null ? responseBody.length() : 0));
+        } finally {
+            get.reset();
+        }
+    }
+
+    /**
+     * Gets a JSON array and decodes its elements while they are read from the response, so neither the response
+     * body nor the full JSON objects are ever kept in memory.
+     */
+    public <T> List<T> doGet(String url, StreamingJsonDecoder.RecordDecoder<T> decoder) throws IOException {
+        HttpGet get = new HttpGet(prepareUrl(url));
+        get.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+        try {
+            HttpEntity entity = execute(get).getEntity();
+            if (entity == null) {
+                return Collections.emptyList();
+            }
+            InputStream content = entity.getContent();
+            try {
+                return StreamingJsonDecoder.decodeArray(content, decoder);
+            } finally {
+                content.close();
+            }
         } finally {
             get.reset();
         }
@@ -932,6 +1227,7 @@ public class Client implements ApiClient {
         post.setEntity(new StringEntity(resource.toString(), ContentType.APPLICATION_JSON));
         try {
             HttpResponse response = execute(post);
+            invalidateCaches(url);
             return isArray ? (T)JSONArray.fromObject(getResponseBodyAsString(response))
                     : (T)JSONObject.fromObject(getResponseBodyAsString(response));
         } finally {
@@ -940,12 +1236,13 @@ public class Client implements ApiClient {
     }
 
     public JSONObject doUpdate(String url, JSONObject resource) throws IOException {
-        HttpPut put = new HttpPut(prepareUrl(url));
+        HttpPut put = resource != null ? new ResourcePut(prepareUrl(url)) : new HttpPut(prepareUrl(url));
         if (resource != null) {
             put.setEntity(new StringEntity(resource.toString(), ContentType.APPLICATION_JSON));
         }
         try {
             HttpResponse response = execute(put);
+            invalidateCaches(url);
             String responseBody = getResponseBodyAsString(response);
             return JSONObject.fromObject(responseBody);
         } finally {
@@ -957,6 +1254,8 @@ public class Client implements ApiClient {
         HttpPut put = new HttpPut(prepareUrl(url));
         try {
             HttpResponse response = execute(put);
+            EntityUtils.consumeQuietly(response.getEntity());
+            invalidateCaches(url);
             return response.getStatusLine().getStatusCode();
         } finally {
             put.reset();
@@ -981,6 +1280,7 @@ public class Client implements ApiClient {
         HttpResponse response = null;
         try {
             response = execute(delete);
+            invalidateCaches(url);
         } finally {
             delete.reset();
             if (response != null && response.getEntity() != null) {
@@ -1086,9 +1386,13 @@ public class Client implements ApiClient {
         return error != null && error.containsKey("message") ? error.getString("message") : errorResponseBody;
     }
 
-    private void setRequiredHeaders(HttpRequestBase request) {
-        request.setHeader("ElasticBox-Token", token);
+    private void setRequiredHeaders(HttpRequestBase request, String requestToken) {
+        request.setHeader("ElasticBox-Token", requestToken);
         request.setHeader("ElasticBox-Release", Constants.ELASTICBOX_RELEASE);
+        ContentCompression.acceptCompressedResponse(request);
+        if (request.getConfig() == null) {
+            request.setConfig(getConnectionSettings().toRequestConfig());
+        }
     }
 
     public static String getResponseBodyAsString(HttpResponse response) throws IOException {
@@ -1096,71 +1400,198 @@ public class Client implements ApiClient {
         return entity != null ? EntityUtils.toString(entity) : null;
     }
 
-    protected HttpResponse execute(HttpRequestBase request) throws IOException {
-        if (token == null) {
+    /**
+     * Replaces the specified token with a new one, unless another thread already did it. Only one thread per client
+     * logs in at a time, so the requests rejected during a token rollover wait for a single login and then retry with
+     * its token.
+     *
+     * @param rejectedToken the token rejected by ElasticBox, or null if the client has no token yet
+     * @return the current token
+     */
+    private String authenticate(String rejectedToken) throws IOException {
+        synchronized (authenticationLock) {
+            String currentToken = token;
+            if (currentToken != null && !currentToken.equals(rejectedToken)) {
+                return currentToken;
+            }
+
+            token = null;
             connect();
+            if (rejectedToken != null) {
+                reauthenticationCount.incrementAndGet();
+                LOGGER.fine(MessageFormat.format("Token for {0} renewed after it was rejected", endpointUrl));
+            }
+            return token;
         }
-        setRequiredHeaders(request);
-        HttpResponse response = httpClient.execute(request);
+    }
+
+    protected HttpResponse execute(HttpRequestBase request) throws IOException {
+        String requestToken = token;
+        if (requestToken == null) {
+            requestToken = authenticate(null);
+        }
+        setRequiredHeaders(request, requestToken);
+        HttpResponse response = send(request);
         int status = response.getStatusLine().getStatusCode();
         if (status == HttpStatus.SC_UNAUTHORIZED) {
             if (username != null) {
-                token = null;
                 EntityUtils.consumeQuietly(response.getEntity());
                 request.reset();
-                connect();
-                setRequiredHeaders(request);
-                response = httpClient.execute(request);
+                requestToken = authenticate(requestToken);
+                setRequiredHeaders(request, requestToken);
+                response = send(request);
+                status = response.getStatusLine().getStatusCode();
+                if (status == HttpStatus.SC_UNAUTHORIZED) {
+                    // the new token was rejected as well, log in again on the next request
+                    synchronized (authenticationLock) {
+                        if (requestToken != null && requestToken.equals(token)) {
+                            token = null;
+                        }
+                    }
+                }
             }
-            status = response.getStatusLine().getStatusCode();
         }
-        if (status < 200 || status > 299) {
-            if (username != null) {
-                token = null;
-            }
+        boolean notModified = status == HttpStatus.SC_NOT_MODIFIED
+                && (request.containsHeader(HttpHeaders.IF_NONE_MATCH)
+                || request.containsHeader(HttpHeaders.IF_MODIFIED_SINCE));
+        if ((status < 200 || status > 299) && !notModified) {
             throw new ClientException(getErrorMessage(getResponseBodyAsString(response)), status);
         }
 
         return response;
     }
 
-    public static synchronized HttpClient getHttpClient() {
-        if (httpClient == null) {
-            HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
+    /**
+     * Sends the request, retrying it after transient errors as allowed by the {@link RetryPolicy} of the endpoint.
+     * Only reads and updates of whole resources are retried once they may have reached the server, the other
+     * requests are only retried if the connection could not be established.
+     */
+    private HttpResponse send(HttpRequestBase request) throws IOException {
+        RetryPolicy retryPolicy = RetryPolicy.forEndpoint(endpointUrl);
+        retryPolicy.onRequest();
+        boolean idempotent = RetryPolicy.isIdempotent(request.getMethod()) || request instanceof ResourcePut;
+        int maxRetries = getConnectionSettings().getMaxRetries();
+        OperationStats stats = ApiMetrics.forEndpoint(endpointUrl).getStats(request.getMethod(), request.getURI());
+        long requestLength = 0;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+            if (entityRequest.getEntity() != null && !entityRequest.getEntity().isRepeatable()) {
+                maxRetries = 0;
+            }
+            requestLength = entityRequest.getEntity() != null ? entityRequest.getEntity().getContentLength() : 0;
+            long requestWireLength = ContentCompression.compressRequest(entityRequest);
+            if (requestWireLength > 0) {
+                stats.addRequestWireBytes(requestWireLength);
+            }
+        }
+        long startTime = System.nanoTime();
+        for (int retry = 0; ; retry++) {
+            String error;
             try {
+                HttpResponse response = sendOnce(request, stats.getOperation());
+                int status = response.getStatusLine().getStatusCode();
+                if (!idempotent || retry >= maxRetries || !RetryPolicy.isRetryable(status)
+                        || !retryPolicy.tryRetry()) {
+                    stats.record(status, System.nanoTime() - startTime, retry, requestLength);
+                    ContentCompression.decodeResponse(response, stats);
+                    return response;
+                }
+                EntityUtils.consumeQuietly(response.getEntity());
+                error = "status " + status;
+            } catch (IOException ex) {
+                boolean retryable = idempotent ? RetryPolicy.isRetryable(ex) : RetryPolicy.isUnsent(ex);
+                if (retry >= maxRetries || !retryable || !retryPolicy.tryRetry()) {
+                    stats.record(ex, System.nanoTime() - startTime, retry, requestLength);
+                    throw ex;
+                }
+                error = ex.toString();
+            }
 
-                SSLContext sslContext = new SSLContextBuilder().loadTrustMaterial(null, new TrustStrategy() {
-                    @Override
-                    public boolean isTrusted(X509Certificate[] x509Certificates, String authType)
-                            throws CertificateException {
-
-                        return true;
-                    }
-                    }).build();
-
-                httpClientBuilder.setSSLContext(sslContext);
-
-                SSLConnectionSocketFactory sslConnectionSocketFactory =
-                        new SSLConnectionSocketFactory(sslContext, new NoopHostnameVerifier());
-
-                Registry<ConnectionSocketFactory> socketFactoryRegistry =
-                        RegistryBuilder.<ConnectionSocketFactory>create()
-                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
-                        .register("https", sslConnectionSocketFactory).build();
-
-                PoolingHttpClientConnectionManager connectionManager =
-                        new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+            long backoff = retryPolicy.getBackoff(retry);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(MessageFormat.format("Retrying {0} {1} in {2} ms after {3}", request.getMethod(),
+                        request.getURI(), String.valueOf(backoff), error));
+            }
+            request.reset();
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + request.getURI());
+            }
+        }
+    }
 
-                httpClientBuilder.setConnectionManager(connectionManager);
+    /**
+     * Sends the request through the circuit breaker and the concurrency limiter of the endpoint. The request holds
+     * its slot in the limiter until the body of the response is consumed or closed, so the body must always be read
+     * or consumed by the caller.
+     */
+    private HttpResponse sendOnce(HttpRequestBase request, String operation) throws IOException {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forEndpoint(endpointUrl);
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.forEndpoint(endpointUrl);
+        circuitBreaker.acquire();
+        try {
+            limiter.acquire(getConnectionSettings().getConnectionRequestTimeout());
+        } catch (IOException ex) {
+            circuitBreaker.onCancelled();
+            throw ex;
+        }
 
-                httpClient = httpClientBuilder.build();
-            } catch (Exception e) {
-                httpClient = httpClientBuilder.build();
+        long startTime = System.nanoTime();
+        boolean failed = false;
+        boolean completed = false;
+        HttpResponse response = null;
+        try {
+            response = httpClient.execute(request);
+            failed = CircuitBreaker.isFailureStatus(response.getStatusLine().getStatusCode());
+            completed = true;
+            return response;
+        } catch (IOException ex) {
+            // timeouts are interrupted I/O exceptions as well, only interruptions of the thread don't count
+            completed = !(ex instanceof InterruptedIOException) || !Thread.currentThread().isInterrupted();
+            failed = true;
+            throw ex;
+        } finally {
+            if (response != null) {
+                limiter.releaseWhenConsumed(response, operation, startTime, failed);
+            } else {
+                limiter.release(operation, completed ? System.nanoTime() - startTime : -1, failed);
             }
+            if (!completed) {
+                circuitBreaker.onCancelled();
+            } else if (failed) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess();
+            }
+        }
+    }
 
+    public static synchronized HttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = HttpConnectionPool.getInstance().getHttpClient();
         }
 
         return httpClient;
     }
 
+    /**
+     * Applies the connection settings to all the requests sent to the endpoint of this client.
+     */
+    public void setConnectionSettings(ConnectionSettings settings) {
+        HttpConnectionPool.getInstance().configure(endpointUrl, settings);
+    }
+
+    public ConnectionSettings getConnectionSettings() {
+        return HttpConnectionPool.getInstance().getSettings(endpointUrl);
+    }
+
+    /**
+     * Returns the number of leased, pending and available pooled connections to the endpoint of this client.
+     */
+    public PoolStats getConnectionPoolStats() {
+        return HttpConnectionPool.getInstance().getStats(endpointUrl);
+    }
+
 }
@@ -0,0 +1,260 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of requests in progress to an endpoint. The limit adapts to the endpoint: it grows by one
+ * request per round of successful requests while the latency stays close to the usual one, and it shrinks when
+ * the latency grows past {@link #LATENCY_TOLERANCE} times the usual one or requests fail. It never goes below
+ * {@link #MIN_LIMIT} nor above the maximum number of connections to the endpoint. The usual latency is kept per
+ * operation, so that a burst of slow operations like listing all the instances of a workspace doesn't pass for a
+ * slowdown of the endpoint.
+ *
+ * <p>Requests wait for their turn up to the connection request timeout of the endpoint, then fail with
+ * {@link EndpointUnavailableException}, so threads don't pile up when the endpoint slows down.</p>
+ */
+public class ConcurrencyLimiter {
+
+    public static final int MIN_LIMIT = Integer.getInteger("elasticbox.jenkins.client.minConcurrency", 2);
+
+    public static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double FAILURE_BACKOFF_RATIO = 0.5;
+
+    // weights of the last sample in the averages of the recent and the usual latency
+    private static final double RECENT_LATENCY_WEIGHT = 0.2;
+    private static final double USUAL_LATENCY_WEIGHT = 0.01;
+
+    private static final ConcurrentHashMap<String, ConcurrencyLimiter> endpointToLimiterMap =
+            new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    private final String endpointUrl;
+    private int maxLimit;
+    private double limit;
+    private int inFlight;
+    private final Map<String, Latency> operationToLatencyMap = new HashMap<String, Latency>();
+    private long lastBackoffTime;
+    private double lastBackoffLatency;
+    private boolean backedOff;
+
+    public ConcurrencyLimiter(String endpointUrl, int maxLimit) {
+        this.endpointUrl = endpointUrl;
+        this.maxLimit = Math.max(maxLimit, 1);
+        this.limit = this.maxLimit;
+    }
+
+    public static ConcurrencyLimiter forEndpoint(String endpointUrl) {
+        if (endpointUrl.endsWith("/")) {
+            endpointUrl = endpointUrl.substring(0, endpointUrl.length() - 1);
+        }
+        ConcurrencyLimiter limiter = endpointToLimiterMap.get(endpointUrl);
+        if (limiter == null) {
+            limiter = new ConcurrencyLimiter(endpointUrl,
+                    HttpConnectionPool.getInstance().getSettings(endpointUrl).getMaxConnections());
+            ConcurrencyLimiter existingLimiter = endpointToLimiterMap.putIfAbsent(endpointUrl, limiter);
+            if (existingLimiter != null) {
+                limiter = existingLimiter;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Sets the highest limit, normally the maximum number of connections to the endpoint.
+     */
+    public synchronized void setMaxLimit(int maxLimit) {
+        this.maxLimit = Math.max(maxLimit, 1);
+        limit = Math.min(limit, this.maxLimit);
+        notifyAll();
+    }
+
+    /**
+     * Waits until one more request can be sent to the endpoint. Each call must be followed by a call to
+     * {@link #release(String, long, boolean)} once the request completes.
+     *
+     * @throws EndpointUnavailableException if the request couldn't be sent within the specified timeout
+     */
+    public synchronized void acquire(long timeoutMillis) throws InterruptedIOException,
+            EndpointUnavailableException {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (inFlight >= getLimit()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new EndpointUnavailableException(MessageFormat.format(
+                            "Too many requests to ElasticBox at {0} in progress ({1}), try again later",
+                            endpointUrl, inFlight));
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a request to " + endpointUrl);
+        }
+        inFlight++;
+    }
+
+    /**
+     * Releases a request acquired with {@link #acquire(long)} and adjusts the limit.
+     *
+     * @param operation name of the operation of the request, its latency is compared to the usual one of the
+     *                  operation
+     * @param latencyNanos time taken by the request to complete, or a negative value if it didn't complete
+     * @param overloaded true if the request failed because the endpoint is overloaded or not reachable
+     */
+    public synchronized void release(String operation, long latencyNanos, boolean overloaded) {
+        inFlight--;
+        long now = System.nanoTime();
+        Latency latency = operationToLatencyMap.get(operation);
+        if (overloaded) {
+            backOff(FAILURE_BACKOFF_RATIO, now, latency != null ? latency.recent : 0);
+        } else if (latencyNanos >= 0) {
+            if (latency == null) {
+                latency = new Latency(latencyNanos);
+                operationToLatencyMap.put(operation, latency);
+            } else {
+                latency.recent += RECENT_LATENCY_WEIGHT * (latencyNanos - latency.recent);
+                latency.usual += USUAL_LATENCY_WEIGHT * (latencyNanos - latency.usual);
+            }
+
+            if (latency.recent > latency.usual * LATENCY_TOLERANCE) {
+                backOff(BACKOFF_RATIO, now, latency.recent);
+            } else if (limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Releases the request once the body of its response is read to the end, closed or consumed, so that the
+     * requests still streaming their response count against the limit. Responses without a body or with a body
+     * already in memory are released right away.
+     *
+     * @param startTime time when the request was sent, as returned by {@link System#nanoTime()}
+     */
+    public void releaseWhenConsumed(HttpResponse response, final String operation, final long startTime,
+            final boolean overloaded) {
+
+        if (response.getEntity() == null || !response.getEntity().isStreaming()) {
+            release(operation, System.nanoTime() - startTime, overloaded);
+            return;
+        }
+
+        final AtomicBoolean released = new AtomicBoolean();
+        response.setEntity(new HttpEntityWrapper(response.getEntity()) {
+            private void release() {
+                if (released.compareAndSet(false, true)) {
+                    ConcurrencyLimiter.this.release(operation, System.nanoTime() - startTime, overloaded);
+                }
+            }
+
+            @Override
+            public InputStream getContent() throws IOException {
+                InputStream content;
+                try {
+                    content = super.getContent();
+                } catch (IOException | RuntimeException ex) {
+                    release();
+                    throw ex;
+                }
+                if (content == null) {
+                    release();
+                    return null;
+                }
+                return new ProxyInputStream(content) {
+                    @Override
+                    protected void afterRead(int count) {
+                        if (count == -1) {
+                            release();
+                        }
+                    }
+
+                    @Override
+                    protected void handleIOException(IOException ex) throws IOException {
+                        release();
+                        throw ex;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            release();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public void writeTo(OutputStream outstream) throws IOException {
+                try {
+                    super.writeTo(outstream);
+                } finally {
+                    release();
+                }
+            }
+        });
+    }
+
+    private void backOff(double ratio, long now, double roundTripNanos) {
+        // the requests in flight were all sent under the same conditions, so back off at most once per round trip
+        if (!backedOff || now - lastBackoffTime >= Math.max(roundTripNanos, lastBackoffLatency)) {
+            limit = Math.max(Math.min(MIN_LIMIT, maxLimit), limit * ratio);
+            lastBackoffTime = now;
+            lastBackoffLatency = roundTripNanos;
+            backedOff = true;
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MessageFormat.format("ConcurrencyLimiter'{'endpoint={0}, limit={1}, inFlight={2}'}'",
+                endpointUrl, String.valueOf(getLimit()), String.valueOf(inFlight));
+    }
+
+    private static final class Latency {
+        private double recent;
+        private double usual;
+
+        Latency(long latencyNanos) {
+            recent = usual = latencyNanos;
+        }
+    }
+}
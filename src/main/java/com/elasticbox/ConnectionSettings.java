@@ -0,0 +1,153 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import org.apache.http.client.config.RequestConfig;
+
+import java.text.MessageFormat;
+
+/**
+ * Connection settings applied to every request sent to one ElasticBox endpoint.
+ *
+ * <p>Timeouts are in milliseconds. A value of zero or less for any setting means that the default, taken from
+ * the corresponding <code>elasticbox.jenkins.client.*</code> system property, is used instead.</p>
+ */
+public class ConnectionSettings {
+
+    public static final int DEFAULT_MAX_CONNECTIONS =
+            Integer.getInteger("elasticbox.jenkins.client.maxConnectionsPerEndpoint", 50);
+
+    public static final int DEFAULT_CONNECT_TIMEOUT =
+            Integer.getInteger("elasticbox.jenkins.client.connectTimeout", 30 * 1000);
+
+    public static final int DEFAULT_SOCKET_TIMEOUT =
+            Integer.getInteger("elasticbox.jenkins.client.socketTimeout", 2 * 60 * 1000);
+
+    public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT =
+            Integer.getInteger("elasticbox.jenkins.client.connectionRequestTimeout", 60 * 1000);
+
+    public static final long DEFAULT_KEEP_ALIVE =
+            Long.getLong("elasticbox.jenkins.client.keepAlive", 30 * 1000);
+
+    public static final int DEFAULT_MAX_RETRIES = Integer.getInteger("elasticbox.jenkins.client.maxRetries", 3);
+
+    public static final ConnectionSettings DEFAULT = new ConnectionSettings(0, 0, 0, 0, 0, 0);
+
+    private final int maxConnections;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final int connectionRequestTimeout;
+    private final long keepAlive;
+    private final int maxRetries;
+
+    public ConnectionSettings(int maxConnections, int connectTimeout, int socketTimeout) {
+        this(maxConnections, connectTimeout, socketTimeout, 0, 0, 0);
+    }
+
+    public ConnectionSettings(int maxConnections, int connectTimeout, int socketTimeout, int maxRetries) {
+        this(maxConnections, connectTimeout, socketTimeout, 0, 0, maxRetries);
+    }
+
+    public ConnectionSettings(int maxConnections, int connectTimeout, int socketTimeout,
+                              int connectionRequestTimeout, long keepAlive) {
+        this(maxConnections, connectTimeout, socketTimeout, connectionRequestTimeout, keepAlive, 0);
+    }
+
+    public ConnectionSettings(int maxConnections, int connectTimeout, int socketTimeout,
+                              int connectionRequestTimeout, long keepAlive, int maxRetries) {
+        this.maxConnections = maxConnections > 0 ? maxConnections : DEFAULT_MAX_CONNECTIONS;
+        this.connectTimeout = connectTimeout > 0 ? connectTimeout : DEFAULT_CONNECT_TIMEOUT;
+        this.socketTimeout = socketTimeout > 0 ? socketTimeout : DEFAULT_SOCKET_TIMEOUT;
+        this.connectionRequestTimeout = connectionRequestTimeout > 0
+                ? connectionRequestTimeout : DEFAULT_CONNECTION_REQUEST_TIMEOUT;
+        this.keepAlive = keepAlive > 0 ? keepAlive : DEFAULT_KEEP_ALIVE;
+        this.maxRetries = maxRetries > 0 ? maxRetries : DEFAULT_MAX_RETRIES;
+    }
+
+    /**
+     * Maximum number of pooled connections that can be leased at the same time for the endpoint.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * Maximum time to wait for a connection to be leased from the pool.
+     */
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    /**
+     * How long an idle connection is kept alive when the server response doesn't specify it.
+     */
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Maximum number of times an idempotent request is retried after a transient error, see {@link RetryPolicy}.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    RequestConfig toRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(connectionRequestTimeout)
+                .build();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ConnectionSettings)) {
+            return false;
+        }
+        ConnectionSettings other = (ConnectionSettings) obj;
+        return maxConnections == other.maxConnections && connectTimeout == other.connectTimeout
+                && socketTimeout == other.socketTimeout && connectionRequestTimeout == other.connectionRequestTimeout
+                && keepAlive == other.keepAlive && maxRetries == other.maxRetries;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = maxConnections;
+        result = 31 * result + connectTimeout;
+        result = 31 * result + socketTimeout;
+        result = 31 * result + connectionRequestTimeout;
+        result = 31 * result + (int) (keepAlive ^ (keepAlive >>> 32));
+        result = 31 * result + maxRetries;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("maxConnections={0}, connectTimeout={1}, socketTimeout={2}, "
+                + "connectionRequestTimeout={3}, keepAlive={4}, maxRetries={5}", String.valueOf(maxConnections),
+                String.valueOf(connectTimeout), String.valueOf(socketTimeout),
+                String.valueOf(connectionRequestTimeout), String.valueOf(keepAlive), String.valueOf(maxRetries));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of the bodies sent to and received from ElasticBox.
+ *
+ * <p>Responses are always negotiated with <code>Accept-Encoding: gzip, deflate</code> and decoded while they are
+ * read, so the callers get the plain body. Request bodies are only compressed when
+ * <code>elasticbox.jenkins.client.compressRequests</code> is set, because the endpoint must support it, and only the
+ * JSON bodies of at least <code>elasticbox.jenkins.client.minCompressedRequestSize</code> bytes.</p>
+ *
+ * <p>Both the bytes on the wire and the decoded bytes are counted in the {@link OperationStats} of the request.</p>
+ */
+public class ContentCompression {
+
+    public static final boolean COMPRESS_REQUESTS = Boolean.getBoolean("elasticbox.jenkins.client.compressRequests");
+
+    public static final int MIN_COMPRESSED_REQUEST_SIZE =
+            Integer.getInteger("elasticbox.jenkins.client.minCompressedRequestSize", 8 * 1024);
+
+    static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    private ContentCompression() {
+    }
+
+    static void acceptCompressedResponse(HttpRequest request) {
+        if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+        }
+    }
+
+    /**
+     * Replaces the body of the request with its gzip compressed copy if request compression is enabled and the body
+     * is worth it. The new body is repeatable, so the request can still be retried.
+     *
+     * @return the number of bytes of the body on the wire, or -1 if unknown
+     */
+    static long compressRequest(HttpEntityEnclosingRequest request) throws IOException {
+        return compressRequest(request, COMPRESS_REQUESTS ? MIN_COMPRESSED_REQUEST_SIZE : -1);
+    }
+
+    static long compressRequest(HttpEntityEnclosingRequest request, int minSize) throws IOException {
+        HttpEntity entity = request.getEntity();
+        if (entity == null) {
+            return 0;
+        }
+        long length = entity.getContentLength();
+        if (minSize < 0 || length < minSize || entity.getContentEncoding() != null || !isJson(entity)
+                || !entity.isRepeatable()) {
+            return length;
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) Math.min(length, Integer.MAX_VALUE) / 4);
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        try {
+            entity.writeTo(gzip);
+        } finally {
+            gzip.close();
+        }
+
+        ByteArrayEntity compressedEntity = new ByteArrayEntity(compressed.toByteArray());
+        compressedEntity.setContentType(entity.getContentType());
+        compressedEntity.setContentEncoding("gzip");
+        request.setEntity(compressedEntity);
+        return compressedEntity.getContentLength();
+    }
+
+    /**
+     * Replaces the body of the response with a stream that decodes it, if it is compressed, and counts its bytes
+     * on the wire and decoded as they are read.
+     */
+    static void decodeResponse(HttpResponse response, final OperationStats stats) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+
+        Header contentEncoding = entity.getContentEncoding();
+        final String encoding = contentEncoding != null
+                ? contentEncoding.getValue().trim().toLowerCase(Locale.ENGLISH) : null;
+        final boolean decoded = "gzip".equals(encoding) || "x-gzip".equals(encoding) || "deflate".equals(encoding);
+        if (decoded) {
+            response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+            response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+            response.removeHeaders(HttpHeaders.CONTENT_MD5);
+        }
+
+        response.setEntity(new HttpEntityWrapper(entity) {
+            private InputStream content;
+
+            @Override
+            public Header getContentEncoding() {
+                return decoded ? null : super.getContentEncoding();
+            }
+
+            @Override
+            public long getContentLength() {
+                return decoded ? -1 : super.getContentLength();
+            }
+
+            @Override
+            public InputStream getContent() throws IOException {
+                if (content != null && !isRepeatable()) {
+                    return content;
+                }
+                InputStream wireContent = new ProxyInputStream(super.getContent()) {
+                    @Override
+                    protected void afterRead(int count) {
+                        if (count > 0) {
+                            stats.addResponseWireBytes(count);
+                            if (!decoded) {
+                                stats.addResponseBytes(count);
+                            }
+                        }
+                    }
+                };
+                if (!decoded) {
+                    content = wireContent;
+                    return content;
+                }
+
+                InputStream decodedContent = "deflate".equals(encoding)
+                        ? new DeflateInputStream(wireContent) : new GZIPInputStream(wireContent);
+                content = new ProxyInputStream(decodedContent) {
+                    @Override
+                    protected void afterRead(int count) {
+                        if (count > 0) {
+                            stats.addResponseBytes(count);
+                        }
+                    }
+                };
+                return content;
+            }
+
+            @Override
+            public void writeTo(OutputStream outstream) throws IOException {
+                InputStream in = getContent();
+                try {
+                    byte[] buffer = new byte[4096];
+                    for (int count = in.read(buffer); count != -1; count = in.read(buffer)) {
+                        outstream.write(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        });
+    }
+
+    private static boolean isJson(HttpEntity entity) {
+        Header contentType = entity.getContentType();
+        return contentType != null && contentType.getValue().startsWith(ContentType.APPLICATION_JSON.getMimeType());
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import org.apache.http.HttpStatus;
+
+/**
+ * Thrown without sending the request when the ElasticBox endpoint is considered unhealthy, or when too many requests
+ * to it are already in progress.
+ */
+public class EndpointUnavailableException extends ClientException {
+
+    public EndpointUnavailableException(String message) {
+        super(message, HttpStatus.SC_SERVICE_UNAVAILABLE);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContextBuilder;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Connection pool shared by all the ElasticBox clients of this Jenkins instance.
+ *
+ * <p>The pool limits are tuned with the <code>elasticbox.jenkins.client.*</code> system properties. Each endpoint
+ * can be given its own {@link ConnectionSettings} with {@link #configure(String, ConnectionSettings)}, which sets
+ * the number of connections that can be leased for the endpoint, its timeouts and keep-alive.</p>
+ */
+public class HttpConnectionPool {
+    private static final Logger LOGGER = Logger.getLogger(HttpConnectionPool.class.getName());
+
+    public static final int MAX_TOTAL_CONNECTIONS =
+            Integer.getInteger("elasticbox.jenkins.client.maxTotalConnections", 200);
+
+    public static final long IDLE_CONNECTION_TIMEOUT =
+            Long.getLong("elasticbox.jenkins.client.idleConnectionTimeout", 60 * 1000);
+
+    public static final int VALIDATE_AFTER_INACTIVITY =
+            Integer.getInteger("elasticbox.jenkins.client.validateAfterInactivity", 2 * 1000);
+
+    private static HttpConnectionPool instance;
+
+    private final ConcurrentHashMap<HttpHost, ConnectionSettings> hostToSettingsMap =
+            new ConcurrentHashMap<HttpHost, ConnectionSettings>();
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final HttpClient httpClient;
+
+    private HttpConnectionPool() {
+        connectionManager = new PoolingHttpClientConnectionManager(createSocketFactoryRegistry());
+        connectionManager.setMaxTotal(MAX_TOTAL_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(ConnectionSettings.DEFAULT_MAX_CONNECTIONS);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        httpClient = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(ConnectionSettings.DEFAULT.toRequestConfig())
+                .setKeepAliveStrategy(new EndpointKeepAliveStrategy())
+                // the client decodes the responses itself to count their compressed bytes
+                .disableContentCompression()
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static synchronized HttpConnectionPool getInstance() {
+        if (instance == null) {
+            instance = new HttpConnectionPool();
+        }
+        return instance;
+    }
+
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Applies the specified settings to all the connections to the endpoint. Clouds sharing the same endpoint
+     * share its connections, so the last settings applied win.
+     */
+    public void configure(String endpointUrl, ConnectionSettings settings) {
+        HttpHost host = toHttpHost(endpointUrl);
+        if (host == null) {
+            return;
+        }
+
+        ConnectionSettings existingSettings = hostToSettingsMap.put(host, settings);
+        if (!settings.equals(existingSettings)) {
+            connectionManager.setMaxPerRoute(toRoute(host), settings.getMaxConnections());
+            ConcurrencyLimiter.forEndpoint(endpointUrl).setMaxLimit(settings.getMaxConnections());
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(MessageFormat.format("Connection settings for {0}: {1}", endpointUrl, settings));
+            }
+        }
+    }
+
+    public ConnectionSettings getSettings(String endpointUrl) {
+        HttpHost host = toHttpHost(endpointUrl);
+        ConnectionSettings settings = host != null ? hostToSettingsMap.get(host) : null;
+        return settings != null ? settings : ConnectionSettings.DEFAULT;
+    }
+
+    /**
+     * Returns the number of leased, pending and available connections of the whole pool.
+     */
+    public PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Returns the number of leased, pending and available connections to the specified endpoint.
+     */
+    public PoolStats getStats(String endpointUrl) {
+        HttpHost host = toHttpHost(endpointUrl);
+        return host != null ? connectionManager.getStats(toRoute(host)) : null;
+    }
+
+    private static HttpHost normalize(HttpHost host) {
+        if (host.getPort() != -1) {
+            return host;
+        }
+        int port = "https".equalsIgnoreCase(host.getSchemeName()) ? 443 : 80;
+        return new HttpHost(host.getHostName(), port, host.getSchemeName());
+    }
+
+    private static HttpRoute toRoute(HttpHost host) {
+        return new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+    }
+
+    private static HttpHost toHttpHost(String endpointUrl) {
+        try {
+            URL url = new URL(endpointUrl);
+            int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+            return new HttpHost(url.getHost(), port, url.getProtocol());
+        } catch (MalformedURLException ex) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("Invalid ElasticBox endpoint URL: {0}", endpointUrl), ex);
+            return null;
+        }
+    }
+
+    private static Registry<ConnectionSocketFactory> createSocketFactoryRegistry() {
+        RegistryBuilder<ConnectionSocketFactory> registryBuilder = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory());
+        try {
+            SSLContext sslContext = new SSLContextBuilder().loadTrustMaterial(null, new TrustStrategy() {
+                @Override
+                public boolean isTrusted(X509Certificate[] x509Certificates, String authType)
+                        throws CertificateException {
+
+                    return true;
+                }
+            }).build();
+
+            registryBuilder.register("https", new SSLConnectionSocketFactory(sslContext, new NoopHostnameVerifier()));
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Error creating the SSL connection factory, using the default one", ex);
+            registryBuilder.register("https", SSLConnectionSocketFactory.getSocketFactory());
+        }
+
+        return registryBuilder.build();
+    }
+
+    private class EndpointKeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long keepAlive = super.getKeepAliveDuration(response, context);
+            if (keepAlive > 0) {
+                return keepAlive;
+            }
+
+            HttpHost host = HttpClientContext.adapt(context).getTargetHost();
+            ConnectionSettings settings = host != null ? hostToSettingsMap.get(normalize(host)) : null;
+            return settings != null ? settings.getKeepAlive() : ConnectionSettings.DEFAULT_KEEP_ALIVE;
+        }
+    }
+
+}
@@ -0,0 +1,381 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import com.elasticbox.jenkins.BoundedExecutor;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks the resources that are being waited for by the progress monitors of a client and refreshes all of them
+ * with as few requests as possible: instances of the same workspace are fetched together with one request and
+ * each other resource is fetched once per interval regardless of the number of monitors waiting for it.
+ * Waiting threads are only woken up when their resource is done or failed.
+ *
+ * <p>A single scheduler thread ticks the trackers of all the clients, and each tick refreshes the resources of one
+ * client on a {@link BoundedExecutor} of {@link #REFRESH_THREADS} threads, with at most one refresh per client in
+ * flight. A slow or unreachable endpoint only delays the monitors of its own clients.</p>
+ */
+public class InstanceStateTracker {
+    private static final Logger LOGGER = Logger.getLogger(InstanceStateTracker.class.getName());
+
+    public static final long REFRESH_INTERVAL =
+            Long.getLong("elasticbox.jenkins.client.stateTrackerInterval", 1000);
+
+    public static final int REFRESH_THREADS = Integer.getInteger("elasticbox.jenkins.client.stateTrackerThreads", 8);
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("InstanceStateTracker-%d").setDaemon(true).build());
+
+    // the queue holds at most one refresh per client, a refresh that doesn't fit is skipped until the next tick
+    private static final BoundedExecutor refreshExecutor = BoundedExecutor.get("state-tracker", REFRESH_THREADS,
+            256, BoundedExecutor.OverflowPolicy.ABORT);
+
+    private final Client client;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+    private ScheduledFuture<?> refreshTask;
+
+    InstanceStateTracker(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Starts tracking the resource of the specified monitor. The returned registration must be cancelled once
+     * the caller is no longer waiting for it.
+     *
+     * @param monitor the monitor whose resource is tracked
+     * @param workspaceId the workspace of the resource if it is an instance, null otherwise
+     * @return the registration to wait on
+     */
+    public Registration register(AbstractProgressMonitor monitor, String workspaceId) {
+        return register(new Registration(monitor, workspaceId, null));
+    }
+
+    /**
+     * Tracks the resource of the specified monitor without blocking the caller. The returned future completes with
+     * the resource once it is done, or fails with the error that {@link AbstractProgressMonitor#waitForDone(int)}
+     * would have thrown, including {@link IProgressMonitor.TimeoutException} if the timeout elapses first.
+     * Cancelling the future stops tracking the resource.
+     *
+     * <p>The future is completed from the threads of the tracker, so the listeners that don't run quickly must be
+     * added with their own executor.</p>
+     *
+     * @param monitor the monitor whose resource is tracked
+     * @param workspaceId the workspace of the resource if it is an instance, null otherwise
+     * @param timeout the maximum time to wait in minutes, 0 or less to wait forever
+     */
+    public ListenableFuture<JSONObject> track(AbstractProgressMonitor monitor, String workspaceId, int timeout) {
+        return track(monitor, workspaceId, timeout, TimeUnit.MINUTES);
+    }
+
+    ListenableFuture<JSONObject> track(AbstractProgressMonitor monitor, String workspaceId, final long timeout,
+                                       final TimeUnit unit) {
+
+        final SettableFuture<JSONObject> future = SettableFuture.create();
+        final Registration registration = register(new Registration(monitor, workspaceId, future));
+        if (timeout > 0) {
+            final ScheduledFuture<?> timeoutTask = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    registration.timeOut(timeout, unit);
+                }
+            }, timeout, unit);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    timeoutTask.cancel(false);
+                }
+            }, SAME_THREAD);
+        }
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                registration.cancel();
+            }
+        }, SAME_THREAD);
+        return future;
+    }
+
+    private Registration register(Registration registration) {
+        registrations.add(registration);
+        synchronized (this) {
+            if (refreshTask == null) {
+                refreshTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        submitRefresh();
+                    }
+                }, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+        return registration;
+    }
+
+    public int getTrackedCount() {
+        return registrations.size();
+    }
+
+    void unregister(Registration registration) {
+        registrations.remove(registration);
+        synchronized (this) {
+            if (registrations.isEmpty() && refreshTask != null) {
+                refreshTask.cancel(false);
+                refreshTask = null;
+            }
+        }
+    }
+
+    private void submitRefresh() {
+        // the ticks that come while the previous refresh is still waiting for the endpoint are skipped
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            refreshing.set(false);
+            LOGGER.log(Level.WARNING, "Cannot refresh the tracked resources", ex);
+        }
+    }
+
+    void refresh() {
+        try {
+            Map<String, List<Registration>> workspaceToInstancesMap = new HashMap<String, List<Registration>>();
+            Map<String, List<Registration>> urlToRegistrationsMap = new HashMap<String, List<Registration>>();
+            for (Registration registration : registrations) {
+                if (registration.isFinished()) {
+                    continue;
+                }
+                if (registration.workspaceId != null) {
+                    addTo(workspaceToInstancesMap, registration.workspaceId, registration);
+                } else {
+                    addTo(urlToRegistrationsMap, registration.monitor.getResourceUrl(), registration);
+                }
+            }
+
+            for (Map.Entry<String, List<Registration>> entry : workspaceToInstancesMap.entrySet()) {
+                refreshInstances(entry.getKey(), entry.getValue(), urlToRegistrationsMap);
+            }
+
+            for (List<Registration> resourceRegistrations : urlToRegistrationsMap.values()) {
+                refreshResource(resourceRegistrations);
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.SEVERE, "Unexpected error refreshing the tracked resources", ex);
+        }
+    }
+
+    private void refreshInstances(String workspaceId, List<Registration> instanceRegistrations,
+                                  Map<String, List<Registration>> urlToRegistrationsMap) {
+
+        Map<String, List<Registration>> idToRegistrationsMap = new HashMap<String, List<Registration>>();
+        for (Registration registration : instanceRegistrations) {
+            addTo(idToRegistrationsMap, registration.resourceId, registration);
+        }
+
+        List<String> instanceIds = new ArrayList<String>(idToRegistrationsMap.keySet());
+        try {
+            for (Object instance : client.getInstances(workspaceId, instanceIds)) {
+                JSONObject instanceJson = (JSONObject) instance;
+                List<Registration> matches = idToRegistrationsMap.remove(instanceJson.getString("id"));
+                if (matches != null) {
+                    for (Registration registration : matches) {
+                        registration.update(instanceJson);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, MessageFormat.format(
+                    "Error fetching the tracked instances of workspace {0}", workspaceId), ex);
+        }
+
+        // the instances not returned in a batch are fetched one by one so that missing instances and errors are
+        // reported exactly as they are when the monitor fetches its resource directly
+        for (List<Registration> remaining : idToRegistrationsMap.values()) {
+            addTo(urlToRegistrationsMap, remaining.get(0).monitor.getResourceUrl(), remaining);
+        }
+    }
+
+    private void refreshResource(List<Registration> resourceRegistrations) {
+        try {
+            JSONObject resource = resourceRegistrations.get(0).monitor.getResource();
+            for (Registration registration : resourceRegistrations) {
+                registration.update(resource);
+            }
+        } catch (IOException ex) {
+            // reported to the waiters as it would have been if they were polling the resource themselves
+            for (Registration registration : resourceRegistrations) {
+                registration.fail(ex);
+            }
+        }
+    }
+
+    private static void addTo(Map<String, List<Registration>> map, String key, Registration registration) {
+        List<Registration> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Registration>();
+            map.put(key, list);
+        }
+        list.add(registration);
+    }
+
+    private static void addTo(Map<String, List<Registration>> map, String key, List<Registration> registrations) {
+        for (Registration registration : registrations) {
+            addTo(map, key, registration);
+        }
+    }
+
+    public class Registration {
+        private final AbstractProgressMonitor monitor;
+        private final String workspaceId;
+        private final String resourceId;
+        private final SettableFuture<JSONObject> future;
+        private JSONObject resource;
+        private boolean done;
+        private IOException error;
+
+        private Registration(AbstractProgressMonitor monitor, String workspaceId, SettableFuture<JSONObject> future) {
+            this.monitor = monitor;
+            this.workspaceId = StringUtils.isBlank(workspaceId) ? null : workspaceId;
+            this.resourceId = Client.getResourceId(monitor.getResourceUrl());
+            this.future = future;
+        }
+
+        synchronized boolean isFinished() {
+            return done || error != null;
+        }
+
+        void update(JSONObject resource) {
+            boolean isDone;
+            try {
+                isDone = monitor.isDone(resource);
+            } catch (IOException ex) {
+                synchronized (this) {
+                    this.resource = resource;
+                }
+                fail(ex);
+                return;
+            }
+
+            synchronized (this) {
+                this.resource = resource;
+                if (isDone) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+            // completed out of the lock, the listeners of the future run in this thread
+            if (isDone && future != null) {
+                future.set(resource);
+            }
+        }
+
+        void fail(IOException ex) {
+            synchronized (this) {
+                error = ex;
+                notifyAll();
+            }
+            if (future != null) {
+                future.setException(ex);
+            }
+        }
+
+        private void timeOut(long timeout, TimeUnit unit) {
+            JSONObject lastResource = getResource();
+            String state = lastResource != null ? monitor.getState(lastResource) : "unknown";
+            fail(new IProgressMonitor.TimeoutException(MessageFormat.format(
+                    "{0} is not in ready after waiting for {1} {2}. Current state: {3}",
+                    monitor.getResourceUrl(), String.valueOf(timeout), unit.name().toLowerCase(), state)));
+        }
+
+        /**
+         * Returns the last fetched resource, null if it hasn't been fetched yet.
+         */
+        public synchronized JSONObject getResource() {
+            return resource;
+        }
+
+        /**
+         * Waits until the resource is done.
+         *
+         * @param timeout the maximum time to wait in milliseconds, 0 or less to wait forever
+         * @return true if the resource is done, false if the timeout elapsed
+         * @throws IOException if the resource cannot be completed
+         * @throws InterruptedException if the waiting is canceled
+         */
+        public synchronized boolean await(long timeout) throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!done && error == null) {
+                if (timeout <= 0) {
+                    wait();
+                } else {
+                    long remainingTime = deadline - System.currentTimeMillis();
+                    if (remainingTime <= 0) {
+                        break;
+                    }
+                    wait(remainingTime);
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return done;
+        }
+
+        public void cancel() {
+            unregister(this);
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact, immutable view of an instance with only the fields needed to track the state of the instances of a
+ * workspace. Use {@link Client#getInstance(String)} to get the full instance.
+ */
+public final class InstanceSummary {
+
+    public static final StreamingJsonDecoder.RecordDecoder<InstanceSummary> DECODER =
+            new StreamingJsonDecoder.RecordDecoder<InstanceSummary>() {
+                @Override
+                public InstanceSummary decode(JsonParser parser) throws IOException {
+                    return InstanceSummary.decode(parser);
+                }
+            };
+
+    private final String id;
+    private final String name;
+    private final String uri;
+    private final String owner;
+    private final String state;
+    private final String operation;
+    private final String updated;
+    private final List<String> tags;
+    private final List<String> boxIds;
+
+    public InstanceSummary(String id, String name, String uri, String owner, String state, String operation,
+                           String updated, List<String> tags, List<String> boxIds) {
+        this.id = id;
+        this.name = name;
+        this.uri = uri;
+        this.owner = owner;
+        this.state = state;
+        this.operation = operation;
+        this.updated = updated;
+        this.tags = tags != null ? Collections.unmodifiableList(tags) : Collections.<String>emptyList();
+        this.boxIds = boxIds != null ? Collections.unmodifiableList(boxIds) : Collections.<String>emptyList();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * ID of the workspace that owns the instance.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * Event of the last operation performed on the instance.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getUpdated() {
+        return updated;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    /**
+     * IDs of the box versions of the instance, starting with the main box.
+     */
+    public List<String> getBoxIds() {
+        return boxIds;
+    }
+
+    static InstanceSummary decode(JsonParser parser) throws IOException {
+        String id = null;
+        String name = null;
+        String uri = null;
+        String owner = null;
+        String state = null;
+        String operation = null;
+        String updated = null;
+        List<String> tags = null;
+        List<String> boxIds = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                    id = StreamingJsonDecoder.readString(parser);
+                    break;
+                case "name":
+                    name = StreamingJsonDecoder.readString(parser);
+                    break;
+                case "uri":
+                    uri = StreamingJsonDecoder.readString(parser);
+                    break;
+                case "owner":
+                    owner = StreamingJsonDecoder.readString(parser);
+                    break;
+                case "state":
+                    state = StreamingJsonDecoder.readString(parser);
+                    break;
+                case "operation":
+                    // old instances have the operation event as a string
+                    operation = parser.getCurrentToken() == JsonToken.START_OBJECT
+                            ? StreamingJsonDecoder.readNestedString(parser, "event")
+                            : StreamingJsonDecoder.readString(parser);
+                    break;
+                case "updated":
+                    updated = StreamingJsonDecoder.readString(parser);
+                    break;
+                case "tags":
+                    tags = StreamingJsonDecoder.readStringArray(parser);
+                    break;
+                case "boxes":
+                    boxIds = StreamingJsonDecoder.readNestedStringArray(parser, "id");
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        return new InstanceSummary(id, name, uri, owner, state, operation, updated, tags, boxIds);
+    }
+
+    @Override
+    public String toString() {
+        return "InstanceSummary{id=" + id + ", state=" + state + ", operation=" + operation + ", owner=" + owner
+                + ", tags=" + tags + '}';
+    }
+}
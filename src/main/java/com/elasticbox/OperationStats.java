@@ -0,0 +1,232 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the requests sent for one API operation to one endpoint. Latencies are kept in a histogram with fixed
+ * buckets, so recording is cheap and the percentiles are approximated by the upper bound of their bucket.
+ */
+public class OperationStats implements OperationStatsMXBean {
+
+    // upper bounds in milliseconds of the latency buckets, the last bucket has no bound
+    private static final long[] LATENCY_BUCKETS = {
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000, 120000
+    };
+
+    private final String endpointUrl;
+    private final String operation;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong requestWireBytes = new AtomicLong();
+    private final AtomicLong responseWireBytes = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+    private final ConcurrentHashMap<String, AtomicLong> statusCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    OperationStats(String endpointUrl, String operation) {
+        this.endpointUrl = endpointUrl;
+        this.operation = operation;
+    }
+
+    /**
+     * Records a request that got a response with the specified status.
+     */
+    void record(int status, long latencyNanos, int retries, long requestLength) {
+        record(String.valueOf(status), status < 200 || status >= 400, latencyNanos, retries, requestLength);
+    }
+
+    /**
+     * Records a request that failed without response.
+     */
+    void record(Throwable error, long latencyNanos, int retries, long requestLength) {
+        record(error.getClass().getSimpleName(), true, latencyNanos, retries, requestLength);
+    }
+
+    private void record(String status, boolean error, long latencyNanos, int retries, long requestLength) {
+        requestCount.incrementAndGet();
+        if (error) {
+            errorCount.incrementAndGet();
+        }
+        retryCount.addAndGet(retries);
+        if (requestLength > 0) {
+            requestBytes.addAndGet(requestLength);
+        }
+
+        long latency = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        totalLatency.addAndGet(latency);
+        for (long max = maxLatency.get(); latency > max && !maxLatency.compareAndSet(max, latency); ) {
+            max = maxLatency.get();
+        }
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && latency > LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        latencyHistogram.incrementAndGet(bucket);
+
+        AtomicLong count = statusCounts.get(status);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = statusCounts.putIfAbsent(status, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    void addResponseBytes(long bytes) {
+        responseBytes.addAndGet(bytes);
+    }
+
+    void addRequestWireBytes(long bytes) {
+        requestWireBytes.addAndGet(bytes);
+    }
+
+    void addResponseWireBytes(long bytes) {
+        responseWireBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public String getEndpointUrl() {
+        return endpointUrl;
+    }
+
+    @Override
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    @Override
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    @Override
+    public long getRequestWireBytes() {
+        return requestWireBytes.get();
+    }
+
+    @Override
+    public long getResponseWireBytes() {
+        return responseWireBytes.get();
+    }
+
+    @Override
+    public long getMeanLatency() {
+        long count = requestCount.get();
+        return count > 0 ? totalLatency.get() / count : 0;
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    @Override
+    public long getLatencyPercentile50() {
+        return getLatencyPercentile(0.5);
+    }
+
+    @Override
+    public long getLatencyPercentile90() {
+        return getLatencyPercentile(0.9);
+    }
+
+    @Override
+    public long getLatencyPercentile99() {
+        return getLatencyPercentile(0.99);
+    }
+
+    /**
+     * Returns the upper bound of the bucket with the specified percentile of the latencies, or the maximum latency
+     * if it is lower.
+     */
+    public long getLatencyPercentile(double percentile) {
+        long[] counts = new long[latencyHistogram.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencyHistogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LATENCY_BUCKETS[i], getMaxLatency());
+            }
+        }
+        return getMaxLatency();
+    }
+
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : statusCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        requestCount.set(0);
+        errorCount.set(0);
+        retryCount.set(0);
+        requestBytes.set(0);
+        responseBytes.set(0);
+        requestWireBytes.set(0);
+        responseWireBytes.set(0);
+        totalLatency.set(0);
+        maxLatency.set(0);
+        for (int i = 0; i < latencyHistogram.length(); i++) {
+            latencyHistogram.set(i, 0);
+        }
+        statusCounts.clear();
+    }
+}
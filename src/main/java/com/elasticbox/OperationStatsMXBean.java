@@ -0,0 +1,63 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link OperationStats} of one API operation. Latencies are in milliseconds. The request and
+ * response bytes count the decoded bodies, the wire bytes count them as transferred.
+ */
+public interface OperationStatsMXBean {
+
+    String getEndpointUrl();
+
+    String getOperation();
+
+    long getRequestCount();
+
+    long getErrorCount();
+
+    long getRetryCount();
+
+    long getRequestBytes();
+
+    long getResponseBytes();
+
+    /**
+     * Bytes of the request bodies as sent, after compression.
+     */
+    long getRequestWireBytes();
+
+    /**
+     * Bytes of the response bodies as received, before decompression.
+     */
+    long getResponseWireBytes();
+
+    long getMeanLatency();
+
+    long getMaxLatency();
+
+    long getLatencyPercentile50();
+
+    long getLatencyPercentile90();
+
+    long getLatencyPercentile99();
+
+    /**
+     * Number of responses by HTTP status, and of requests that got no response by exception class.
+     */
+    Map<String, Long> getStatusCounts();
+
+    void reset();
+}
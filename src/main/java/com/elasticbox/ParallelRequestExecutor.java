@@ -0,0 +1,165 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import com.elasticbox.jenkins.BoundedExecutor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs groups of independent API requests concurrently. The number of requests running at the same time for one
+ * endpoint, across all the callers, is limited by <code>elasticbox.jenkins.client.maxParallelRequests</code>. The
+ * requests of all the endpoints share a {@link BoundedExecutor}.
+ */
+public final class ParallelRequestExecutor {
+
+    public static final int MAX_PARALLEL_REQUESTS =
+            Integer.getInteger("elasticbox.jenkins.client.maxParallelRequests", 8);
+
+    // the requests that don't fit in the queue run in the calling thread, which waits for all of them anyway
+    private static final ExecutorService executor = BoundedExecutor.get("parallel-requests",
+            4 * Math.max(1, MAX_PARALLEL_REQUESTS), 64, BoundedExecutor.OverflowPolicy.CALLER_RUNS);
+
+    private static final ConcurrentHashMap<String, Semaphore> endpointToPermitsMap =
+            new ConcurrentHashMap<String, Semaphore>();
+
+    // set in the threads running a request, which already hold a permit
+    private static final ThreadLocal<Boolean> inRequest = new ThreadLocal<Boolean>();
+
+    private ParallelRequestExecutor() {
+    }
+
+    /**
+     * Runs the specified requests and returns their results in the same order. A single request, or requests
+     * issued from a request that is already running in parallel, are run in the calling thread. If any request
+     * fails, the ones not yet finished are cancelled and its exception is thrown.
+     */
+    public static <T> List<T> invokeAll(String endpointUrl, List<? extends Callable<T>> requests)
+            throws IOException {
+
+        List<T> results = new ArrayList<T>(requests.size());
+        if (requests.size() == 1 || inRequest.get() != null) {
+            for (Callable<T> request : requests) {
+                results.add(call(request));
+            }
+            return results;
+        }
+
+        Semaphore permits = getPermits(endpointUrl);
+        List<PermitReleasingCallable<T>> tasks = new ArrayList<PermitReleasingCallable<T>>(requests.size());
+        List<Future<T>> futures = new ArrayList<Future<T>>(requests.size());
+        try {
+            for (Callable<T> request : requests) {
+                permits.acquire();
+                PermitReleasingCallable<T> task = new PermitReleasingCallable<T>(request, permits);
+                try {
+                    futures.add(executor.submit(task));
+                } catch (RuntimeException ex) {
+                    task.releasePermit();
+                    throw ex;
+                }
+                tasks.add(task);
+            }
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the requests to complete");
+        } catch (ExecutionException ex) {
+            throw toIOException(ex.getCause());
+        } finally {
+            for (int i = 0; i < futures.size(); i++) {
+                // the permit of a request cancelled before it started is never released by the request itself
+                if (futures.get(i).cancel(true) && !tasks.get(i).started.get()) {
+                    tasks.get(i).releasePermit();
+                }
+            }
+        }
+    }
+
+    private static Semaphore getPermits(String endpointUrl) {
+        Semaphore permits = endpointToPermitsMap.get(endpointUrl);
+        if (permits == null) {
+            permits = new Semaphore(Math.max(1, MAX_PARALLEL_REQUESTS));
+            Semaphore existingPermits = endpointToPermitsMap.putIfAbsent(endpointUrl, permits);
+            if (existingPermits != null) {
+                permits = existingPermits;
+            }
+        }
+        return permits;
+    }
+
+    private static <T> T call(Callable<T> request) throws IOException {
+        try {
+            return request.call();
+        } catch (Exception ex) {
+            throw toIOException(ex);
+        }
+    }
+
+    private static IOException toIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static class PermitReleasingCallable<T> implements Callable<T> {
+        private final Callable<T> request;
+        private final Semaphore permits;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PermitReleasingCallable(Callable<T> request, Semaphore permits) {
+            this.request = request;
+            this.permits = permits;
+        }
+
+        @Override
+        public T call() throws Exception {
+            started.set(true);
+            inRequest.set(Boolean.TRUE);
+            try {
+                return request.call();
+            } finally {
+                inRequest.remove();
+                releasePermit();
+            }
+        }
+
+        void releasePermit() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the deployment policy boxes of a workspace by claim. Finding the policies that provide a set of claims
+ * starts from the claim with the fewest policies and checks the other claims with one hash lookup each, instead of
+ * comparing the claims of every box of the workspace.
+ *
+ * <p>Policies are returned in the order of the boxes the index was built from. The index keeps the JSON of the
+ * policies, so callers that modify them must copy them first.</p>
+ */
+public class PolicyIndex {
+
+    private static final String POLICY_SCHEMA_SUFFIX = "/boxes/policy";
+
+    private final Map<String, Policy> idToPolicyMap = new LinkedHashMap<String, Policy>();
+    private final Map<String, List<Policy>> claimToPoliciesMap = new HashMap<String, List<Policy>>();
+    private long sequence;
+
+    /**
+     * Builds the index of the policy boxes among the specified boxes.
+     */
+    public PolicyIndex(JSONArray boxes) {
+        for (Object box : boxes) {
+            put((JSONObject) box);
+        }
+    }
+
+    public static boolean isPolicy(JSONObject box) {
+        return box.getString("schema").endsWith(POLICY_SCHEMA_SUFFIX);
+    }
+
+    /**
+     * Adds or replaces the specified box. Boxes that are not policies are ignored, unless they replace a policy
+     * with the same ID, which is removed then.
+     */
+    public synchronized void put(JSONObject box) {
+        String boxId = box.getString("id");
+        Policy oldPolicy = idToPolicyMap.get(boxId);
+        if (!isPolicy(box)) {
+            if (oldPolicy != null) {
+                remove(boxId);
+            }
+            return;
+        }
+
+        Set<String> claims = new HashSet<String>();
+        if (box.containsKey("claims")) {
+            for (Object claim : box.getJSONArray("claims")) {
+                claims.add(claim.toString());
+            }
+        }
+        // a replaced policy keeps its position
+        Policy policy = new Policy(box, claims, oldPolicy != null ? oldPolicy.position : sequence++);
+        if (oldPolicy != null) {
+            unindex(oldPolicy);
+        }
+        idToPolicyMap.put(boxId, policy);
+        for (String claim : claims) {
+            List<Policy> policies = claimToPoliciesMap.get(claim);
+            if (policies == null) {
+                policies = new ArrayList<Policy>(2);
+                claimToPoliciesMap.put(claim, policies);
+            }
+            insert(policies, policy);
+        }
+    }
+
+    public synchronized void remove(String boxId) {
+        Policy policy = idToPolicyMap.remove(boxId);
+        if (policy != null) {
+            unindex(policy);
+        }
+    }
+
+    public synchronized boolean contains(String boxId) {
+        return idToPolicyMap.containsKey(boxId);
+    }
+
+    /**
+     * Returns all the policies.
+     */
+    public synchronized List<JSONObject> getPolicies() {
+        List<Policy> policies = new ArrayList<Policy>(idToPolicyMap.values());
+        Collections.sort(policies);
+        return toJson(policies);
+    }
+
+    /**
+     * Returns the policies that provide all the specified claims, or all the policies if there are no claims.
+     */
+    public synchronized List<JSONObject> getPolicies(Collection<String> claims) {
+        if (claims.isEmpty()) {
+            return getPolicies();
+        }
+
+        List<Policy> candidates = null;
+        for (String claim : claims) {
+            List<Policy> policies = claimToPoliciesMap.get(claim);
+            if (policies == null) {
+                return Collections.emptyList();
+            }
+            if (candidates == null || policies.size() < candidates.size()) {
+                candidates = policies;
+            }
+        }
+
+        List<Policy> matches = new ArrayList<Policy>();
+        for (Policy policy : candidates) {
+            if (policy.claims.containsAll(claims)) {
+                matches.add(policy);
+            }
+        }
+        return toJson(matches);
+    }
+
+    public synchronized int size() {
+        return idToPolicyMap.size();
+    }
+
+    private void unindex(Policy policy) {
+        for (String claim : policy.claims) {
+            List<Policy> policies = claimToPoliciesMap.get(claim);
+            if (policies != null) {
+                policies.remove(policy);
+                if (policies.isEmpty()) {
+                    claimToPoliciesMap.remove(claim);
+                }
+            }
+        }
+    }
+
+    private static void insert(List<Policy> policies, Policy policy) {
+        int index = Collections.binarySearch(policies, policy);
+        policies.add(index < 0 ? -index - 1 : index, policy);
+    }
+
+    private static List<JSONObject> toJson(List<Policy> policies) {
+        List<JSONObject> boxes = new ArrayList<JSONObject>(policies.size());
+        for (Policy policy : policies) {
+            boxes.add(policy.box);
+        }
+        return boxes;
+    }
+
+    private static final class Policy implements Comparable<Policy> {
+        private final JSONObject box;
+        private final Set<String> claims;
+        private final long position;
+
+        private Policy(JSONObject box, Set<String> claims, long position) {
+            this.box = box;
+            this.claims = claims;
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(Policy other) {
+            return position < other.position ? -1 : (position == other.position ? 0 : 1);
+        }
+    }
+}
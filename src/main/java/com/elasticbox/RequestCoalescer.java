@@ -0,0 +1,134 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares one request among the threads that ask for the same resource while it is being fetched. The first thread
+ * sends the request, the others wait for its result. Nothing is kept once the request completes, so the result is
+ * never older than the calls that received it.
+ *
+ * <p>If the request was shared, each caller gets its own copy of the JSON, so they can modify it freely.</p>
+ */
+class RequestCoalescer {
+
+    interface Request<T extends JSON> {
+        T execute() throws IOException;
+    }
+
+    private final Map<String, InFlightRequest> inFlightRequests = new HashMap<String, InFlightRequest>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    <T extends JSON> T execute(String key, Request<T> request) throws IOException {
+        InFlightRequest inFlightRequest;
+        boolean leader = false;
+        synchronized (inFlightRequests) {
+            inFlightRequest = inFlightRequests.get(key);
+            if (inFlightRequest == null) {
+                inFlightRequest = new InFlightRequest();
+                inFlightRequests.put(key, inFlightRequest);
+                leader = true;
+            } else {
+                inFlightRequest.followers++;
+            }
+        }
+
+        if (!leader) {
+            coalescedCount.incrementAndGet();
+            return copy((T) inFlightRequest.await());
+        }
+
+        T result = null;
+        Throwable error = null;
+        try {
+            result = request.execute();
+            return result;
+        } catch (IOException | RuntimeException | Error ex) {
+            error = ex;
+            throw ex;
+        } finally {
+            boolean shared;
+            synchronized (inFlightRequests) {
+                if (inFlightRequests.get(key) == inFlightRequest) {
+                    inFlightRequests.remove(key);
+                }
+                shared = inFlightRequest.followers > 0;
+            }
+            // the followers copy the result while the leader may already be modifying it
+            inFlightRequest.complete(shared && result != null ? copy(result) : result, error);
+        }
+    }
+
+    /**
+     * Makes the requests issued from now on wait for a new response, instead of joining the ones in flight. Called
+     * after a resource is modified, so no caller gets a response that may have been read before the change.
+     */
+    void detachAll() {
+        synchronized (inFlightRequests) {
+            inFlightRequests.clear();
+        }
+    }
+
+    /**
+     * Returns the number of calls that got the result of a request issued by another thread.
+     */
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private static <T extends JSON> T copy(T json) {
+        return (T) (json.isArray() ? JSONArray.fromObject(json) : JSONObject.fromObject(json));
+    }
+
+    private static final class InFlightRequest {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int followers;
+        private JSON result;
+        private Throwable error;
+
+        private void complete(JSON result, Throwable error) {
+            this.result = result;
+            this.error = error;
+            done.countDown();
+        }
+
+        private JSON await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the response of another request");
+            }
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            return result;
+        }
+    }
+}
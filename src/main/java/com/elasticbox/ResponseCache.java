@@ -0,0 +1,287 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+
+import java.net.URI;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP cache of the JSON resources fetched by a client, revalidated on every request. The responses with an
+ * <code>ETag</code> or a <code>Last-Modified</code> header are kept with their parsed JSON, and the next request
+ * for the same URL sends <code>If-None-Match</code> and <code>If-Modified-Since</code>. When ElasticBox answers
+ * <code>304 Not Modified</code> the cached JSON is returned without downloading or parsing the body again.
+ *
+ * <p>The cache is bounded by the estimated memory taken by the cached JSON, {@link #MAX_SIZE} bytes, evicting the
+ * least recently used responses first. A size of zero or less disables the cache. Hits and misses are counted per
+ * resource, named like the API operations of {@link ApiMetrics}.</p>
+ *
+ * <p>Callers get their own copy of the cached JSON, so they can modify it freely.</p>
+ */
+public class ResponseCache {
+
+    public static final long MAX_SIZE = Long.getLong("elasticbox.jenkins.client.responseCacheSize", 8 * 1024 * 1024);
+
+    // approximate memory taken by each value of a parsed JSON beside its characters: the map entry or the list slot,
+    // the object header and the boxing of the primitive values
+    private static final int VALUE_OVERHEAD = 64;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, ResourceStats> resourceToStatsMap =
+            new ConcurrentHashMap<String, ResourceStats>();
+    private final long maxSize;
+    private long size;
+
+    public ResponseCache() {
+        this(MAX_SIZE);
+    }
+
+    public ResponseCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Adds the validators of the cached response of the URL to the request.
+     *
+     * @return true if the request was made conditional
+     */
+    boolean addValidators(String url, HttpRequest request) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(url);
+        }
+        if (entry == null) {
+            return false;
+        }
+
+        if (entry.etag != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, entry.etag);
+        }
+        if (entry.lastModified != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.lastModified);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a copy of the cached JSON of the URL after ElasticBox answered that it was not modified, or null if
+     * the response was evicted in the meantime.
+     */
+    JSON getNotModified(String url) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(url);
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        getStats(url).hitCount.incrementAndGet();
+        return copy(entry.json);
+    }
+
+    /**
+     * Estimates the memory taken by the JSON parsed from a response body of the specified length, counting two bytes
+     * per character and {@link #VALUE_OVERHEAD} bytes per value.
+     */
+    static long weigh(JSON json, long length) {
+        return 2 * length + VALUE_OVERHEAD * countValues(json);
+    }
+
+    private static long countValues(Object value) {
+        long count = 1;
+        if (value instanceof JSONObject) {
+            for (Object child : ((JSONObject) value).values()) {
+                count += countValues(child);
+            }
+        } else if (value instanceof JSONArray) {
+            for (Object child : (JSONArray) value) {
+                count += countValues(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Caches the JSON parsed from a full response if the response has validators.
+     *
+     * @param size the estimated memory taken by the JSON, see {@link #weigh(JSON, long)}
+     * @return the JSON for the caller, a copy of the cached one if it was cached
+     */
+    JSON put(String url, HttpResponse response, JSON json, long size) {
+        if (maxSize <= 0) {
+            return json;
+        }
+
+        getStats(url).missCount.incrementAndGet();
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        if ((etag == null && lastModified == null) || size > maxSize) {
+            remove(url);
+            return json;
+        }
+
+        Entry entry = new Entry(json, etag != null ? etag.getValue() : null,
+                lastModified != null ? lastModified.getValue() : null, size);
+        synchronized (entries) {
+            Entry oldEntry = entries.put(url, entry);
+            if (oldEntry != null) {
+                this.size -= oldEntry.size;
+            }
+            this.size += size;
+            for (Iterator<Entry> iter = entries.values().iterator(); this.size > maxSize && iter.hasNext(); ) {
+                this.size -= iter.next().size;
+                iter.remove();
+            }
+        }
+        return copy(json);
+    }
+
+    public void remove(String url) {
+        synchronized (entries) {
+            Entry entry = entries.remove(url);
+            if (entry != null) {
+                size -= entry.size;
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Returns the number of cached responses.
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the estimated memory taken by the cached JSON, in bytes.
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * Returns the hits and misses of each resource, sorted by resource name.
+     */
+    public List<ResourceStats> getResourceStats() {
+        List<ResourceStats> stats = new ArrayList<ResourceStats>(resourceToStatsMap.values());
+        Collections.sort(stats, new Comparator<ResourceStats>() {
+            @Override
+            public int compare(ResourceStats stats1, ResourceStats stats2) {
+                return stats1.resource.compareTo(stats2.resource);
+            }
+        });
+        return stats;
+    }
+
+    public ResourceStats getResourceStats(String resource) {
+        return resourceToStatsMap.get(resource);
+    }
+
+    private ResourceStats getStats(String url) {
+        URI uri = URI.create(url);
+        String resource = ApiMetrics.toOperation("GET", uri.getRawPath(), uri.getRawQuery());
+        ResourceStats stats = resourceToStatsMap.get(resource);
+        if (stats == null) {
+            stats = new ResourceStats(resource);
+            ResourceStats existingStats = resourceToStatsMap.putIfAbsent(resource, stats);
+            if (existingStats != null) {
+                stats = existingStats;
+            }
+        }
+        return stats;
+    }
+
+    private static JSON copy(JSON json) {
+        return json.isArray() ? JSONArray.fromObject(json) : JSONObject.fromObject(json);
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("ResponseCache'{'entries={0}, size={1}'}'", String.valueOf(getEntryCount()),
+                String.valueOf(getSize()));
+    }
+
+    /**
+     * Hits and misses of the requests for one resource. A hit is a response that was not modified.
+     */
+    public static final class ResourceStats {
+        private final String resource;
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+
+        private ResourceStats(String resource) {
+            this.resource = resource;
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public long getHitCount() {
+            return hitCount.get();
+        }
+
+        public long getMissCount() {
+            return missCount.get();
+        }
+
+        public double getHitRate() {
+            long hits = hitCount.get();
+            long total = hits + missCount.get();
+            return total > 0 ? (double) hits / total : 0;
+        }
+    }
+
+    private static final class Entry {
+        private final JSON json;
+        private final String etag;
+        private final String lastModified;
+        private final long size;
+
+        private Entry(JSON json, String etag, String lastModified, long size) {
+            this.json = json;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLException;
+
+/**
+ * Decides whether a failed request to an endpoint is retried and how long to wait before retrying it.
+ *
+ * <p>Only idempotent requests are retried after connection errors and the responses telling that the server is
+ * temporarily unavailable: the GET, HEAD and OPTIONS requests and the PUT requests that replace a whole resource.
+ * The other requests, like the deletes and the actions on instances, may have been applied by the server even if
+ * their response never came, so they are only retried when the connection could not be established and the request
+ * was never sent, see {@link #isUnsent(IOException)}. The wait grows exponentially from {@link #INITIAL_BACKOFF} up
+ * to {@link #MAX_BACKOFF} milliseconds, with a random jitter so the clients that failed together don't retry
+ * together. The number of retries per request is set by {@link ConnectionSettings#getMaxRetries()}.</p>
+ *
+ * <p>Retries are also limited by a budget shared by all the requests to the endpoint: each request adds
+ * {@link #RETRY_BUDGET_RATIO} to the budget, up to {@link #MAX_RETRY_BUDGET}, and each retry takes one. When the
+ * endpoint is down most requests fail, the budget runs out and the errors are returned immediately instead of
+ * multiplying the load on the server.</p>
+ */
+public class RetryPolicy {
+
+    public static final long INITIAL_BACKOFF = Long.getLong("elasticbox.jenkins.client.retryBackoff", 500);
+
+    public static final long MAX_BACKOFF = Long.getLong("elasticbox.jenkins.client.maxRetryBackoff", 10 * 1000);
+
+    public static final double RETRY_BUDGET_RATIO =
+            Double.parseDouble(System.getProperty("elasticbox.jenkins.client.retryBudgetRatio", "0.2"));
+
+    public static final int MAX_RETRY_BUDGET = Integer.getInteger("elasticbox.jenkins.client.maxRetryBudget", 20);
+
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<String>(
+            Arrays.asList("GET", "HEAD", "OPTIONS"));
+
+    private static final ConcurrentHashMap<String, RetryPolicy> endpointToPolicyMap =
+            new ConcurrentHashMap<String, RetryPolicy>();
+
+    private final String endpointUrl;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final double budgetRatio;
+    private final int maxBudget;
+    private double budget;
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong exhaustedBudgetCount = new AtomicLong();
+
+    public RetryPolicy(String endpointUrl, long initialBackoff, long maxBackoff, double budgetRatio, int maxBudget) {
+        this.endpointUrl = endpointUrl;
+        this.initialBackoff = Math.max(initialBackoff, 1);
+        this.maxBackoff = Math.max(maxBackoff, this.initialBackoff);
+        this.budgetRatio = budgetRatio;
+        this.maxBudget = maxBudget;
+        this.budget = maxBudget;
+    }
+
+    public static RetryPolicy forEndpoint(String endpointUrl) {
+        RetryPolicy policy = endpointToPolicyMap.get(endpointUrl);
+        if (policy == null) {
+            policy = new RetryPolicy(endpointUrl, INITIAL_BACKOFF, MAX_BACKOFF, RETRY_BUDGET_RATIO, MAX_RETRY_BUDGET);
+            RetryPolicy existingPolicy = endpointToPolicyMap.putIfAbsent(endpointUrl, policy);
+            if (existingPolicy != null) {
+                policy = existingPolicy;
+            }
+        }
+        return policy;
+    }
+
+    public static boolean isIdempotent(String method) {
+        return IDEMPOTENT_METHODS.contains(method);
+    }
+
+    /**
+     * Returns true if the specified error happened before the request was sent, so it can be sent again whether it
+     * is idempotent or not.
+     */
+    public static boolean isUnsent(IOException error) {
+        return error instanceof ConnectException || error instanceof ConnectTimeoutException
+                || error instanceof ConnectionPoolTimeoutException;
+    }
+
+    /**
+     * Returns true if the request may succeed if sent again after the specified response status.
+     */
+    public static boolean isRetryable(int status) {
+        return status == HttpStatus.SC_BAD_GATEWAY || status == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || status == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Returns true if the request may succeed if sent again after the specified error.
+     */
+    public static boolean isRetryable(IOException error) {
+        if (error instanceof ClientException) {
+            // errors returned by ElasticBox, or the endpoint was found unavailable before sending the request
+            return false;
+        }
+        if (error instanceof SSLException) {
+            return false;
+        }
+        if (error instanceof InterruptedIOException) {
+            return error instanceof SocketTimeoutException || !Thread.currentThread().isInterrupted();
+        }
+        return true;
+    }
+
+    /**
+     * Registers a new request, adding its share to the retry budget.
+     */
+    public synchronized void onRequest() {
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    /**
+     * Takes one retry from the budget, returns false if the budget is exhausted.
+     */
+    public synchronized boolean tryRetry() {
+        if (budget < 1) {
+            exhaustedBudgetCount.incrementAndGet();
+            return false;
+        }
+        budget--;
+        retryCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the time in milliseconds to wait before the specified retry, starting from zero.
+     */
+    public long getBackoff(int retry) {
+        long maxWait = initialBackoff << Math.min(retry, 20);
+        if (maxWait <= 0 || maxWait > maxBackoff) {
+            maxWait = maxBackoff;
+        }
+        // half of the time is fixed, so a retry never comes right after the failure
+        return maxWait / 2 + ThreadLocalRandom.current().nextLong(maxWait / 2 + 1);
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Returns the number of failed requests that were not retried because the budget was exhausted.
+     */
+    public long getExhaustedBudgetCount() {
+        return exhaustedBudgetCount.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MessageFormat.format("RetryPolicy'{'endpoint={0}, budget={1}, retries={2}, exhaustedBudget={3}'}'",
+                endpointUrl, String.valueOf((int) budget), String.valueOf(getRetryCount()),
+                String.valueOf(getExhaustedBudgetCount()));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes JSON arrays of the ElasticBox API directly from the response stream into compact records, without
+ * reading the whole response into memory. Only the fields needed by each record are kept, the rest are skipped.
+ */
+public final class StreamingJsonDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Decodes one record from a parser positioned on the {@link JsonToken#START_OBJECT} of the record. The decoder
+     * must leave the parser on the matching {@link JsonToken#END_OBJECT}.
+     */
+    public interface RecordDecoder<T> {
+        T decode(JsonParser parser) throws IOException;
+    }
+
+    private StreamingJsonDecoder() {
+    }
+
+    public static <T> List<T> decodeArray(InputStream input, RecordDecoder<T> decoder) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(input);
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException("Expected a JSON array", parser.getCurrentLocation());
+            }
+
+            List<T> records = new ArrayList<T>();
+            for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                if (token == JsonToken.START_OBJECT) {
+                    records.add(decoder.decode(parser));
+                } else if (token == null) {
+                    throw new JsonParseException("Unexpected end of JSON array", parser.getCurrentLocation());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return records;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads the string value of the current field, null if it is not a string or a number.
+     */
+    static String readString(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_STRING || (token != null && token.isNumeric())) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    /**
+     * Reads the current field as an array of strings, ignoring any element that is not a string.
+     */
+    static List<String> readStringArray(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return Collections.emptyList();
+        }
+
+        List<String> values = new ArrayList<String>();
+        for (JsonToken token = parser.nextToken(); token != null && token != JsonToken.END_ARRAY;
+                 token = parser.nextToken()) {
+            if (token == JsonToken.VALUE_STRING) {
+                values.add(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads the current field as an object and returns the value of one of its string fields.
+     */
+    static String readNestedString(JsonParser parser, String fieldName) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+
+        String value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (fieldName.equals(name)) {
+                value = readString(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads the current field as an array of objects and returns the value of one string field of each object.
+     */
+    static List<String> readNestedStringArray(JsonParser parser, String fieldName) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return Collections.emptyList();
+        }
+
+        List<String> values = new ArrayList<String>();
+        for (JsonToken token = parser.nextToken(); token != null && token != JsonToken.END_ARRAY;
+                 token = parser.nextToken()) {
+            String value = readNestedString(parser, fieldName);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+}
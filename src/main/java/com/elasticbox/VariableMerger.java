@@ -0,0 +1,119 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges variables into the variables of an instance. The variables of the instance are indexed by scope and name
+ * once, and the variables of its boxes are looked up in the indexed {@link BoxStack}, so merging takes linear time
+ * in the number of variables.
+ *
+ * <p>A variable that the instance doesn't override yet is added to the instance as a copy of the box variable. The
+ * merge reports the variables whose value or tags actually changed, so an update that changes nothing can be
+ * skipped. Adding a variable with the value of the box variable doesn't change anything by itself.</p>
+ */
+public class VariableMerger {
+
+    private final JSONArray instanceVariables;
+    private final Map<String, JSONObject> instanceVariableMap = new HashMap<String, JSONObject>();
+    private final BoxStack boxStack;
+
+    public VariableMerger(JSONArray instanceVariables, BoxStack boxStack) {
+        this.instanceVariables = instanceVariables;
+        this.boxStack = boxStack;
+        for (Object variable : instanceVariables) {
+            JSONObject variableJson = (JSONObject) variable;
+            String key = toKey(getScope(variableJson), variableJson.getString("name"));
+            if (!instanceVariableMap.containsKey(key)) {
+                instanceVariableMap.put(key, variableJson);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the instance or one of its boxes has a variable with the scope and name of the specified one.
+     */
+    public boolean contains(JSONObject variable) {
+        String name = variable.getString("name");
+        String scope = getScope(variable);
+        return instanceVariableMap.containsKey(toKey(scope, name)) || boxStack.findVariable(name, scope) != null;
+    }
+
+    /**
+     * Merges the value and tags of the specified variables into the variables of the instance. Variables that
+     * neither the instance nor its boxes have are ignored.
+     *
+     * @return the variables of the instance that changed
+     */
+    public List<JSONObject> merge(JSONArray variables) {
+        Map<String, JSONObject> changedVariables = new LinkedHashMap<String, JSONObject>();
+        List<JSONObject> newVariables = new ArrayList<JSONObject>();
+        for (Object variable : variables) {
+            JSONObject variableJson = (JSONObject) variable;
+            String name = variableJson.getString("name");
+            String scope = getScope(variableJson);
+            String key = toKey(scope, name);
+            JSONObject instanceVariable = instanceVariableMap.get(key);
+            if (instanceVariable == null) {
+                instanceVariable = boxStack.findVariable(name, scope);
+                if (instanceVariable == null) {
+                    continue;
+                }
+                if (instanceVariable.getString("scope").isEmpty()) {
+                    instanceVariable.remove("scope");
+                }
+                instanceVariableMap.put(key, instanceVariable);
+                newVariables.add(instanceVariable);
+            }
+
+            boolean changed = false;
+            if (Constants.BINDING_TYPE_VARIABLE.equals(variableJson.getString("type"))
+                    && variableJson.containsKey("tags")) {
+
+                JSONArray tags = variableJson.getJSONArray("tags");
+                changed = !tags.equals(instanceVariable.get("tags"));
+                instanceVariable.put("tags", tags);
+            }
+            if (variableJson.containsKey("value")) {
+                String value = variableJson.getString("value");
+                Object oldValue = instanceVariable.get("value");
+                changed |= oldValue == null || !value.equals(oldValue.toString());
+                instanceVariable.put("value", value);
+            }
+            if (changed) {
+                changedVariables.put(key, instanceVariable);
+            }
+        }
+
+        instanceVariables.addAll(newVariables);
+        return new ArrayList<JSONObject>(changedVariables.values());
+    }
+
+    private static String getScope(JSONObject variable) {
+        return variable.containsKey("scope") ? variable.getString("scope") : StringUtils.EMPTY;
+    }
+
+    private static String toKey(String scope, String name) {
+        return scope + '\n' + name;
+    }
+}
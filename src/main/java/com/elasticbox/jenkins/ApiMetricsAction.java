@@ -0,0 +1,121 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox.jenkins;
+
+import com.elasticbox.ApiMetrics;
+import com.elasticbox.OperationStats;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Shows the statistics of the requests sent to the ElasticBox endpoints, by operation. The same statistics are
+ * available as JSON at <code>elasticbox-metrics/json</code> and in JMX. Along with them, the queue depth and the
+ * threads of the executors of the plugin, also as JSON at <code>elasticbox-metrics/executors</code>. Only visible to
+ * administrators.
+ */
+@Extension
+public class ApiMetricsAction implements RootAction {
+
+    public String getIconFileName() {
+        return Jenkins.getInstance().hasPermission(Jenkins.ADMINISTER) ? "graph.png" : null;
+    }
+
+    public String getDisplayName() {
+        return "ElasticBox API Metrics";
+    }
+
+    public String getUrlName() {
+        return "elasticbox-metrics";
+    }
+
+    public List<ApiMetrics> getEndpoints() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return ApiMetrics.getAll();
+    }
+
+    public List<BoundedExecutor> getExecutors() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return BoundedExecutor.getAll();
+    }
+
+    public void doJson(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        JSONArray endpoints = new JSONArray();
+        for (ApiMetrics metrics : getEndpoints()) {
+            JSONArray operations = new JSONArray();
+            for (OperationStats stats : metrics.getOperations()) {
+                JSONObject operation = new JSONObject();
+                operation.put("operation", stats.getOperation());
+                operation.put("requests", stats.getRequestCount());
+                operation.put("errors", stats.getErrorCount());
+                operation.put("retries", stats.getRetryCount());
+                operation.put("requestBytes", stats.getRequestBytes());
+                operation.put("responseBytes", stats.getResponseBytes());
+                operation.put("requestWireBytes", stats.getRequestWireBytes());
+                operation.put("responseWireBytes", stats.getResponseWireBytes());
+                operation.put("meanLatency", stats.getMeanLatency());
+                operation.put("p50Latency", stats.getLatencyPercentile50());
+                operation.put("p90Latency", stats.getLatencyPercentile90());
+                operation.put("p99Latency", stats.getLatencyPercentile99());
+                operation.put("maxLatency", stats.getMaxLatency());
+                operation.put("statusCounts", JSONObject.fromObject(stats.getStatusCounts()));
+                operations.add(operation);
+            }
+            JSONObject endpoint = new JSONObject();
+            endpoint.put("endpointUrl", metrics.getEndpointUrl());
+            endpoint.put("operations", operations);
+            endpoints.add(endpoint);
+        }
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(endpoints.toString());
+    }
+
+    public void doExecutors(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        JSONArray executors = new JSONArray();
+        for (BoundedExecutor executor : getExecutors()) {
+            JSONObject json = new JSONObject();
+            json.put("name", executor.getName());
+            json.put("activeThreads", executor.getActiveCount());
+            json.put("poolSize", executor.getPoolSize());
+            json.put("largestPoolSize", executor.getLargestPoolSize());
+            json.put("maxPoolSize", executor.getMaximumPoolSize());
+            json.put("queued", executor.getQueueSize());
+            json.put("queueCapacity", executor.getQueueCapacity());
+            json.put("completed", executor.getCompletedTaskCount());
+            json.put("rejected", executor.getRejectedCount());
+            executors.add(json);
+        }
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(executors.toString());
+    }
+
+    @RequirePOST
+    public void doReset(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        for (ApiMetrics metrics : getEndpoints()) {
+            metrics.reset();
+        }
+        rsp.sendRedirect(".");
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox.jenkins;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread pool of one subsystem, or of one subsystem for one cloud, with a bounded number of threads and a bounded
+ * queue, so that a flood of work in one of them cannot take the threads of the others. The threads are named after
+ * the executor.
+ *
+ * <p>The threads and the queue size of each subsystem default to the values given by the subsystem and can be set
+ * with the system properties <code>elasticbox.jenkins.executor.&lt;subsystem&gt;.threads</code> and
+ * <code>elasticbox.jenkins.executor.&lt;subsystem&gt;.queueSize</code>. What happens to a task when the queue is full
+ * is decided by the {@link OverflowPolicy} of the subsystem.</p>
+ */
+public final class BoundedExecutor extends ThreadPoolExecutor {
+    private static final Logger LOGGER = Logger.getLogger(BoundedExecutor.class.getName());
+
+    private static final ConcurrentHashMap<String, BoundedExecutor> nameToExecutorMap =
+            new ConcurrentHashMap<String, BoundedExecutor>();
+
+    /**
+     * What to do with a task that doesn't fit in the queue.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drops the task, for periodic work that will be submitted again.
+         */
+        DISCARD,
+        /**
+         * Runs the task in the submitting thread, slowing down the producer.
+         */
+        CALLER_RUNS,
+        /**
+         * Throws {@link RejectedExecutionException} to the submitting thread.
+         */
+        ABORT
+    }
+
+    private final String name;
+    private final String cloudName;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    BoundedExecutor(String name, String cloudName, int threads, int queueSize, final OverflowPolicy policy) {
+        super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+                new ThreadFactoryBuilder().setNameFormat("ElasticBox-" + name + "-%d").setDaemon(true).build());
+        this.name = name;
+        this.cloudName = cloudName;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                rejectedCount.incrementAndGet();
+                if (policy == OverflowPolicy.CALLER_RUNS && !executor.isShutdown()) {
+                    task.run();
+                    return;
+                }
+
+                String message = MessageFormat.format("Executor {0} is full with {1} queued tasks", getName(),
+                        String.valueOf(executor.getQueue().size()));
+                if (policy == OverflowPolicy.DISCARD) {
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.fine(message + ", task discarded: " + task);
+                    }
+                } else {
+                    throw new RejectedExecutionException(message);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the executor of the specified subsystem.
+     */
+    public static BoundedExecutor get(String subsystem, int threads, int queueSize, OverflowPolicy policy) {
+        return getExecutor(subsystem, null, subsystem, threads, queueSize, policy);
+    }
+
+    /**
+     * Returns the executor of the specified subsystem for the cloud with the specified name.
+     */
+    public static BoundedExecutor forCloud(String subsystem, String cloudName, int threads, int queueSize,
+                                           OverflowPolicy policy) {
+        return getExecutor(subsystem + '-' + cloudName, cloudName, subsystem, threads, queueSize, policy);
+    }
+
+    private static BoundedExecutor getExecutor(String name, String cloudName, String subsystem, int threads,
+                                               int queueSize, OverflowPolicy policy) {
+        BoundedExecutor executor = nameToExecutorMap.get(name);
+        if (executor == null) {
+            String prefix = "elasticbox.jenkins.executor." + subsystem;
+            executor = new BoundedExecutor(name, cloudName, Integer.getInteger(prefix + ".threads", threads),
+                    Integer.getInteger(prefix + ".queueSize", queueSize), policy);
+            BoundedExecutor existingExecutor = nameToExecutorMap.putIfAbsent(name, executor);
+            if (existingExecutor != null) {
+                executor.shutdown();
+                executor = existingExecutor;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Shuts down the executors of the clouds that are not in the specified ones. Their queued tasks still run.
+     */
+    public static void retainClouds(Collection<String> cloudNames) {
+        for (Map.Entry<String, BoundedExecutor> entry : nameToExecutorMap.entrySet()) {
+            BoundedExecutor executor = entry.getValue();
+            if (executor.cloudName != null && !cloudNames.contains(executor.cloudName)
+                    && nameToExecutorMap.remove(entry.getKey(), executor)) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns all the executors, sorted by name.
+     */
+    public static List<BoundedExecutor> getAll() {
+        List<BoundedExecutor> executors = new ArrayList<BoundedExecutor>(nameToExecutorMap.values());
+        Collections.sort(executors, new Comparator<BoundedExecutor>() {
+            @Override
+            public int compare(BoundedExecutor executor1, BoundedExecutor executor2) {
+                return executor1.name.compareTo(executor2.name);
+            }
+        });
+        return executors;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread.
+     */
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return getQueue().size() + getQueue().remainingCapacity();
+    }
+
+    /**
+     * Returns the number of tasks that didn't fit in the queue, whether they were discarded, aborted or run by the
+     * submitting thread.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("BoundedExecutor'{'name={0}, active={1}, queued={2}, rejected={3}'}'", name,
+                String.valueOf(getActiveCount()), String.valueOf(getQueueSize()), String.valueOf(getRejectedCount()));
+    }
+}
@@ -37,6 +37,7 @@ public class BuildListener extends RunListener<AbstractBuild> {
                     LOGGER.info(build.toString() + " has completed. Marking slave for termination - " + slave);
                     slave.markForTermination();
                 }
+                ElasticBoxExecutor.wakeUp(ElasticBoxSlaveHandler.class);
             }
         } catch (RuntimeException ex) {
             LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
@@ -0,0 +1,277 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox.jenkins;
+
+import com.elasticbox.IProgressMonitor;
+import com.elasticbox.InstanceSummary;
+import com.elasticbox.jenkins.util.SlaveInstance;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import hudson.slaves.Cloud;
+
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory view of the capacity used by one ElasticBox cloud, so that provisioning decisions never wait for
+ * ElasticBox. The active instances of the cloud are fetched in the background by a {@link BoundedExecutor} of the
+ * cloud whenever the view is older than {@link #MAX_AGE}, and readers get the last fetched instances meanwhile.
+ *
+ * <p>The slaves planned by the cloud are not active instances until they are deployed and fetched again, so each
+ * planned slave holds a reservation for its slave configuration. A reservation counts as an instance until the
+ * deployment of the slave is submitted and the view has been refreshed with instances fetched after that.</p>
+ */
+public final class CapacityView {
+    private static final Logger LOGGER = Logger.getLogger(CapacityView.class.getName());
+
+    public static final long MAX_AGE = Long.getLong("elasticbox.jenkins.CapacityView.maxAge", 10 * 1000);
+
+    private static final ConcurrentHashMap<String, CapacityView> cloudToViewMap = new ConcurrentHashMap<>();
+
+    private final String cloudName;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final List<Reservation> reservations = new ArrayList<>();
+    private volatile List<InstanceSummary> activeInstances;
+    private volatile long timestamp;
+
+    CapacityView(String cloudName) {
+        this.cloudName = cloudName;
+    }
+
+    public static CapacityView get(ElasticBoxCloud cloud) {
+        CapacityView view = cloudToViewMap.get(cloud.name);
+        if (view == null) {
+            // drop the views of deleted clouds
+            for (String name : new ArrayList<>(cloudToViewMap.keySet())) {
+                if (Jenkins.getInstance().getCloud(name) == null) {
+                    cloudToViewMap.remove(name);
+                }
+            }
+            view = new CapacityView(cloud.name);
+            CapacityView existingView = cloudToViewMap.putIfAbsent(cloud.name, view);
+            if (existingView != null) {
+                view = existingView;
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Returns the last fetched active instances of the cloud, or null if they were not fetched yet. A refresh is
+     * started in the background if the view is older than {@link #MAX_AGE}.
+     */
+    public List<InstanceSummary> getActiveInstances() {
+        if (activeInstances == null || System.currentTimeMillis() - timestamp >= MAX_AGE) {
+            refresh();
+        }
+        return activeInstances;
+    }
+
+    /**
+     * Starts fetching the active instances of the cloud in the background, unless they are being fetched already.
+     */
+    public void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            // one fetch at a time per cloud, the flag keeps the others out of the queue
+            BoundedExecutor executor = BoundedExecutor.forCloud("capacity", cloudName, 1, 1,
+                    BoundedExecutor.OverflowPolicy.ABORT);
+            executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        fetch();
+                    } catch (IOException | RuntimeException ex) {
+                        LOGGER.log(Level.WARNING, MessageFormat.format(
+                                "Error fetching the active instances of cloud {0}", cloudName), ex);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            refreshing.set(false);
+            throw ex;
+        }
+    }
+
+    private void fetch() throws IOException {
+        Cloud cloud = Jenkins.getInstance().getCloud(cloudName);
+        if (!(cloud instanceof ElasticBoxCloud)) {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        long maxAge = InstanceSnapshotService.MAX_AGE;
+        synchronized (this) {
+            // the instances of the released reservations must be fetched after they were released
+            for (Reservation reservation : reservations) {
+                if (reservation.releaseTime > 0) {
+                    maxAge = Math.min(maxAge, startTime - reservation.releaseTime);
+                }
+            }
+        }
+        update(new SlaveInstanceManager(Math.max(maxAge, 0)).getInstances((ElasticBoxCloud) cloud), startTime);
+    }
+
+    /**
+     * Replaces the active instances with the ones fetched at the specified time. The reservations released before
+     * that time are dropped, their instances are among the fetched ones.
+     */
+    synchronized void update(List<InstanceSummary> instances, long startTime) {
+        for (Iterator<Reservation> iter = reservations.iterator(); iter.hasNext(); ) {
+            Reservation reservation = iter.next();
+            if (reservation.releaseTime > 0 && reservation.releaseTime <= startTime) {
+                iter.remove();
+            }
+        }
+        activeInstances = Collections.unmodifiableList(instances);
+        timestamp = startTime;
+    }
+
+    /**
+     * Counts the instances of the cloud and of each slave configuration, including the reserved ones, from the last
+     * fetched active instances.
+     */
+    synchronized Usage getUsage(List<InstanceSummary> activeInstances) {
+        Map<String, Integer> slaveConfigIdToReservationCountMap = new HashMap<>();
+        for (Reservation reservation : reservations) {
+            Integer count = slaveConfigIdToReservationCountMap.get(reservation.slaveConfigId);
+            slaveConfigIdToReservationCountMap.put(reservation.slaveConfigId, count == null ? 1 : count + 1);
+        }
+        return new Usage(new SlaveInstance.InstanceCounter(activeInstances), slaveConfigIdToReservationCountMap,
+                activeInstances.size() + reservations.size());
+    }
+
+    /**
+     * Reserves one instance of the specified slave configuration for a planned slave, unless the cloud or the slave
+     * configuration has reached its maximum number of instances, counting the last fetched active instances and the
+     * reservations. The limits are checked and the reservation taken at once, so concurrent planners cannot exceed
+     * them. The reservation must be released once the deployment of the slave is submitted or has failed.
+     *
+     * @param maxInstances the maximum number of instances of the cloud
+     * @return the reservation, or null if a limit has been reached or the active instances were not fetched yet
+     */
+    synchronized Reservation tryReserve(AbstractSlaveConfiguration slaveConfig, int maxInstances) {
+        if (activeInstances == null) {
+            return null;
+        }
+
+        Usage usage = getUsage(activeInstances);
+        if (usage.getInstanceCount() >= maxInstances || usage.count(slaveConfig) >= slaveConfig.getMaxInstances()) {
+            return null;
+        }
+
+        Reservation reservation = new Reservation(this, slaveConfig.getId());
+        reservations.add(reservation);
+        return reservation;
+    }
+
+    public synchronized int getReservationCount() {
+        return reservations.size();
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("CapacityView'{'cloud={0}, activeInstances={1}, reservations={2}'}'", cloudName,
+                activeInstances != null ? String.valueOf(activeInstances.size()) : "?",
+                String.valueOf(getReservationCount()));
+    }
+
+    /**
+     * Instances used by a cloud at a given time.
+     */
+    static final class Usage {
+        private final SlaveInstance.InstanceCounter instanceCounter;
+        private final Map<String, Integer> slaveConfigIdToReservationCountMap;
+        private int instanceCount;
+
+        private Usage(SlaveInstance.InstanceCounter instanceCounter,
+                      Map<String, Integer> slaveConfigIdToReservationCountMap, int instanceCount) {
+            this.instanceCounter = instanceCounter;
+            this.slaveConfigIdToReservationCountMap = slaveConfigIdToReservationCountMap;
+            this.instanceCount = instanceCount;
+        }
+
+        int getInstanceCount() {
+            return instanceCount;
+        }
+
+        int count(AbstractSlaveConfiguration slaveConfig) {
+            Integer reservationCount = slaveConfigIdToReservationCountMap.get(slaveConfig.getId());
+            return instanceCounter.count(slaveConfig) + (reservationCount == null ? 0 : reservationCount);
+        }
+
+        /**
+         * Counts one more instance of the specified slave configuration, planned after this usage was taken.
+         */
+        void add(AbstractSlaveConfiguration slaveConfig) {
+            Integer reservationCount = slaveConfigIdToReservationCountMap.get(slaveConfig.getId());
+            slaveConfigIdToReservationCountMap.put(slaveConfig.getId(),
+                    reservationCount == null ? 1 : reservationCount + 1);
+            instanceCount++;
+        }
+    }
+
+    static final class Reservation {
+        private final CapacityView view;
+        private final String slaveConfigId;
+        private long releaseTime;
+
+        private Reservation(CapacityView view, String slaveConfigId) {
+            this.view = view;
+            this.slaveConfigId = slaveConfigId;
+        }
+
+        void release() {
+            synchronized (view) {
+                if (releaseTime == 0) {
+                    releaseTime = System.currentTimeMillis();
+                }
+            }
+            view.refresh();
+        }
+
+        /**
+         * Releases the reservation once the deployment of the slave submitted with the specified monitor is submitted
+         * to ElasticBox. From then on the instance is counted by the fetches of the view.
+         */
+        void releaseWhenLaunched(IProgressMonitor monitor) {
+            if (monitor instanceof LaunchSlaveProgressMonitor) {
+                ((LaunchSlaveProgressMonitor) monitor).whenLaunched().addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        release();
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            } else {
+                release();
+            }
+        }
+    }
+}
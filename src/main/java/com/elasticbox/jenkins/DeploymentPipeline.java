@@ -0,0 +1,195 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox.jenkins;
+
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the deployments of the slaves of one cloud in parallel, with at most {@link #MAX_IN_FLIGHT} of them in flight
+ * at once. The deployments of each slave configuration run one at a time in the order they were submitted, and the
+ * slave configurations take turns, so a burst of one of them doesn't hold back the others. A deployment that cannot
+ * be started because the executor rejects it, for example when the cloud was removed, is cancelled.
+ */
+public class DeploymentPipeline {
+    private static final Logger LOGGER = Logger.getLogger(DeploymentPipeline.class.getName());
+
+    public static final int MAX_IN_FLIGHT = Integer.getInteger("elasticbox.jenkins.maxInFlightDeployments", 4);
+
+    private static final ConcurrentHashMap<String, DeploymentPipeline> cloudToPipelineMap =
+            new ConcurrentHashMap<String, DeploymentPipeline>();
+
+    private final String name;
+    private final int maxInFlight;
+    private final Executor executor;
+    private final Map<String, ArrayDeque<Deployment>> keyToTasksMap =
+            new LinkedHashMap<String, ArrayDeque<Deployment>>();
+    // slave configurations with a deployment in flight
+    private final Set<String> inFlightKeys = new HashSet<String>();
+    private int queuedCount;
+    private int inFlightCount;
+
+    DeploymentPipeline(String name, int maxInFlight, Executor executor) {
+        this.name = name;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the pipeline of the cloud with the specified name.
+     */
+    public static DeploymentPipeline forCloud(String cloudName) {
+        DeploymentPipeline pipeline = cloudToPipelineMap.get(cloudName);
+        if (pipeline == null) {
+            BoundedExecutor executor = BoundedExecutor.forCloud("deploy", cloudName, MAX_IN_FLIGHT, MAX_IN_FLIGHT,
+                    BoundedExecutor.OverflowPolicy.ABORT);
+            // the executor never rejects the deployments in flight unless it was shut down
+            int maxInFlight = Math.min(MAX_IN_FLIGHT, executor.getMaximumPoolSize() + executor.getQueueCapacity());
+            pipeline = new DeploymentPipeline(cloudName, maxInFlight, executor);
+            DeploymentPipeline existingPipeline = cloudToPipelineMap.putIfAbsent(cloudName, pipeline);
+            if (existingPipeline != null) {
+                pipeline = existingPipeline;
+            }
+        }
+        return pipeline;
+    }
+
+    /**
+     * Forgets the pipelines of the clouds that are not in the specified ones.
+     */
+    public static void retainClouds(Collection<String> cloudNames) {
+        cloudToPipelineMap.keySet().retainAll(cloudNames);
+    }
+
+    /**
+     * Queues the deployment of a slave of the slave configuration with the specified ID.
+     */
+    public void submit(String slaveConfigId, Deployment deployment) {
+        synchronized (this) {
+            ArrayDeque<Deployment> tasks = keyToTasksMap.get(slaveConfigId);
+            if (tasks == null) {
+                tasks = new ArrayDeque<Deployment>();
+                keyToTasksMap.put(slaveConfigId, tasks);
+            }
+            tasks.add(deployment);
+            queuedCount++;
+        }
+        dispatch();
+    }
+
+    /**
+     * Returns the number of deployments waiting for their turn.
+     */
+    public synchronized int getQueuedCount() {
+        return queuedCount;
+    }
+
+    /**
+     * Returns the number of deployments running.
+     */
+    public synchronized int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    private void dispatch() {
+        while (true) {
+            final Deployment task;
+            final String key;
+            synchronized (this) {
+                if (inFlightCount >= maxInFlight) {
+                    return;
+                }
+
+                // the first slave configuration without a deployment in flight goes to the back of the line
+                Map.Entry<String, ArrayDeque<Deployment>> entry = null;
+                for (Iterator<Map.Entry<String, ArrayDeque<Deployment>>> iter = keyToTasksMap.entrySet().iterator();
+                        iter.hasNext(); ) {
+                    Map.Entry<String, ArrayDeque<Deployment>> candidate = iter.next();
+                    if (!inFlightKeys.contains(candidate.getKey())) {
+                        entry = candidate;
+                        iter.remove();
+                        break;
+                    }
+                }
+                if (entry == null) {
+                    return;
+                }
+
+                key = entry.getKey();
+                task = entry.getValue().poll();
+                if (!entry.getValue().isEmpty()) {
+                    keyToTasksMap.put(key, entry.getValue());
+                }
+                inFlightKeys.add(key);
+                queuedCount--;
+                inFlightCount++;
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } catch (RuntimeException ex) {
+                            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                        } finally {
+                            synchronized (DeploymentPipeline.this) {
+                                inFlightKeys.remove(key);
+                                inFlightCount--;
+                            }
+                            dispatch();
+                        }
+                    }
+                });
+            } catch (RuntimeException ex) {
+                synchronized (this) {
+                    inFlightKeys.remove(key);
+                    inFlightCount--;
+                }
+                LOGGER.log(Level.SEVERE, MessageFormat.format("Cannot start deployment of cloud {0}", name), ex);
+                try {
+                    task.cancel(ex);
+                } catch (RuntimeException cancelEx) {
+                    LOGGER.log(Level.SEVERE, cancelEx.getMessage(), cancelEx);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deployment of a slave.
+     */
+    public interface Deployment extends Runnable {
+        /**
+         * Called instead of {@link #run()} if the deployment cannot be started.
+         */
+        void cancel(Exception cause);
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("DeploymentPipeline'{'cloud={0}, queued={1}, inFlight={2}'}'", name,
+                String.valueOf(getQueuedCount()), String.valueOf(getInFlightCount()));
+    }
+}
@@ -273,7 +273,7 @@ public class DescriptorHelper {
                 if (LATEST_BOX_VERSION.equals(boxVersion)) {
                     boxVersion = client.getLatestBoxVersion(workspace, boxId);
                 }
-                JSONArray boxStack = new BoxStack(boxVersion, client.getBoxStack(boxVersion), client).toJsonArray();
+                JSONArray boxStack = client.getIndexedBoxStack(boxVersion).toJsonArray();
                 for (Object boxJson : boxStack) {
                     for (Object variable : ((JSONObject) boxJson).getJSONArray("variables")) {
                         JSONObject variableJson = (JSONObject) variable;
@@ -398,7 +398,7 @@ public class DescriptorHelper {
                 return true;
             }
 
-            return new BoxStack(boxId, instance.getJSONArray("boxes"), null).findBox(boxId) != null;
+            return BoxStack.findBox(boxId, instance.getJSONArray("boxes")) != null;
         }
     }
 
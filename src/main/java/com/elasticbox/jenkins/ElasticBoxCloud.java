@@ -15,14 +15,21 @@ package com.elasticbox.jenkins;
 import antlr.ANTLRException;
 
 import com.elasticbox.Client;
-import com.elasticbox.IProgressMonitor;
+import com.elasticbox.ConnectionSettings;
+import com.elasticbox.HttpConnectionPool;
+import com.elasticbox.InstanceSummary;
 import com.elasticbox.jenkins.migration.AbstractConverter;
 import com.elasticbox.jenkins.migration.Version;
 import com.elasticbox.jenkins.model.services.deployment.DeployBoxOrderServiceImpl;
 import com.elasticbox.jenkins.model.services.deployment.DeploymentType;
 import com.elasticbox.jenkins.model.services.error.ServiceException;
 import com.elasticbox.jenkins.util.ClientCache;
-import com.elasticbox.jenkins.util.SlaveInstance;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 import hudson.Extension;
 import hudson.model.Computer;
@@ -38,6 +45,7 @@ import hudson.util.Scrambler;
 import hudson.util.XStream2;
 
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 
 import net.sf.json.JSONArray;
 import net.sf.json.JSONException;
@@ -46,6 +54,7 @@ import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
@@ -67,10 +76,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
@@ -97,6 +106,11 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
     @Deprecated
     private int retentionTime;
     private String description;
+    private int maxConnections;
+    private int connectTimeout;
+    private int socketTimeout;
+    private int maxRetries;
+    private transient volatile LabelIndex labelIndex;
 
     @DataBoundConstructor
     public ElasticBoxCloud(String name, String description, String endpointUrl, int maxInstances, String token,
@@ -145,7 +159,7 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
         return token;
     }
 
-    private List<ElasticBoxSlave> getPendingSlaves(Label label, List<JSONObject> activeInstances) {
+    private List<ElasticBoxSlave> getPendingSlaves(Label label, List<InstanceSummary> activeInstances) {
         List<ElasticBoxSlave> pendingSlaves = new ArrayList<ElasticBoxSlave>();
         List<ElasticBoxSlave> offlineSlaves = new ArrayList<ElasticBoxSlave>();
         for (Node node : Jenkins.getInstance().getNodes()) {
@@ -170,20 +184,17 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
         }
 
         if (!offlineSlaves.isEmpty() && !activeInstances.isEmpty()) {
-            Map<String, JSONObject> idToInstanceMap = new HashMap<String, JSONObject>(activeInstances.size());
-            for (JSONObject instance : activeInstances) {
-                idToInstanceMap.put(instance.getString("id"), instance);
+            Map<String, InstanceSummary> idToInstanceMap =
+                    new HashMap<String, InstanceSummary>(activeInstances.size());
+            for (InstanceSummary instance : activeInstances) {
+                idToInstanceMap.put(instance.getId(), instance);
             }
 
             for (ElasticBoxSlave slave : offlineSlaves) {
-                JSONObject instance = idToInstanceMap.get(slave.getInstanceId());
+                InstanceSummary instance = idToInstanceMap.get(slave.getInstanceId());
                 if (instance != null) {
-                    String state = instance.getString("state");
-                    // This is for backward compatibility.
-                    String operation = instance.optString("operation");
-                    if (operation == null) {
-                        operation = instance.getJSONObject("operation").getString("event");
-                    }
+                    String state = instance.getState();
+                    String operation = instance.getOperation();
 
                     if (Client.ON_OPERATIONS.contains(operation) && (Client.InstanceState.PROCESSING.equals(state)
                             || Client.InstanceState.DONE.equals(state))) {
@@ -197,8 +208,13 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
         return pendingSlaves;
     }
 
+    /**
+     * Plans the slaves for the label from the {@link CapacityView} of the cloud. Nothing is fetched from ElasticBox
+     * here: the slaves are created and deployed by the planned nodes, so provisioning one label never waits for
+     * another.
+     */
     @Override
-    public synchronized Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
+    public Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
         try {
             return doProvision(label, excessWorkload);
         } catch (RuntimeException ex) {
@@ -211,20 +227,13 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
         if (LOGGER.isLoggable(Level.FINER)) {
             LOGGER.entering(LOGGER.getName(), "doProvision(" + label + "," + excessWorkload + ")");
         }
-        List<JSONObject> activeInstances;
-        try {
-            activeInstances = ElasticBoxSlaveHandler.getActiveInstances(this);
-        } catch (IOException ex) {
-            LOGGER.log(Level.SEVERE, "Error fetching active instances", ex);
-            return Collections.EMPTY_LIST;
-        }
-
-        if (activeInstances.size() >= maxInstances) {
-            LOGGER.log(Level.WARNING,
-                    MessageFormat.format("Cannot provision slave for label ''{0}'' because the maxinum number of "
-                                    + "instances has been reached for ElasticBox cloud {1}.",
-                            label.getName(), getDisplayName()));
-
+        CapacityView capacityView = CapacityView.get(this);
+        List<InstanceSummary> activeInstances = capacityView.getActiveInstances();
+        if (activeInstances == null) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(MessageFormat.format("Postponed provisioning slave for label ''{0}'' until the active "
+                        + "instances of ElasticBox cloud {1} are fetched.", label.getName(), getDisplayName()));
+            }
             return Collections.EMPTY_LIST;
         }
 
@@ -248,13 +257,11 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
                         numOfAvailabelExecutors--;
                         if (numOfAvailabelExecutors == 0) {
                             iter.remove();
-                            ;
                         }
                         break;
                     }
                 }
             }
-            ;
 
             for (int numOfAvailableExecutors : slaveToNumOfAvailableExecutorsMap.values()) {
                 excessWorkload -= numOfAvailableExecutors;
@@ -267,35 +274,42 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
                             + "are enough slaves are being launched in ElasticBox cloud {1}.",
                             label.getName(),
                             getDisplayName()));
+            return Collections.EMPTY_LIST;
         }
 
         List<NodeProvisioner.PlannedNode> plannedNodes = new ArrayList<NodeProvisioner.PlannedNode>();
-        while (excessWorkload > 0) {
-            try {
-                ElasticBoxSlave newSlave;
+        // the usage and the reservations are checked and taken at once, so concurrent labels cannot exceed the limits
+        synchronized (capacityView) {
+            CapacityView.Usage usage = capacityView.getUsage(activeInstances);
+            while (excessWorkload > 0) {
+                if (usage.getInstanceCount() >= maxInstances) {
+                    LOGGER.log(Level.WARNING,
+                            MessageFormat.format("Cannot provision slave for label ''{0}'' because the maxinum number "
+                                            + "of instances has been reached for ElasticBox cloud {1}.",
+                                    label.getName(), getDisplayName()));
+                    break;
+                }
+
+                AbstractSlaveConfiguration slaveConfig;
                 if (isLabelForReusableSlave(label)) {
-                    ProjectSlaveConfiguration slaveConfig = ProjectSlaveConfiguration.find(label);
-                    if (slaveConfig != null) {
-                        SlaveInstance.InstanceCounter instanceCounter =
-                                new SlaveInstance.InstanceCounter(activeInstances);
-
-                        if (instanceCounter.count(slaveConfig) >= slaveConfig.getMaxInstances()) {
-                            LOGGER.log(Level.WARNING,
-                                    MessageFormat.format(
-                                            "Cannot provision slave for label {0} because the maxinum number of "
-                                                    + "ElasticBox instances of the slave configuration "
-                                                    + "has been reached.",
-                                            label.getName()));
-                            break;
-                        }
-                        newSlave = new ElasticBoxSlave(slaveConfig, false);
-                    } else {
+                    ProjectSlaveConfiguration projectSlaveConfig = ProjectSlaveConfiguration.find(label);
+                    if (projectSlaveConfig == null) {
                         LOGGER.log(Level.WARNING, MessageFormat.format("Cannot find any slave configuration for label"
                                 + " ''{0}''. No slave will be provisioned.", label.getName()));
                         break;
                     }
+                    if (usage.count(projectSlaveConfig) >= projectSlaveConfig.getMaxInstances()) {
+                        LOGGER.log(Level.WARNING,
+                                MessageFormat.format(
+                                        "Cannot provision slave for label {0} because the maxinum number of "
+                                                + "ElasticBox instances of the slave configuration "
+                                                + "has been reached.",
+                                        label.getName()));
+                        break;
+                    }
+                    slaveConfig = projectSlaveConfig;
                 } else {
-                    SlaveConfiguration slaveConfig = findSlaveConfiguration(label, activeInstances);
+                    slaveConfig = findSlaveConfiguration(label, usage);
                     if (slaveConfig == null) {
                         LOGGER.log(Level.WARNING, MessageFormat.format("Cannot provision slave for label \"{0}\" "
                                 + "because the maxinum number of ElasticBox instances of all matching slave "
@@ -304,50 +318,117 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
 
                         break;
                     }
+                }
 
-                    newSlave = new ElasticBoxSlave(slaveConfig, this);
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("doProvision(): planning a EB Slave node of slave configuration "
+                            + slaveConfig.getId());
                 }
-                final ElasticBoxSlave slave = newSlave;
+
+                CapacityView.Reservation reservation = capacityView.tryReserve(slaveConfig, maxInstances);
+                if (reservation == null) {
+                    LOGGER.log(Level.WARNING, MessageFormat.format("Cannot provision slave for label ''{0}'' because "
+                            + "the maxinum number of instances has been reached for ElasticBox cloud {1}.",
+                            label.getName(), getDisplayName()));
+                    break;
+                }
+
+                usage.add(slaveConfig);
+                PlannedSlave plannedSlave = new PlannedSlave(slaveConfig, reservation);
+                Computer.threadPoolForRemoting.submit(plannedSlave);
+                plannedNodes.add(new NodeProvisioner.PlannedNode(
+                        StringUtils.defaultIfBlank(slaveConfig.getDescription(), label.getName()),
+                        new FutureWrapper<Node>(plannedSlave.future), 1));
+
+                excessWorkload -= Math.max(slaveConfig.getExecutors(), 1);
+            }
+        }
+        return plannedNodes;
+    }
+
+    /**
+     * Creates and deploys a planned slave, then releases the capacity reserved for it. Creating the slave resolves
+     * its box version and deployment policy in ElasticBox, so it is done here instead of while planning. The future
+     * of the planned node completes when the state tracker of the client reports the deployment done and the slave
+     * comes online, so no thread waits for the launch.
+     */
+    private final class PlannedSlave implements Runnable {
+        private final AbstractSlaveConfiguration slaveConfig;
+        private final CapacityView.Reservation reservation;
+        private final SettableFuture<Node> future = SettableFuture.create();
+
+        private PlannedSlave(AbstractSlaveConfiguration slaveConfig, CapacityView.Reservation reservation) {
+            this.slaveConfig = slaveConfig;
+            this.reservation = reservation;
+        }
+
+        public void run() {
+            final ElasticBoxSlave slave;
+            final LaunchSlaveProgressMonitor monitor;
+            try {
+                slave = slaveConfig instanceof ProjectSlaveConfiguration
+                        ? new ElasticBoxSlave((ProjectSlaveConfiguration) slaveConfig, false)
+                        : new ElasticBoxSlave((SlaveConfiguration) slaveConfig, ElasticBoxCloud.this);
 
                 if (LOGGER.isLoggable(Level.FINE)) {
                     LOGGER.fine("doProvision(): provisioning a EB Slave node - " + slave);
                 }
 
-                plannedNodes.add(new NodeProvisioner.PlannedNode(slave.getDisplayName(),
-                        new FutureWrapper<Node>(Computer.threadPoolForRemoting.submit(new Callable<Node>() {
-                            public Node call() throws Exception {
-                                Jenkins.getInstance().addNode(slave);
-                                IProgressMonitor monitor = ElasticBoxSlaveHandler.submit(slave);
-                                monitor.waitForDone(slave.getLaunchTimeout());
-                                if (slave.getComputer() != null && slave.getComputer().isOnline()) {
-                                    return slave;
-                                } else {
-                                    LOGGER.log(
-                                            Level.WARNING,
-                                            MessageFormat.format("The slave {0} did not come online after {1} minutes."
-                                                    + " It will be terminated and removed.",
-                                                    slave.getDisplayName(),
-                                                    slave.getLaunchTimeout()));
-
-                                    slave.markForTermination();
-                                    throw new Exception(
-                                            MessageFormat.format(
-                                                    "Cannot deploy slave {0}. See the system log for more details.",
-                                                    slave.getDisplayName()));
-                                }
-                            }
-                        })), 1));
+                Jenkins.getInstance().addNode(slave);
+                monitor = (LaunchSlaveProgressMonitor) ElasticBoxSlaveHandler.submit(slave);
+            } catch (Exception ex) {
+                reservation.release();
+                future.setException(ex);
+                return;
+            }
 
-                excessWorkload -= slave.getNumExecutors();
-            } catch (Descriptor.FormException ex) {
-                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-                break;
-            } catch (IOException ex) {
-                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-                break;
+            reservation.releaseWhenLaunched(monitor);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    reservation.release();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+
+            final ListenableFuture<Void> online = monitor.whenOnline(0);
+            if (slave.getLaunchTimeout() > 0) {
+                final ScheduledFuture<?> timeoutTask = Timer.get().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean timedOut = future.setException(new Exception(MessageFormat.format(
+                                "Cannot deploy slave {0}. See the system log for more details.",
+                                slave.getDisplayName())));
+                        if (timedOut) {
+                            online.cancel(false);
+                            LOGGER.log(Level.WARNING, MessageFormat.format(
+                                    "The slave {0} did not come online after {1} minutes."
+                                            + " It will be terminated and removed.",
+                                    slave.getDisplayName(), String.valueOf(slave.getLaunchTimeout())));
+
+                            slave.markForTermination();
+                        }
+                    }
+                }, slave.getLaunchTimeout(), TimeUnit.MINUTES);
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        timeoutTask.cancel(false);
+                    }
+                }, MoreExecutors.sameThreadExecutor());
             }
+
+            Futures.addCallback(online, new FutureCallback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    future.set(slave);
+                }
+
+                @Override
+                public void onFailure(Throwable cause) {
+                    future.setException(cause);
+                }
+            }, MoreExecutors.sameThreadExecutor());
         }
-        return plannedNodes;
     }
 
     @Override
@@ -396,6 +477,59 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
         return ClientCache.findOrCreateClient(name);
     }
 
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of simultaneous connections to the endpoint, 0 to use the default.
+     */
+    @DataBoundSetter
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(maxConnections, 0);
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the connect timeout in seconds, 0 to use the default.
+     */
+    @DataBoundSetter
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = Math.max(connectTimeout, 0);
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * Sets the socket read timeout in seconds, 0 to use the default.
+     */
+    @DataBoundSetter
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = Math.max(socketTimeout, 0);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the maximum number of retries of idempotent requests after transient errors, 0 to use the default.
+     */
+    @DataBoundSetter
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(maxRetries, 0);
+    }
+
+    public ConnectionSettings getConnectionSettings() {
+        return new ConnectionSettings(maxConnections, (int) TimeUnit.SECONDS.toMillis(connectTimeout),
+                (int) TimeUnit.SECONDS.toMillis(socketTimeout), maxRetries);
+    }
+
     SlaveConfiguration getSlaveConfiguration(String configId) {
         for (SlaveConfiguration config : getSlaveConfigurations()) {
             if (configId.equals(config.getId())) {
@@ -411,13 +545,24 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
             return null;
         }
 
-        for (SlaveConfiguration slaveConfig : getSlaveConfigurations()) {
-            if (label.matches(slaveConfig.getLabelSet())) {
-                return slaveConfig;
-            }
-        }
+        List<SlaveConfiguration> slaveConfigs = getSlaveConfigurations(label);
+        return slaveConfigs.isEmpty() ? null : slaveConfigs.get(0);
+    }
 
-        return null;
+    /**
+     * Returns the slave configurations whose labels match the specified label.
+     */
+    List<SlaveConfiguration> getSlaveConfigurations(Label label) {
+        return getLabelIndex().getSlaveConfigurations(label);
+    }
+
+    private LabelIndex getLabelIndex() {
+        LabelIndex index = labelIndex;
+        if (index == null || !index.isIndexOf(slaveConfigurations)) {
+            index = new LabelIndex(slaveConfigurations);
+            labelIndex = index;
+        }
+        return index;
     }
 
     private boolean isLabelForReusableSlave(Label label) {
@@ -425,13 +570,9 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
                 .REUSE_PREFIX);
     }
 
-    private SlaveConfiguration findSlaveConfiguration(Label label, List<JSONObject> activeInstances) {
-        SlaveInstance.InstanceCounter instanceCounter = new SlaveInstance.InstanceCounter(activeInstances);
-
-        for (SlaveConfiguration slaveConfig : getSlaveConfigurations()) {
-            if (label.matches(slaveConfig.getLabelSet())
-                    && instanceCounter.count(slaveConfig) < slaveConfig.getMaxInstances()) {
-
+    private SlaveConfiguration findSlaveConfiguration(Label label, CapacityView.Usage usage) {
+        for (SlaveConfiguration slaveConfig : getSlaveConfigurations(label)) {
+            if (usage.count(slaveConfig) < slaveConfig.getMaxInstances()) {
                 return slaveConfig;
             }
         }
@@ -569,15 +710,22 @@ public class ElasticBoxCloud extends AbstractCloudImpl {
             }
 
             if (StringUtils.isBlank(newCloud.name)) {
-                newCloud = new ElasticBoxCloud(NAME_PREFIX + UUID.randomUUID().toString(), newCloud.getDescription(),
-                        newCloud.getEndpointUrl(),
+                ElasticBoxCloud namedCloud = new ElasticBoxCloud(NAME_PREFIX + UUID.randomUUID().toString(),
+                        newCloud.getDescription(), newCloud.getEndpointUrl(),
                         newCloud.getMaxInstances(), newCloud.getToken(), newCloud.getSlaveConfigurations());
+                namedCloud.maxConnections = newCloud.maxConnections;
+                namedCloud.connectTimeout = newCloud.connectTimeout;
+                namedCloud.socketTimeout = newCloud.socketTimeout;
+                namedCloud.maxRetries = newCloud.maxRetries;
+                newCloud = namedCloud;
             }
 
             List<ElasticBoxCloud> cloudsToRemoveCachedClient = validateClouds(clouds);
             for (ElasticBoxCloud cloud : cloudsToRemoveCachedClient) {
                 ClientCache.removeClient(cloud);
+                InstanceSnapshotService.remove(cloud);
             }
+            HttpConnectionPool.getInstance().configure(newCloud.getEndpointUrl(), newCloud.getConnectionSettings());
 
             return newCloud;
         }
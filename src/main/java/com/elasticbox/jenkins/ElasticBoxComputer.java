@@ -300,6 +300,14 @@ public final class ElasticBoxComputer extends SlaveComputer {
     @Extension
     public static final class ComputerListenerImpl extends ComputerListener {
 
+        @Override
+        public void onOnline(Computer computer, TaskListener listener) {
+            if (computer instanceof ElasticBoxComputer) {
+                // completes the request of the slave
+                ElasticBoxExecutor.wakeUp(ElasticBoxSlaveHandler.class);
+            }
+        }
+
         @Override
         public void onOffline(Computer computer, OfflineCause cause) {
             if (computer instanceof ElasticBoxComputer) {
@@ -307,6 +315,15 @@ public final class ElasticBoxComputer extends SlaveComputer {
                 if (ebComputer.mustBeTerminatedOnOffline()) {
                     ebComputer.terminate();
                 }
+                ElasticBoxExecutor.wakeUp(ElasticBoxSlaveHandler.class);
+            }
+        }
+
+        @Override
+        public void onTemporarilyOffline(Computer computer, OfflineCause cause) {
+            if (computer instanceof ElasticBoxComputer) {
+                // the slaves marked for termination are taken offline
+                ElasticBoxExecutor.wakeUp(ElasticBoxSlaveHandler.class);
             }
         }
 
@@ -16,8 +16,7 @@ import hudson.Extension;
 import hudson.ExtensionPoint;
 import hudson.model.AsyncPeriodicWork;
 import hudson.model.TaskListener;
-import hudson.util.DaemonThreadFactory;
-import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.LogTaskListener;
 
 import jenkins.model.Jenkins;
 
@@ -25,10 +24,16 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Runs the {@link Workload}s of the plugin. Each workload runs at its own {@link Workload#getRecurrencePeriod()},
+ * checked on every tick of this periodic work, and can be woken up to run right away with {@link #wakeUp(Class)} by
+ * the events it waits for. A workload never runs twice at the same time, and the wake-ups that arrive while it runs
+ * are coalesced into one more run.
+ */
 @Extension
 public class ElasticBoxExecutor extends AsyncPeriodicWork {
     private static final Logger LOGGER = Logger.getLogger(ElasticBoxExecutor.class.getName());
@@ -36,29 +41,73 @@ public class ElasticBoxExecutor extends AsyncPeriodicWork {
     private static final long RECURRENT_PERIOD =
             Long.getLong("elasticbox.jenkins.ElasticBoxExecutor.recurrentPeriod", 20 * 1000);
 
+    /**
+     * Runs the asynchronous workloads. A workload that doesn't fit in the queue runs again in the next period.
+     */
     public static final ExecutorService threadPool =
-            Executors.newCachedThreadPool(new ExceptionCatchingThreadFactory(new DaemonThreadFactory()));
+            BoundedExecutor.get("workloads", 8, 64, BoundedExecutor.OverflowPolicy.DISCARD);
+
+    private static final TaskListener WAKE_UP_LISTENER = new LogTaskListener(LOGGER, Level.FINEST);
 
     public ElasticBoxExecutor() {
         super(ElasticBoxExecutor.class.getName());
     }
 
-    private void executeAsync(final Workload workload, final TaskListener listener) {
-        threadPool.submit(new Runnable() {
+    /**
+     * Runs the workload of the specified type as soon as possible, or once more after its current run.
+     */
+    public static void wakeUp(Class<? extends Workload> type) {
+        Jenkins jenkins = Jenkins.getInstance();
+        Workload workload = jenkins != null ? jenkins.getExtensionList(Workload.class).get(type) : null;
+        if (workload != null && workload.wakeUpPending.compareAndSet(false, true)) {
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("Waking up workload: " + workload);
+            }
+            executeAsync(workload, WAKE_UP_LISTENER);
+        }
+    }
+
+    private static void executeAsync(final Workload workload, final TaskListener listener) {
+        threadPool.execute(new Runnable() {
             public void run() {
-                try {
-                    workload.execute(listener);
-                } catch (IOException ex) {
-                    LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-                }
+                run(workload, listener);
             }
         });
     }
 
+    private static void run(Workload workload, TaskListener listener) {
+        if (!workload.running.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            workload.wakeUpPending.set(false);
+            workload.lastRun = System.currentTimeMillis();
+            workload.execute(listener);
+        } catch (IOException | RuntimeException ex) {
+            // a failed run must not skip the wake-ups that arrived meanwhile
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+        } finally {
+            workload.running.set(false);
+        }
+
+        // the wake-ups that arrived during the run were left to it
+        if (workload.wakeUpPending.get()) {
+            executeAsync(workload, WAKE_UP_LISTENER);
+        }
+    }
+
     @Override
     protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        long now = System.currentTimeMillis();
         List<Workload> syncWorkloads = new ArrayList<Workload>();
         for (Workload workload : Jenkins.getInstance().getExtensionList(Workload.class)) {
+            // a workload is due at the tick nearest to its period, or now if a wake-up was dropped by a full pool
+            long sinceLastRun = now - workload.lastRun + RECURRENT_PERIOD / 2;
+            if (!workload.wakeUpPending.get() && sinceLastRun < workload.getRecurrencePeriod()) {
+                continue;
+            }
+
             if (workload.getExecutionType() == ExecutionType.ASYNC) {
                 if (LOGGER.isLoggable(Level.FINEST)) {
                     LOGGER.finest("Executing asynchronous workload: " + workload);
@@ -70,14 +119,10 @@ public class ElasticBoxExecutor extends AsyncPeriodicWork {
         }
 
         for (Workload workload : syncWorkloads) {
-            try {
-                if (LOGGER.isLoggable(Level.FINEST)) {
-                    LOGGER.finest("Executing synchronous workload: " + workload);
-                }
-                workload.execute(listener);
-            } catch (IOException ex) {
-                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("Executing synchronous workload: " + workload);
             }
+            run(workload, listener);
         }
     }
 
@@ -99,11 +144,21 @@ public class ElasticBoxExecutor extends AsyncPeriodicWork {
 
     public abstract static class Workload implements ExtensionPoint {
         private Logger logger = Logger.getLogger(getClass().getName());
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+        private volatile long lastRun;
 
         protected abstract ExecutionType getExecutionType();
 
         protected abstract void execute(TaskListener listener) throws IOException;
 
+        /**
+         * Returns the time in milliseconds between the runs of the workload when it isn't woken up. It is checked on
+         * every tick of the executor, so the period is rounded to the nearest tick.
+         */
+        protected long getRecurrencePeriod() {
+            return RECURRENT_PERIOD;
+        }
 
         protected void log(Level level, String message) {
             logger.log(level, message);
@@ -16,6 +16,7 @@ import com.elasticbox.jenkins.migration.RetentionTimeConverter;
 import com.elasticbox.Client;
 import com.elasticbox.ClientException;
 import com.elasticbox.Constants;
+import com.elasticbox.InstanceSummary;
 import com.elasticbox.jenkins.util.JsonUtil;
 
 import hudson.Extension;
@@ -77,6 +78,7 @@ public class ElasticBoxSlave extends Slave {
     private boolean removableFromCloud = true;
 
     private final transient int launchTimeout;
+    private transient volatile long instanceUrlTime;
 
     private static String randomId(Random random) {
         StringBuilder sb = new StringBuilder();
@@ -171,6 +173,14 @@ public class ElasticBoxSlave extends Slave {
 
     public void setInstanceUrl(String instanceUrl) {
         this.instanceUrl = instanceUrl;
+        instanceUrlTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the time when the instance URL was set since Jenkins started, or zero.
+     */
+    long getInstanceUrlTime() {
+        return instanceUrlTime;
     }
 
     public String getInstanceUrl() {
@@ -213,6 +223,10 @@ public class ElasticBoxSlave extends Slave {
         return deleteAttempts > MAX_DELETE_ATTEMPTS;
     }
 
+    String getCloudName() {
+        return cloudName;
+    }
+
     public ElasticBoxCloud getCloud() throws IOException {
         ElasticBoxCloud ebCloud = null;
         if (cloudName != null) {
@@ -573,8 +587,13 @@ public class ElasticBoxSlave extends Slave {
 
         @Override
         public boolean shouldTerminate(ElasticBoxComputer computer) {
+            if (WarmPool.getTarget(slaveConfigId) > 0) {
+                // the warm pool keeps the idle slaves it needs and releases the rest itself
+                return false;
+            }
+
             if (getMinInstances() > 0 && getSlaveConfiguration() != null) {
-                List<JSONObject> activeInstances;
+                List<InstanceSummary> activeInstances;
                 try {
                     activeInstances = ElasticBoxSlaveHandler.getActiveInstances(computer.getSlave().getCloud());
                 } catch (IOException ex) {
@@ -607,8 +626,8 @@ public class ElasticBoxSlave extends Slave {
                 }
 
                 int instanceCount = 0;
-                for (JSONObject instance : activeInstances) {
-                    if (configActiveInstanceIDs.contains(instance.getString("id"))) {
+                for (InstanceSummary instance : activeInstances) {
+                    if (configActiveInstanceIDs.contains(instance.getId())) {
                         instanceCount++;
                     }
                 }
@@ -12,12 +12,11 @@
 
 package com.elasticbox.jenkins;
 
-import static com.elasticbox.jenkins.ElasticBoxExecutor.threadPool;
-
 import com.elasticbox.Client;
 import com.elasticbox.ClientException;
 import com.elasticbox.Constants;
 import com.elasticbox.IProgressMonitor;
+import com.elasticbox.InstanceSummary;
 import com.elasticbox.jenkins.util.SlaveInstance;
 import com.elasticbox.jenkins.util.VariableResolver;
 
@@ -48,6 +47,7 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,14 +57,22 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
 
     public static final int TIMEOUT_MINUTES = Integer.getInteger("elasticbox.jenkins.deploymentTimeout", 60);
 
+    private static final long IDLE_PERIOD =
+            Long.getLong("elasticbox.jenkins.ElasticBoxSlaveHandler.idlePeriod", TimeUnit.MINUTES.toMillis(2));
+
     private static final Queue<InstanceCreationRequest> incomingQueue =
             new ConcurrentLinkedQueue<InstanceCreationRequest>();
 
+    private static final Queue<InstanceCreationRequest> deployingQueue =
+            new ConcurrentLinkedQueue<InstanceCreationRequest>();
+
     private static final Queue<InstanceCreationRequest> submittedQueue =
             new ConcurrentLinkedQueue<InstanceCreationRequest>();
 
     private static final Queue<ElasticBoxSlave> terminatedSlaves = new ConcurrentLinkedQueue<ElasticBoxSlave>();
 
+    private final AtomicBoolean deployedSinceSave = new AtomicBoolean();
+
     static class InstanceCreationRequest {
         private ElasticBoxSlave slave;
         private final LaunchSlaveProgressMonitor monitor;
@@ -94,6 +102,7 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
             LOGGER.fine("Adding new slave to Incoming queue - " + slave);
         }
         incomingQueue.add(newRequest);
+        ElasticBoxExecutor.wakeUp(ElasticBoxSlaveHandler.class);
         return newRequest.monitor;
     }
 
@@ -126,6 +135,11 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
                 return true;
             }
         }
+        for (InstanceCreationRequest request : deployingQueue) {
+            if (request.slave == slave) {
+                return true;
+            }
+        }
         return false;
     }
 
@@ -147,17 +161,19 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
         return false;
     }
 
-    public static List<JSONObject> getActiveInstances(ElasticBoxCloud cloud) throws IOException {
+    public static List<InstanceSummary> getActiveInstances(ElasticBoxCloud cloud) throws IOException {
         return new SlaveInstanceManager().getInstances(cloud);
     }
 
-    public void tagSlaveInstance(JSONObject instance, ElasticBoxSlave slave) throws IOException {
-        if (instance.getJSONArray("tags").contains(slave.getNodeName())) {
+    public void tagSlaveInstance(InstanceSummary instanceSummary, ElasticBoxSlave slave) throws IOException {
+        if (instanceSummary.getTags().contains(slave.getNodeName())) {
             return;
         }
 
-        instance.getJSONArray("tags").add(slave.getNodeName());
+        // the summary has only a few fields of the instance, the full instance is needed to update it
         Client client = slave.getCloud().getClient();
+        JSONObject instance = client.getInstance(instanceSummary.getId());
+        instance.getJSONArray("tags").add(slave.getNodeName());
         client.updateInstance(instance);
         log(Level.FINE, MessageFormat.format("Slave instance {0} has been tagged with slave name {1}",
                 Client.getPageUrl(client.getEndpointUrl(), instance), slave.getNodeName()));
@@ -168,6 +184,17 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
         return ElasticBoxExecutor.ExecutionType.SYNC;
     }
 
+    @Override
+    protected long getRecurrencePeriod() {
+        // the deployments and terminations in progress are followed on every tick, otherwise the handler is woken up
+        // by the events that give it work and the period is only a safety net
+        if (incomingQueue.isEmpty() && deployingQueue.isEmpty() && submittedQueue.isEmpty()
+                && terminatedSlaves.isEmpty()) {
+            return IDLE_PERIOD;
+        }
+        return super.getRecurrencePeriod();
+    }
+
     @Override
     protected void execute(TaskListener listener) throws IOException {
         if (LOGGER.isLoggable(Level.FINER)) {
@@ -191,12 +218,20 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
 
         checkNumberOfSlaves();
 
-        SlaveInstanceManager slaveInstanceManager = new SlaveInstanceManager();
+        // refresh the instance snapshots on every run, the rest of the readers reuse them while they are fresh
+        SlaveInstanceManager slaveInstanceManager = new SlaveInstanceManager(0);
+        retainCloudExecutors();
         purgeSlaves(slaveInstanceManager, listener);
+        for (Cloud cloud : Jenkins.getInstance().clouds) {
+            if (cloud instanceof ElasticBoxCloud) {
+                CapacityView.get((ElasticBoxCloud) cloud).refresh();
+            }
+        }
 
         boolean saveConfig = processSubmittedQueue(listener);
 
         saveConfig |= processIncomingQueue(listener, slaveInstanceManager);
+        saveConfig |= deployedSinceSave.getAndSet(false);
 
         if (saveConfig) {
             try {
@@ -233,6 +268,7 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
                                 slave.getInstancePageUrl()));
                         saveNeeded = true;
                         LOGGER.info("Request completed successfully. Removing it from submitted queue - " + slave);
+                        request.monitor.setOnline();
                         iter.remove();
                     } else {
                         if (removeSlaveIfLaunchTimedOut(request, listener)) {
@@ -296,13 +332,13 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
             throws IOException {
 
         List<ElasticBoxSlave> slavesToRemove = new ArrayList<>();
-        for (JSONObject instance : slaveInstanceManager.getInstances()) {
-            String state = instance.getString("state");
-            String instanceId = instance.getString("id");
+        for (InstanceSummary instance : slaveInstanceManager.getInstances()) {
+            String state = instance.getState();
+            String instanceId = instance.getId();
             ElasticBoxSlave slave = slaveInstanceManager.getSlave(instanceId);
 
             if (Client.InstanceState.DONE.equals(state)
-                    && Client.TERMINATE_OPERATIONS.contains(instance.getJSONObject("operation").getString("event"))
+                    && Client.TERMINATE_OPERATIONS.contains(instance.getOperation())
                     && slave.isRemovableFromCloud() ) {
 
                 if (LOGGER.isLoggable(Level.FINER)) {
@@ -426,7 +462,7 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.fine("Terminated slave instance found. - " + slave);
             }
-            threadPool.submit(new Runnable() {
+            getPurgeExecutor(slave).submit(new Runnable() {
 
                 @Override
                 public void run() {
@@ -446,7 +482,7 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
                 if (LOGGER.isLoggable(Level.FINE)) {
                     LOGGER.fine("Removable slave instance found - " + slave);
                 }
-                threadPool.submit(new Runnable() {
+                getPurgeExecutor(slave).submit(new Runnable() {
 
                     @Override
                     public void run() {
@@ -458,6 +494,22 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
         }
     }
 
+    private static BoundedExecutor getPurgeExecutor(ElasticBoxSlave slave) {
+        // the slaves that are still there are purged again in the next run if they don't fit in the queue
+        return BoundedExecutor.forCloud("purge", slave.getCloudName(), 4, 256, BoundedExecutor.OverflowPolicy.DISCARD);
+    }
+
+    private static void retainCloudExecutors() {
+        List<String> cloudNames = new ArrayList<>();
+        for (Cloud cloud : Jenkins.getInstance().clouds) {
+            if (cloud instanceof ElasticBoxCloud) {
+                cloudNames.add(cloud.name);
+            }
+        }
+        DeploymentPipeline.retainClouds(cloudNames);
+        BoundedExecutor.retainClouds(cloudNames);
+    }
+
     private void deployInstance(InstanceCreationRequest request) throws IOException {
         final ElasticBoxSlave slave = request.slave;
         final ElasticBoxCloud cloud = slave.getCloud();
@@ -606,22 +658,28 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
 
 
         if (!incomingQueue.isEmpty() ) {
+            // the deployments still in the pipeline are counted before fetching the instances, a deployment that
+            // completes in between is then counted twice rather than not at all
+            Map<String, Integer> cloudNameToDeployingCountMap = new HashMap<>();
+            for (InstanceCreationRequest request : deployingQueue) {
+                Integer deployingCount = cloudNameToDeployingCountMap.get(request.slave.getCloudName());
+                cloudNameToDeployingCountMap.put(request.slave.getCloudName(),
+                        deployingCount == null ? 1 : deployingCount + 1);
+            }
             Map<ElasticBoxCloud, Integer> cloudToMaxNewInstancesMap = instanceManager.getMaxInstancesPerCloud();
+            for (Map.Entry<ElasticBoxCloud, Integer> entry : cloudToMaxNewInstancesMap.entrySet()) {
+                Integer deployingCount = cloudNameToDeployingCountMap.get(entry.getKey().name);
+                if (deployingCount != null) {
+                    entry.setValue(entry.getValue() - deployingCount);
+                }
+            }
 
             for (InstanceCreationRequest req = incomingQueue.poll(); req != null; req = incomingQueue.poll()) {
                 ElasticBoxCloud cloud = req.slave.getCloud();
                 int maxNewInstances = cloudToMaxNewInstancesMap.get(cloud);
                 if (maxNewInstances > 0) {
-                    try {
-                        deployInstance(req);
-                        cloudToMaxNewInstancesMap.put(cloud, maxNewInstances--);
-                        log("Deploying a new instance for slave - " + req.slave.getDisplayName(), listener);
-                    } catch (IOException ex) {
-                        log(Level.SEVERE, MessageFormat.format("Error deploying a new instance for slave {0}",
-                                req.slave.getDisplayName()), ex, listener);
-                        req.monitor.setMonitor(IProgressMonitor.DONE_MONITOR);
-                        removeSlave(req.slave);
-                    }
+                    cloudToMaxNewInstancesMap.put(cloud, maxNewInstances - 1);
+                    dispatchDeployment(cloud, req);
                 } else {
                     log(Level.WARNING, "Max number of ElasticBox instances has been reached for: "
                             + cloud.getDisplayName(), null, listener);
@@ -635,6 +693,48 @@ public class ElasticBoxSlaveHandler extends ElasticBoxExecutor.Workload {
         return false;
     }
 
+    /**
+     * Deploys the instance of the request in the {@link DeploymentPipeline} of the cloud, so that a burst of requests
+     * doesn't wait for each other's deployment to be submitted. The deployment completes after this run is over and
+     * its task log is closed, so the result is only logged in the system log.
+     */
+    private void dispatchDeployment(ElasticBoxCloud cloud, final InstanceCreationRequest request) {
+        AbstractSlaveConfiguration slaveConfig = request.slave.getSlaveConfiguration();
+        deployingQueue.add(request);
+        DeploymentPipeline.forCloud(cloud.name).submit(slaveConfig != null ? slaveConfig.getId() : null,
+                new DeploymentPipeline.Deployment() {
+                    @Override
+                    public void run() {
+                        try {
+                            deployInstance(request);
+                            log(Level.INFO, "Deploying a new instance for slave - " + request.slave.getDisplayName());
+                            // the instance URL of the slave is saved by the next run
+                            deployedSinceSave.set(true);
+                        } catch (IOException | RuntimeException ex) {
+                            failDeployment(request, ex);
+                        } finally {
+                            deployingQueue.remove(request);
+                        }
+                    }
+
+                    @Override
+                    public void cancel(Exception cause) {
+                        try {
+                            failDeployment(request, cause);
+                        } finally {
+                            deployingQueue.remove(request);
+                        }
+                    }
+                });
+    }
+
+    private void failDeployment(InstanceCreationRequest request, Exception cause) {
+        log(Level.SEVERE, MessageFormat.format("Error deploying a new instance for slave {0}",
+                request.slave.getDisplayName()), cause);
+        request.monitor.setMonitor(IProgressMonitor.DONE_MONITOR);
+        removeSlave(request.slave);
+    }
+
     public static void launchSingleUseSlave(AbstractSlaveConfiguration slaveCfg, String label)
             throws IOException, Descriptor.FormException {
 
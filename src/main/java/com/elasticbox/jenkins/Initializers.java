@@ -12,6 +12,7 @@
 
 package com.elasticbox.jenkins;
 
+import com.elasticbox.InstanceSummary;
 import com.elasticbox.jenkins.util.Condition;
 import com.thoughtworks.xstream.XStream;
 
@@ -21,8 +22,6 @@ import hudson.slaves.Cloud;
 
 import jenkins.model.Jenkins;
 
-import net.sf.json.JSONObject;
-
 import org.apache.commons.lang.StringUtils;
 
 import java.io.IOException;
@@ -46,13 +45,13 @@ public class Initializers {
             }
         }.waitUntilSatisfied(3000);
 
-        ElasticBoxExecutor.threadPool.submit(new Runnable() {
+        BoundedExecutor.get("startup", 1, 8, BoundedExecutor.OverflowPolicy.ABORT).submit(new Runnable() {
 
             public void run() {
                 try {
                     SlaveInstanceManager manager = new SlaveInstanceManager();
-                    for (JSONObject instance : manager.getInstances()) {
-                        ElasticBoxSlave slave = manager.getSlave(instance.getString("id"));
+                    for (InstanceSummary instance : manager.getInstances()) {
+                        ElasticBoxSlave slave = manager.getSlave(instance.getId());
                         ElasticBoxSlaveHandler.getInstance().tagSlaveInstance(instance, slave);
                     }
                 } catch (IOException ex) {
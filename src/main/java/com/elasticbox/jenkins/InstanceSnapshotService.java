@@ -0,0 +1,262 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox.jenkins;
+
+import com.elasticbox.Client;
+import com.elasticbox.InstanceSummary;
+
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the latest list of instances of the workspaces used by the slaves of one ElasticBox cloud, so that the slave
+ * handler, the provisioning and the retention strategies share the same fetch instead of downloading the workspaces
+ * again each time.
+ *
+ * <p>The instances of each workspace are kept with the time they were fetched, and every fetch is merged into them,
+ * so readers asking for different workspaces don't discard each other's instances. Readers get the last fetched
+ * instances and the workspaces older than {@link #MAX_AGE} are refreshed in the background by a
+ * {@link BoundedExecutor} of the cloud, only the first read of a workspace waits for it to be fetched. The slave
+ * handler and the capacity views, which run in the background already, ask for instances not older than a given age
+ * and fetch the stale workspaces themselves.</p>
+ */
+public final class InstanceSnapshotService {
+    private static final Logger LOGGER = Logger.getLogger(InstanceSnapshotService.class.getName());
+
+    public static final long MAX_AGE = Long.getLong("elasticbox.jenkins.InstanceSnapshotService.maxAge", 30 * 1000);
+
+    private static final ConcurrentHashMap<String, InstanceSnapshotService> cloudToServiceMap =
+            new ConcurrentHashMap<>();
+
+    private final String cloudName;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final Set<String> workspaceIdsToRefresh = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+    // snapshots of a single workspace each
+    private final ConcurrentHashMap<String, Snapshot> workspaceToSnapshotMap = new ConcurrentHashMap<>();
+
+    private InstanceSnapshotService(String cloudName) {
+        this.cloudName = cloudName;
+    }
+
+    public static InstanceSnapshotService get(ElasticBoxCloud cloud) {
+        InstanceSnapshotService service = cloudToServiceMap.get(cloud.name);
+        if (service == null) {
+            // drop the services of deleted clouds
+            for (String name : new ArrayList<>(cloudToServiceMap.keySet())) {
+                if (Jenkins.getInstance().getCloud(name) == null) {
+                    cloudToServiceMap.remove(name);
+                }
+            }
+            service = new InstanceSnapshotService(cloud.name);
+            InstanceSnapshotService existingService = cloudToServiceMap.putIfAbsent(cloud.name, service);
+            if (existingService != null) {
+                service = existingService;
+            }
+        }
+        return service;
+    }
+
+    public static void remove(ElasticBoxCloud cloud) {
+        cloudToServiceMap.remove(cloud.name);
+    }
+
+    /**
+     * Returns the last fetched instances of the specified workspaces, starting a refresh in the background for the
+     * ones older than {@link #MAX_AGE}. Only the workspaces that were never fetched are fetched before returning.
+     */
+    public Snapshot getSnapshot(Set<String> workspaceIds) throws IOException {
+        Set<String> missingWorkspaceIds = new HashSet<>(workspaceIds);
+        missingWorkspaceIds.removeAll(workspaceToSnapshotMap.keySet());
+        if (!missingWorkspaceIds.isEmpty()) {
+            fetch(missingWorkspaceIds);
+        }
+
+        Set<String> staleWorkspaceIds = getStaleWorkspaceIds(workspaceIds, MAX_AGE);
+        if (!staleWorkspaceIds.isEmpty()) {
+            refresh(staleWorkspaceIds);
+        }
+        return getCurrentSnapshot(workspaceIds);
+    }
+
+    /**
+     * Returns a snapshot of the instances of the specified workspaces that is not older than the specified age in
+     * milliseconds, fetching the stale workspaces in the calling thread. Meant for the callers that already run in
+     * the background, the readers use {@link #getSnapshot(Set)}.
+     */
+    public Snapshot getSnapshot(Set<String> workspaceIds, long maxAge) throws IOException {
+        Set<String> staleWorkspaceIds = getStaleWorkspaceIds(workspaceIds, maxAge);
+        if (!staleWorkspaceIds.isEmpty()) {
+            fetch(staleWorkspaceIds);
+        }
+        return getCurrentSnapshot(workspaceIds);
+    }
+
+    /**
+     * Starts fetching the instances of the specified workspaces in the background, together with the workspaces
+     * requested by other readers meanwhile, unless they are being fetched already.
+     */
+    public void refresh(Set<String> workspaceIds) {
+        workspaceIdsToRefresh.addAll(workspaceIds);
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            // one fetch at a time per cloud, the flag keeps the others out of the queue
+            BoundedExecutor executor = BoundedExecutor.forCloud("snapshot", cloudName, 1, 1,
+                    BoundedExecutor.OverflowPolicy.ABORT);
+            executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        Set<String> workspaceIds = new HashSet<>(workspaceIdsToRefresh);
+                        workspaceIdsToRefresh.removeAll(workspaceIds);
+                        fetch(workspaceIds);
+                    } catch (IOException | RuntimeException ex) {
+                        LOGGER.log(Level.WARNING, MessageFormat.format(
+                                "Error refreshing the instances of cloud {0}", cloudName), ex);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            refreshing.set(false);
+            throw ex;
+        }
+    }
+
+    private Set<String> getStaleWorkspaceIds(Set<String> workspaceIds, long maxAge) {
+        Set<String> staleWorkspaceIds = new HashSet<>();
+        for (String workspaceId : workspaceIds) {
+            Snapshot snapshot = workspaceToSnapshotMap.get(workspaceId);
+            if (snapshot == null || snapshot.getAge() >= maxAge) {
+                staleWorkspaceIds.add(workspaceId);
+            }
+        }
+        return staleWorkspaceIds;
+    }
+
+    /**
+     * Combines the last fetched instances of the specified workspaces, timestamped with the oldest fetch.
+     */
+    private Snapshot getCurrentSnapshot(Set<String> workspaceIds) {
+        long timestamp = System.currentTimeMillis();
+        Map<String, List<InstanceSummary>> workspaceToInstancesMap = new HashMap<>();
+        for (String workspaceId : workspaceIds) {
+            Snapshot snapshot = workspaceToSnapshotMap.get(workspaceId);
+            if (snapshot != null) {
+                timestamp = Math.min(timestamp, snapshot.getTimestamp());
+                workspaceToInstancesMap.put(workspaceId, snapshot.getInstances(workspaceId));
+            }
+        }
+        return new Snapshot(timestamp, workspaceToInstancesMap);
+    }
+
+    private void fetch(Set<String> workspaceIds) throws IOException {
+        Cloud cloud = Jenkins.getInstance().getCloud(cloudName);
+        if (!(cloud instanceof ElasticBoxCloud)) {
+            throw new IOException(MessageFormat.format("Invalid cloud name ''{0}''", cloudName));
+        }
+
+        long startTime = System.currentTimeMillis();
+        Client client = ((ElasticBoxCloud) cloud).getClient();
+        for (String workspaceId : workspaceIds) {
+            long fetchTime = System.currentTimeMillis();
+            List<InstanceSummary> instances = Collections.unmodifiableList(client.getInstanceSummaries(workspaceId));
+            merge(workspaceId, new Snapshot(fetchTime, Collections.singletonMap(workspaceId, instances)));
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(MessageFormat.format("Fetched instances of workspaces {0} of cloud {1} in {2}ms",
+                    workspaceIds, cloudName, String.valueOf(System.currentTimeMillis() - startTime)));
+        }
+    }
+
+    private void merge(String workspaceId, Snapshot snapshot) {
+        // keeps the newest fetch when concurrent fetches of the same workspace finish out of order
+        while (true) {
+            Snapshot currentSnapshot = workspaceToSnapshotMap.putIfAbsent(workspaceId, snapshot);
+            if (currentSnapshot == null || currentSnapshot.getTimestamp() >= snapshot.getTimestamp()
+                    || workspaceToSnapshotMap.replace(workspaceId, currentSnapshot, snapshot)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read-only view of the summaries of the instances of some workspaces at a given time, shared by all the readers
+     * of the snapshot.
+     */
+    public static final class Snapshot {
+        private final long timestamp;
+        private final Map<String, List<InstanceSummary>> workspaceToInstancesMap;
+
+        private Snapshot(long timestamp, Map<String, List<InstanceSummary>> workspaceToInstancesMap) {
+            this.timestamp = timestamp;
+            this.workspaceToInstancesMap = workspaceToInstancesMap;
+        }
+
+        /**
+         * Time when the instances started to be fetched.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getAge() {
+            return System.currentTimeMillis() - timestamp;
+        }
+
+        public Set<String> getWorkspaceIds() {
+            return Collections.unmodifiableSet(workspaceToInstancesMap.keySet());
+        }
+
+        public List<InstanceSummary> getInstances(String workspaceId) {
+            List<InstanceSummary> instances = workspaceToInstancesMap.get(workspaceId);
+            return instances != null ? instances : Collections.<InstanceSummary>emptyList();
+        }
+
+        /**
+         * Returns the instances of the specified workspaces whose ID is in the specified set.
+         */
+        public List<InstanceSummary> getInstances(Set<String> workspaceIds, Set<String> instanceIds) {
+            List<InstanceSummary> instances = new ArrayList<>();
+            Set<String> addedInstanceIds = new HashSet<>();
+            for (String workspaceId : workspaceIds) {
+                for (InstanceSummary instance : getInstances(workspaceId)) {
+                    String instanceId = instance.getId();
+                    if (instanceIds.contains(instanceId) && addedInstanceIds.add(instanceId)) {
+                        instances.add(instance);
+                    }
+                }
+            }
+            return Collections.unmodifiableList(instances);
+        }
+    }
+
+}
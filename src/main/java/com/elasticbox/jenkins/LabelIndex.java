@@ -0,0 +1,177 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox.jenkins;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Label;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Memoized answers to "which slave configurations can provide this label", asked by the node provisioner many
+ * times per second.
+ *
+ * <p>Each {@link ElasticBoxCloud} has an index from label expression to the slave configurations whose labels
+ * match it, filled as labels are asked for. The index is rebuilt when the slave configurations of the cloud are
+ * replaced or the Jenkins configuration is saved. The per-project slave configurations are indexed by ID from the
+ * build wrappers of all the projects, and reindexed when a project is created, saved, moved or deleted.</p>
+ */
+public class LabelIndex {
+    private static final Logger LOGGER = Logger.getLogger(LabelIndex.class.getName());
+
+    private static final AtomicLong cloudGeneration = new AtomicLong();
+    private static final AtomicLong projectGeneration = new AtomicLong();
+    private static volatile ProjectIndex projectIndex;
+
+    private final List<? extends SlaveConfiguration> slaveConfigurations;
+    private final long generation;
+    private final ConcurrentHashMap<String, List<SlaveConfiguration>> labelToSlaveConfigsMap =
+            new ConcurrentHashMap<String, List<SlaveConfiguration>>();
+
+    LabelIndex(List<? extends SlaveConfiguration> slaveConfigurations) {
+        this.slaveConfigurations = slaveConfigurations;
+        this.generation = cloudGeneration.get();
+    }
+
+    /**
+     * Returns true if the index was built from the specified slave configurations and is still valid.
+     */
+    boolean isIndexOf(List<? extends SlaveConfiguration> slaveConfigurations) {
+        return this.slaveConfigurations == slaveConfigurations && generation == cloudGeneration.get();
+    }
+
+    /**
+     * Returns the slave configurations whose labels match the specified label, in the order of the cloud.
+     */
+    List<SlaveConfiguration> getSlaveConfigurations(Label label) {
+        String expression = label.getExpression();
+        List<SlaveConfiguration> matchingConfigs = labelToSlaveConfigsMap.get(expression);
+        if (matchingConfigs == null) {
+            matchingConfigs = new ArrayList<SlaveConfiguration>();
+            if (slaveConfigurations != null) {
+                for (SlaveConfiguration slaveConfig : slaveConfigurations) {
+                    if (label.matches(slaveConfig.getLabelSet())) {
+                        matchingConfigs.add(slaveConfig);
+                    }
+                }
+            }
+            matchingConfigs = Collections.unmodifiableList(matchingConfigs);
+            labelToSlaveConfigsMap.put(expression, matchingConfigs);
+        }
+        return matchingConfigs;
+    }
+
+    /**
+     * Returns the per-project slave configuration with the specified ID, or null if no project has it.
+     */
+    static ProjectSlaveConfiguration findProjectSlaveConfiguration(String id) {
+        ProjectIndex index = projectIndex;
+        if (index == null || index.generation != projectGeneration.get()) {
+            // a change while the index is built makes it outdated right away
+            long generation = projectGeneration.get();
+            Map<String, ProjectSlaveConfiguration> idToSlaveConfigMap =
+                    new HashMap<String, ProjectSlaveConfiguration>();
+            for (ProjectSlaveConfiguration slaveConfig : ProjectSlaveConfiguration.list()) {
+                if (!idToSlaveConfigMap.containsKey(slaveConfig.getId())) {
+                    idToSlaveConfigMap.put(slaveConfig.getId(), slaveConfig);
+                }
+            }
+            index = new ProjectIndex(idToSlaveConfigMap, generation);
+            projectIndex = index;
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Indexed " + idToSlaveConfigMap.size() + " per-project slave configurations");
+            }
+        }
+        return index.idToSlaveConfigMap.get(id);
+    }
+
+    static void invalidateClouds() {
+        cloudGeneration.incrementAndGet();
+    }
+
+    static void invalidateProjects() {
+        projectGeneration.incrementAndGet();
+    }
+
+    private static final class ProjectIndex {
+        private final Map<String, ProjectSlaveConfiguration> idToSlaveConfigMap;
+        private final long generation;
+
+        private ProjectIndex(Map<String, ProjectSlaveConfiguration> idToSlaveConfigMap, long generation) {
+            this.idToSlaveConfigMap = idToSlaveConfigMap;
+            this.generation = generation;
+        }
+    }
+
+    @Extension
+    public static final class ProjectListener extends ItemListener {
+
+        @Override
+        public void onLoaded() {
+            invalidateProjects();
+            invalidateClouds();
+        }
+
+        @Override
+        public void onCreated(Item item) {
+            invalidateProjects();
+        }
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            invalidateProjects();
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            invalidateProjects();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidateProjects();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            invalidateProjects();
+        }
+    }
+
+    @Extension
+    public static final class ConfigurationListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable saveable, XmlFile file) {
+            if (saveable instanceof Item) {
+                invalidateProjects();
+            } else if (saveable instanceof Jenkins) {
+                invalidateClouds();
+            }
+        }
+    }
+}
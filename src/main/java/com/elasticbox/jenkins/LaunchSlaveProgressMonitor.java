@@ -14,6 +14,12 @@ package com.elasticbox.jenkins;
 
 import com.elasticbox.IProgressMonitor;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
 import hudson.slaves.SlaveComputer;
 
 import net.sf.json.JSONObject;
@@ -22,6 +28,8 @@ import org.apache.commons.lang.time.StopWatch;
 
 import java.io.IOException;
 
+import java.text.MessageFormat;
+
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,7 +41,9 @@ class LaunchSlaveProgressMonitor implements IProgressMonitor {
     private final Object waitLock = new Object();
     private final long creationTime;
     private final ElasticBoxSlave slave;
-    private IProgressMonitor monitor;
+    private final SettableFuture<IProgressMonitor> launched = SettableFuture.create();
+    private final SettableFuture<Void> online = SettableFuture.create();
+    private volatile IProgressMonitor monitor;
     private long launchTime;
 
     public LaunchSlaveProgressMonitor(ElasticBoxSlave slave) {
@@ -63,11 +73,88 @@ class LaunchSlaveProgressMonitor implements IProgressMonitor {
 
     void setMonitor(IProgressMonitor monitor) {
         this.monitor = monitor;
+        launched.set(monitor);
         synchronized (waitLock) {
             waitLock.notifyAll();
         }
     }
 
+    /**
+     * Returns a future that completes with the monitor of the first deployment of the slave once it is submitted to
+     * ElasticBox, or with {@link IProgressMonitor#DONE_MONITOR} if it could not be submitted.
+     */
+    ListenableFuture<IProgressMonitor> whenLaunched() {
+        return launched;
+    }
+
+    /**
+     * Returns a future that completes once the first deployment of the slave is done and its computer is online. The
+     * deployment is followed by the state tracker of the client, so no thread is blocked while waiting. Cancelling
+     * the future stops tracking the deployment.
+     *
+     * @param timeout in minutes to wait for the deployment, 0 or less to wait forever
+     */
+    ListenableFuture<Void> whenOnline(final int timeout) {
+        final SettableFuture<Void> result = SettableFuture.create();
+        Futures.addCallback(launched, new FutureCallback<IProgressMonitor>() {
+            @Override
+            public void onSuccess(IProgressMonitor monitor) {
+                if (monitor == IProgressMonitor.DONE_MONITOR) {
+                    result.setException(new IncompleteException(MessageFormat.format(
+                            "The instance of slave {0} could not be deployed", slave.getNodeName())));
+                    return;
+                }
+
+                final ListenableFuture<JSONObject> deployed;
+                try {
+                    deployed = slave.getCloud().getClient().async().whenDone(monitor, timeout);
+                } catch (IOException ex) {
+                    result.setException(ex);
+                    return;
+                }
+                result.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        deployed.cancel(false);
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+                Futures.addCallback(deployed, new FutureCallback<JSONObject>() {
+                    @Override
+                    public void onSuccess(JSONObject instance) {
+                        SlaveComputer computer = slave.getComputer();
+                        if (computer != null && computer.isOnline()) {
+                            setOnline();
+                        }
+                        online.addListener(new Runnable() {
+                            @Override
+                            public void run() {
+                                result.set(null);
+                            }
+                        }, MoreExecutors.sameThreadExecutor());
+                    }
+
+                    @Override
+                    public void onFailure(Throwable cause) {
+                        result.setException(cause);
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                result.setException(cause);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    /**
+     * Called once the computer of the slave is online after its deployment is done.
+     */
+    void setOnline() {
+        online.set(null);
+    }
+
     private void wait(Callable<Boolean> condition, long timeout) throws Exception {
         long startTime = System.currentTimeMillis();
         long remainingTime = timeout;
@@ -98,12 +98,7 @@ public class ProjectSlaveConfiguration extends AbstractSlaveConfiguration {
     }
 
     public static ProjectSlaveConfiguration find(String id) {
-        for (ProjectSlaveConfiguration slaveConfig : list()) {
-            if (slaveConfig.getId().equals(id)) {
-                return slaveConfig;
-            }
-        }
-        return null;
+        return LabelIndex.findProjectSlaveConfiguration(id);
     }
 
     public static ProjectSlaveConfiguration find(Label label) {
@@ -12,16 +12,13 @@
 
 package com.elasticbox.jenkins;
 
-import com.elasticbox.Client;
+import com.elasticbox.InstanceSummary;
 
 import hudson.model.Node;
 
 import hudson.slaves.Cloud;
 import jenkins.model.Jenkins;
 
-import net.sf.json.JSONArray;
-import net.sf.json.JSONObject;
-
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -35,20 +32,40 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Matches the ElasticBox slaves with their instances. The instances are taken from the {@link InstanceSnapshotService}
+ * of each cloud, so the manager is cheap to create and all its lookups see the same snapshot. The managers created
+ * without a maximum age use the last fetched instances and never wait for ElasticBox once the workspaces of the cloud
+ * have been fetched.
+ */
 public class SlaveInstanceManager {
     private static final Logger LOGGER = Logger.getLogger(SlaveInstanceManager.class.getName());
 
     private final Map<String, ElasticBoxSlave> instanceIdToSlaveMap;
-    private Map<ElasticBoxSlave, JSONObject> slaveToInstanceMap;
-    private final Map<ElasticBoxCloud, List<JSONObject>> cloudToInstancesMap;
+    private Map<ElasticBoxSlave, InstanceSummary> slaveToInstanceMap;
+    private final Map<ElasticBoxCloud, List<InstanceSummary>> cloudToInstancesMap;
     private List<ElasticBoxSlave> slavesWithoutInstance;
     private final Map<ElasticBoxCloud, Set<String>> cloudToWorkspaceIDsMap;
+    private final Map<ElasticBoxCloud, Set<String>> cloudToInstanceIDsMap;
+    private final Map<ElasticBoxCloud, InstanceSnapshotService.Snapshot> cloudToSnapshotMap;
+    private final long maxAge;
     private boolean allFetched = false;
 
     public SlaveInstanceManager() throws IOException {
+        this(-1);
+    }
+
+    /**
+     * Creates a manager whose instances are not older than the specified age in milliseconds, fetching them in the
+     * calling thread if needed. A negative age uses the last fetched instances.
+     */
+    public SlaveInstanceManager(long maxAge) throws IOException {
+        this.maxAge = maxAge;
         instanceIdToSlaveMap = new HashMap<String, ElasticBoxSlave>();
-        cloudToInstancesMap = new HashMap<ElasticBoxCloud, List<JSONObject>>();
+        cloudToInstancesMap = new HashMap<ElasticBoxCloud, List<InstanceSummary>>();
         cloudToWorkspaceIDsMap = new HashMap<ElasticBoxCloud, Set<String>>();
+        cloudToInstanceIDsMap = new HashMap<ElasticBoxCloud, Set<String>>();
+        cloudToSnapshotMap = new HashMap<ElasticBoxCloud, InstanceSnapshotService.Snapshot>();
         for (Node node : Jenkins.getInstance().getNodes()) {
             if (node instanceof ElasticBoxSlave) {
                 final ElasticBoxSlave slave = (ElasticBoxSlave) node;
@@ -58,6 +75,7 @@ public class SlaveInstanceManager {
                     if (workspaceIDs == null) {
                         workspaceIDs = new HashSet<String>();
                         cloudToWorkspaceIDsMap.put(cloud, workspaceIDs);
+                        cloudToInstanceIDsMap.put(cloud, new HashSet<String>());
                     }
                     AbstractSlaveConfiguration config = slave.getSlaveConfiguration();
                     if (config != null) {
@@ -69,6 +87,9 @@ public class SlaveInstanceManager {
                 if (slave.getInstanceUrl() != null) {
                     String instanceId = slave.getInstanceId();
                     instanceIdToSlaveMap.put(instanceId, slave);
+                    if (cloud != null) {
+                        cloudToInstanceIDsMap.get(cloud).add(instanceId);
+                    }
                 } else {
                     if (slavesWithoutInstance == null) {
                         slavesWithoutInstance = new ArrayList<>();
@@ -79,31 +100,20 @@ public class SlaveInstanceManager {
         }
 
         if (slavesWithoutInstance != null) {
-
-            ElasticBoxCloud cloud = null;
-            String wks = null;
-            JSONArray instances = null;
-            AbstractSlaveConfiguration config;
-
             Iterator<ElasticBoxSlave> iterator = slavesWithoutInstance.iterator();
             while (iterator.hasNext() ) {
 
                 ElasticBoxSlave slave = iterator.next();
-                config = slave.getSlaveConfiguration();
+                ElasticBoxCloud cloud = slave.getCloud();
+                AbstractSlaveConfiguration config = slave.getSlaveConfiguration();
 
-                if ( slave.getCloud() != null && config != null) {
-                    if (!slave.getCloud().equals(cloud) && !config.getWorkspace().equals(wks)) {
-                        cloud = slave.getCloud();
-                        wks = slave.getSlaveConfiguration().getWorkspace();
-                        instances = cloud.getClient().getInstances(wks);
-                    }
-                    for (Object instance : instances) {
-                        JSONObject instanceJson = (JSONObject) instance;
-                        JSONArray tags = instanceJson.getJSONArray("tags");
+                if (cloud != null && config != null) {
+                    for (InstanceSummary instance : getSnapshot(cloud).getInstances(config.getWorkspace())) {
+                        List<String> tags = instance.getTags();
 
                         // If the instance corresponds to a Jenkins slave, first tag will match the slave name:
-                        if (tags.size() > 0 && slave.getNodeName().equals(tags.getString(0) )) {
-                            String instanceId = instanceJson.getString("id");
+                        if (tags.size() > 0 && slave.getNodeName().equals(tags.get(0))) {
+                            String instanceId = instance.getId();
                             if (slave.getInstanceUrl() == null) {
                                 final String url = cloud.getClient().getInstanceUrl(instanceId);
                                 slave.setInstanceUrl(url);
@@ -141,9 +151,9 @@ public class SlaveInstanceManager {
         if (slavesWithoutInstance == null) {
             ensureAllFetched();
             Set<String> validInstanceIDs = new HashSet<>();
-            for (List<JSONObject> instances : cloudToInstancesMap.values()) {
-                for (JSONObject instance : instances) {
-                    validInstanceIDs.add(instance.getString("id"));
+            for (List<InstanceSummary> instances : cloudToInstancesMap.values()) {
+                for (InstanceSummary instance : instances) {
+                    validInstanceIDs.add(instance.getId());
                 }
             }
             Map<String, ElasticBoxSlave> invalidInstanceIdToSlaveMap = new HashMap<>(instanceIdToSlaveMap);
@@ -154,22 +164,13 @@ public class SlaveInstanceManager {
         return slavesWithoutInstance;
     }
 
-    public List<JSONObject> getInstances(ElasticBoxCloud cloud) throws IOException {
+    public List<InstanceSummary> getInstances(ElasticBoxCloud cloud) throws IOException {
         if (cloudToWorkspaceIDsMap.containsKey(cloud)) {
-            List<JSONObject> instances = cloudToInstancesMap.get(cloud);
+            List<InstanceSummary> instances = cloudToInstancesMap.get(cloud);
             if (instances == null) {
                 // the instances of the cloud are not fetched yet
-                instances = new ArrayList<JSONObject>();
-                Client client = cloud.getClient();
-                for (String workspaceId : cloudToWorkspaceIDsMap.get(cloud)) {
-                    for (Object instance : client.getInstances(workspaceId)) {
-                        JSONObject instanceJson = (JSONObject) instance;
-                        String instanceId = instanceJson.getString("id");
-                        if (instanceIdToSlaveMap.containsKey(instanceId)) {
-                            instances.add(instanceJson);
-                        }
-                    }
-                }
+                instances = getSnapshot(cloud).getInstances(cloudToWorkspaceIDsMap.get(cloud),
+                        instanceIdToSlaveMap.keySet());
                 cloudToInstancesMap.put(cloud, instances);
             }
             return instances;
@@ -178,21 +179,60 @@ public class SlaveInstanceManager {
         }
     }
 
-    public Collection<JSONObject> getInstances() throws IOException {
+    private InstanceSnapshotService.Snapshot getSnapshot(ElasticBoxCloud cloud) throws IOException {
+        InstanceSnapshotService.Snapshot snapshot = cloudToSnapshotMap.get(cloud);
+        if (snapshot == null) {
+            InstanceSnapshotService service = InstanceSnapshotService.get(cloud);
+            Set<String> workspaceIDs = cloudToWorkspaceIDsMap.get(cloud);
+            Set<String> instanceIDs = cloudToInstanceIDsMap.get(cloud);
+            snapshot = maxAge < 0 ? service.getSnapshot(workspaceIDs) : service.getSnapshot(workspaceIDs, maxAge);
+            if (snapshot.getTimestamp() < getLatestInstanceUrlTime(snapshot, workspaceIDs, instanceIDs)) {
+                // instances deployed after the snapshot was taken are missing, get a newer one. The instances missing
+                // from a snapshot taken after they were deployed are gone and a newer one wouldn't have them either
+                if (maxAge < 0) {
+                    service.refresh(workspaceIDs);
+                } else {
+                    snapshot = service.getSnapshot(workspaceIDs, snapshot.getAge());
+                }
+            }
+            cloudToSnapshotMap.put(cloud, snapshot);
+        }
+        return snapshot;
+    }
+
+    private long getLatestInstanceUrlTime(InstanceSnapshotService.Snapshot snapshot, Set<String> workspaceIDs,
+                                          Set<String> instanceIDs) {
+        List<InstanceSummary> instances = snapshot.getInstances(workspaceIDs, instanceIDs);
+        if (instances.size() == instanceIDs.size()) {
+            return 0;
+        }
+
+        Set<String> missingInstanceIDs = new HashSet<>(instanceIDs);
+        for (InstanceSummary instance : instances) {
+            missingInstanceIDs.remove(instance.getId());
+        }
+        long latestTime = 0;
+        for (String instanceId : missingInstanceIDs) {
+            latestTime = Math.max(latestTime, instanceIdToSlaveMap.get(instanceId).getInstanceUrlTime());
+        }
+        return latestTime;
+    }
+
+    public Collection<InstanceSummary> getInstances() throws IOException {
         return getSlaveToInstanceMap().values();
     }
 
-    public JSONObject getInstance(ElasticBoxSlave slave) throws IOException {
+    public InstanceSummary getInstance(ElasticBoxSlave slave) throws IOException {
         return getSlaveToInstanceMap().get(slave);
     }
 
-    private Map<ElasticBoxSlave, JSONObject> getSlaveToInstanceMap() throws IOException {
+    private Map<ElasticBoxSlave, InstanceSummary> getSlaveToInstanceMap() throws IOException {
         if (slaveToInstanceMap == null) {
             ensureAllFetched();
-            slaveToInstanceMap = new HashMap<ElasticBoxSlave, JSONObject>();
-            for (List<JSONObject> cloudInstances : cloudToInstancesMap.values()) {
-                for (JSONObject instance : cloudInstances) {
-                    slaveToInstanceMap.put(getSlave(instance.getString("id")), instance);
+            slaveToInstanceMap = new HashMap<ElasticBoxSlave, InstanceSummary>();
+            for (List<InstanceSummary> cloudInstances : cloudToInstancesMap.values()) {
+                for (InstanceSummary instance : cloudInstances) {
+                    slaveToInstanceMap.put(getSlave(instance.getId()), instance);
                 }
             }
         }
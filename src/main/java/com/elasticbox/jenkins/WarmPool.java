@@ -0,0 +1,225 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox.jenkins;
+
+import com.elasticbox.InstanceSummary;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Keeps idle slaves of the slave configurations of the ElasticBox clouds ready ahead of the demand learned by
+ * {@link WarmPoolPlanner} from the queue, on top of the static min instances of the slave configurations. The pool
+ * is disabled unless <code>elasticbox.jenkins.WarmPool.enabled</code> is set, because the slaves it deploys are
+ * billed while they wait.
+ *
+ * <p>Each run counts the queue items that arrived since the previous run for the first slave configuration that
+ * provides their label, and deploys or releases idle slaves as planned, within the max instances of each slave
+ * configuration and of its cloud. The retention strategy of the slaves of a warm slave configuration leaves them to
+ * the pool; once the demand is gone, they are terminated after their retention time as usual.</p>
+ */
+@Extension
+public class WarmPool extends ElasticBoxExecutor.Workload {
+    public static final boolean ENABLED = Boolean.getBoolean("elasticbox.jenkins.WarmPool.enabled");
+
+    public static final long LEAD_TIME =
+            Long.getLong("elasticbox.jenkins.WarmPool.leadTime", TimeUnit.MINUTES.toMillis(5));
+
+    private static volatile Map<String, Integer> slaveConfigIdToTargetMap = Collections.emptyMap();
+
+    private final WarmPoolPlanner planner = new WarmPoolPlanner(LEAD_TIME);
+    private Set<Long> queuedItemIds = Collections.emptySet();
+
+    /**
+     * Returns the number of idle slaves of the slave configuration that the pool keeps ready.
+     */
+    public static int getTarget(String slaveConfigId) {
+        Integer target = slaveConfigIdToTargetMap.get(slaveConfigId);
+        return target != null ? target : 0;
+    }
+
+    @Override
+    protected ElasticBoxExecutor.ExecutionType getExecutionType() {
+        return ElasticBoxExecutor.ExecutionType.ASYNC;
+    }
+
+    @Override
+    protected synchronized void execute(TaskListener listener) throws IOException {
+        if (!ENABLED) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<ElasticBoxCloud> clouds = new ArrayList<>();
+        for (Cloud cloud : Jenkins.getInstance().clouds) {
+            if (cloud instanceof ElasticBoxCloud) {
+                clouds.add((ElasticBoxCloud) cloud);
+            }
+        }
+        recordArrivals(clouds);
+        planner.update(now);
+
+        Map<String, List<ElasticBoxSlave>> slaveConfigIdToSlavesMap = new HashMap<>();
+        Map<ElasticBoxCloud, Integer> cloudToSlaveCountMap = new HashMap<>();
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (node instanceof ElasticBoxSlave) {
+                ElasticBoxSlave slave = (ElasticBoxSlave) node;
+                ElasticBoxCloud cloud = slave.getCloud();
+                Integer slaveCount = cloudToSlaveCountMap.get(cloud);
+                cloudToSlaveCountMap.put(cloud, slaveCount == null ? 1 : slaveCount + 1);
+                AbstractSlaveConfiguration slaveConfig = slave.getSlaveConfiguration();
+                if (slaveConfig != null && !slave.isDeletable()) {
+                    List<ElasticBoxSlave> slaves = slaveConfigIdToSlavesMap.get(slaveConfig.getId());
+                    if (slaves == null) {
+                        slaves = new ArrayList<>();
+                        slaveConfigIdToSlavesMap.put(slaveConfig.getId(), slaves);
+                    }
+                    slaves.add(slave);
+                }
+            }
+        }
+
+        Map<String, Integer> targets = new HashMap<>();
+        Set<String> slaveConfigIds = new HashSet<>();
+        for (ElasticBoxCloud cloud : clouds) {
+            List<InstanceSummary> activeInstances = CapacityView.get(cloud).getActiveInstances();
+            if (activeInstances == null) {
+                continue;
+            }
+            Integer slaveCount = cloudToSlaveCountMap.get(cloud);
+            int instanceCount = Math.max(CapacityView.get(cloud).getUsage(activeInstances).getInstanceCount(),
+                    slaveCount != null ? slaveCount : 0);
+
+            List<WarmPoolPlanner.Pool> pools = new ArrayList<>();
+            for (SlaveConfiguration slaveConfig : cloud.getSlaveConfigurations()) {
+                slaveConfigIds.add(slaveConfig.getId());
+                List<ElasticBoxSlave> slaves = getSlaves(slaveConfigIdToSlavesMap, slaveConfig);
+                pools.add(new WarmPoolPlanner.Pool(slaveConfig.getId(), slaveConfig.getExecutors(),
+                        slaveConfig.getMinInstances(), slaveConfig.getMaxInstances(), slaves.size(),
+                        getIdleSlaves(slaves, true).size()));
+            }
+
+            WarmPoolPlanner.Plan plan = planner.plan(pools, cloud.getMaxInstances() - instanceCount, now);
+            targets.putAll(plan.getTargets());
+            for (SlaveConfiguration slaveConfig : cloud.getSlaveConfigurations()) {
+                int change = plan.getChange(slaveConfig.getId());
+                if (change > 0) {
+                    deploy(cloud, slaveConfig, change, listener);
+                } else if (change < 0) {
+                    release(getSlaves(slaveConfigIdToSlavesMap, slaveConfig), -change, listener);
+                }
+            }
+        }
+        slaveConfigIdToTargetMap = Collections.unmodifiableMap(targets);
+        planner.retainAll(slaveConfigIds);
+    }
+
+    private void recordArrivals(List<ElasticBoxCloud> clouds) {
+        Set<Long> itemIds = new HashSet<>();
+        for (Queue.Item item : Queue.getInstance().getItems()) {
+            itemIds.add(item.getId());
+            Label label = item.getAssignedLabel();
+            if (label == null || queuedItemIds.contains(item.getId())) {
+                continue;
+            }
+
+            for (ElasticBoxCloud cloud : clouds) {
+                List<SlaveConfiguration> slaveConfigs = cloud.getSlaveConfigurations(label);
+                if (!slaveConfigs.isEmpty()) {
+                    planner.recordArrivals(slaveConfigs.get(0).getId(), 1);
+                    break;
+                }
+            }
+        }
+        queuedItemIds = itemIds;
+    }
+
+    private void deploy(ElasticBoxCloud cloud, SlaveConfiguration slaveConfig, int count, TaskListener listener) {
+        CapacityView capacityView = CapacityView.get(cloud);
+        for (int i = 0; i < count; i++) {
+            // the limits are checked again with the reservations taken since the plan, the provisioning of the cloud
+            // may have planned slaves meanwhile, and it plans on top of the warm slaves until they are fetched
+            CapacityView.Reservation reservation = capacityView.tryReserve(slaveConfig, cloud.getMaxInstances());
+            if (reservation == null) {
+                log(MessageFormat.format("Cannot deploy more warm slaves for slave configuration {0} because the "
+                        + "maximum number of instances has been reached for cloud {1}", slaveConfig.getDescription(),
+                        cloud.getDisplayName()), listener);
+                return;
+            }
+            try {
+                ElasticBoxSlave slave = new ElasticBoxSlave(slaveConfig, cloud);
+                Jenkins.getInstance().addNode(slave);
+                reservation.releaseWhenLaunched(ElasticBoxSlaveHandler.submit(slave));
+                log(MessageFormat.format("Deploying warm slave {0} for slave configuration {1} of cloud {2}",
+                        slave.getDisplayName(), slaveConfig.getDescription(), cloud.getDisplayName()), listener);
+            } catch (IOException | Descriptor.FormException | RuntimeException ex) {
+                reservation.release();
+                log(Level.SEVERE, MessageFormat.format("Error deploying warm slave for slave configuration {0}",
+                        slaveConfig.getDescription()), ex, listener);
+                return;
+            }
+        }
+    }
+
+    private void release(List<ElasticBoxSlave> slaves, int count, TaskListener listener) {
+        // only the slaves that are online and idle, the launching ones are about to be needed
+        for (ElasticBoxSlave slave : getIdleSlaves(slaves, false)) {
+            if (count-- <= 0) {
+                break;
+            }
+            slave.markForTermination();
+            log(MessageFormat.format("Releasing warm slave {0}", slave.getDisplayName()), listener);
+        }
+    }
+
+    private static List<ElasticBoxSlave> getSlaves(Map<String, List<ElasticBoxSlave>> slaveConfigIdToSlavesMap,
+                                                   SlaveConfiguration slaveConfig) {
+        List<ElasticBoxSlave> slaves = slaveConfigIdToSlavesMap.get(slaveConfig.getId());
+        return slaves != null ? slaves : Collections.<ElasticBoxSlave>emptyList();
+    }
+
+    private static List<ElasticBoxSlave> getIdleSlaves(List<ElasticBoxSlave> slaves, boolean includeLaunching) {
+        List<ElasticBoxSlave> idleSlaves = new ArrayList<>();
+        for (ElasticBoxSlave slave : slaves) {
+            Computer computer = slave.getComputer();
+            if (computer == null || computer.isOffline()) {
+                if (includeLaunching) {
+                    idleSlaves.add(slave);
+                }
+            } else if (computer.isIdle()) {
+                idleSlaves.add(slave);
+            }
+        }
+        return idleSlaves;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox.jenkins;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Learns the demand of agents of each slave configuration from the arrivals of queue items, and plans how many idle
+ * agents to keep ready so that new builds don't wait for an instance to be deployed.
+ *
+ * <p>The demand is measured in queue items per minute with two moving averages: a recent rate that follows bursts
+ * within {@link #RECENT_WINDOW}, and a rate per hour of the day (UTC) where each day weighs {@link #DAILY_WEIGHT}.
+ * The expected arrivals during the lead time, the time it takes an agent to be deployed and come online, are
+ * forecast with the larger of the recent rate and the rate of the hour when the lead time ends. That many items need
+ * agents ready now, divided by the executors of an agent.</p>
+ *
+ * <p>The planner doesn't depend on Jenkins: {@link WarmPool} feeds it with the queue and applies the plans, and the
+ * tests simulate the queue.</p>
+ */
+public class WarmPoolPlanner {
+
+    static final long RECENT_WINDOW = TimeUnit.MINUTES.toMillis(15);
+
+    static final double DAILY_WEIGHT = 0.5;
+
+    private static final int HOURS_PER_DAY = 24;
+
+    private final long leadTime;
+    private final Map<String, Demand> slaveConfigIdToDemandMap = new HashMap<>();
+    private long lastUpdate;
+
+    /**
+     * @param leadTime time in milliseconds for a new agent to be deployed and come online
+     */
+    public WarmPoolPlanner(long leadTime) {
+        this.leadTime = leadTime;
+    }
+
+    /**
+     * Records queue items that arrived for agents of the specified slave configuration since the last update.
+     */
+    public synchronized void recordArrivals(String slaveConfigId, int count) {
+        getDemand(slaveConfigId).arrivals += count;
+    }
+
+    /**
+     * Folds the arrivals recorded since the last update into the rates of the slave configurations.
+     */
+    public synchronized void update(long now) {
+        if (lastUpdate == 0) {
+            // there is no interval to measure the first arrivals in
+            for (Demand demand : slaveConfigIdToDemandMap.values()) {
+                demand.arrivals = 0;
+            }
+            lastUpdate = now;
+            return;
+        }
+
+        long interval = now - lastUpdate;
+        if (interval <= 0) {
+            return;
+        }
+
+        double minutes = (double) interval / TimeUnit.MINUTES.toMillis(1);
+        double recentWeight = 1 - Math.exp(-(double) interval / RECENT_WINDOW);
+        double hourlyWeight = 1 - Math.pow(1 - DAILY_WEIGHT, (double) interval / TimeUnit.HOURS.toMillis(1));
+        int hour = getHour(lastUpdate + interval / 2);
+        for (Demand demand : slaveConfigIdToDemandMap.values()) {
+            double rate = demand.arrivals / minutes;
+            demand.recentRate += recentWeight * (rate - demand.recentRate);
+            demand.hourlyRates[hour] += hourlyWeight * (rate - demand.hourlyRates[hour]);
+            demand.arrivals = 0;
+        }
+        lastUpdate = now;
+    }
+
+    /**
+     * Forgets the demand of the slave configurations that are not in the specified ones.
+     */
+    public synchronized void retainAll(Collection<String> slaveConfigIds) {
+        slaveConfigIdToDemandMap.keySet().retainAll(slaveConfigIds);
+    }
+
+    /**
+     * Returns the forecast rate of queue items per minute for the slave configuration at the end of the lead time.
+     */
+    public synchronized double getForecastRate(String slaveConfigId, long now) {
+        Demand demand = slaveConfigIdToDemandMap.get(slaveConfigId);
+        if (demand == null) {
+            return 0;
+        }
+        return Math.max(demand.recentRate, demand.hourlyRates[getHour(now + leadTime)]);
+    }
+
+    /**
+     * Returns the number of idle agents of the slave configuration to keep ready.
+     */
+    public int getTarget(String slaveConfigId, int executors, long now) {
+        double expectedArrivals = getForecastRate(slaveConfigId, now) * leadTime / TimeUnit.MINUTES.toMillis(1);
+        return (int) Math.floor(expectedArrivals / Math.max(executors, 1) + 0.5);
+    }
+
+    /**
+     * Plans the agents to deploy or release for each pool. No pool grows beyond its max instances, and all of them
+     * together don't grow by more than the specified capacity of the cloud, which goes to the largest shortfalls
+     * first. Idle agents are only released down to the target of a pool that is still warm and never below its min
+     * instances; the agents of a pool without demand are left to their retention strategy.
+     *
+     * @param cloudCapacity the number of instances that the cloud can still deploy
+     */
+    public Plan plan(List<Pool> pools, int cloudCapacity, long now) {
+        Map<String, Integer> slaveConfigIdToTargetMap = new HashMap<>();
+        Map<String, Integer> slaveConfigIdToChangeMap = new HashMap<>();
+        List<Pool> shortPools = new ArrayList<>();
+        Map<Pool, Integer> poolToShortfallMap = new HashMap<>();
+        for (Pool pool : pools) {
+            int target = getTarget(pool.slaveConfigId, pool.executors, now);
+            slaveConfigIdToTargetMap.put(pool.slaveConfigId, target);
+            if (target > pool.idle) {
+                int shortfall = Math.min(target - pool.idle, pool.maxInstances - pool.instances);
+                if (shortfall > 0) {
+                    shortPools.add(pool);
+                    poolToShortfallMap.put(pool, shortfall);
+                }
+            } else if (target > 0 && target < pool.idle) {
+                int surplus = Math.min(pool.idle - target, pool.instances - pool.minInstances);
+                if (surplus > 0) {
+                    slaveConfigIdToChangeMap.put(pool.slaveConfigId, -surplus);
+                }
+            }
+        }
+
+        // one agent at a time to the pool with the largest shortfall left, in the order of the pools on ties
+        for (int capacity = cloudCapacity; capacity > 0 && !shortPools.isEmpty(); capacity--) {
+            Pool neediestPool = null;
+            for (Pool pool : shortPools) {
+                if (neediestPool == null || poolToShortfallMap.get(pool) > poolToShortfallMap.get(neediestPool)) {
+                    neediestPool = pool;
+                }
+            }
+            int shortfall = poolToShortfallMap.get(neediestPool) - 1;
+            if (shortfall == 0) {
+                shortPools.remove(neediestPool);
+            }
+            poolToShortfallMap.put(neediestPool, shortfall);
+            Integer change = slaveConfigIdToChangeMap.get(neediestPool.slaveConfigId);
+            slaveConfigIdToChangeMap.put(neediestPool.slaveConfigId, change == null ? 1 : change + 1);
+        }
+
+        return new Plan(slaveConfigIdToTargetMap, slaveConfigIdToChangeMap);
+    }
+
+    private Demand getDemand(String slaveConfigId) {
+        Demand demand = slaveConfigIdToDemandMap.get(slaveConfigId);
+        if (demand == null) {
+            demand = new Demand();
+            slaveConfigIdToDemandMap.put(slaveConfigId, demand);
+        }
+        return demand;
+    }
+
+    private static int getHour(long time) {
+        return (int) (TimeUnit.MILLISECONDS.toHours(time) % HOURS_PER_DAY);
+    }
+
+    /**
+     * Agents of one slave configuration.
+     */
+    public static final class Pool {
+        private final String slaveConfigId;
+        private final int executors;
+        private final int minInstances;
+        private final int maxInstances;
+        private final int instances;
+        private final int idle;
+
+        /**
+         * @param instances all the agents of the slave configuration
+         * @param idle the agents that are idle or still launching
+         */
+        public Pool(String slaveConfigId, int executors, int minInstances, int maxInstances, int instances,
+                    int idle) {
+            this.slaveConfigId = slaveConfigId;
+            this.executors = executors;
+            this.minInstances = minInstances;
+            this.maxInstances = maxInstances;
+            this.instances = instances;
+            this.idle = idle;
+        }
+
+        @Override
+        public String toString() {
+            return MessageFormat.format("Pool'{'slaveConfigId={0}, instances={1}, idle={2}'}'", slaveConfigId,
+                    String.valueOf(instances), String.valueOf(idle));
+        }
+    }
+
+    /**
+     * Targets and changes planned for the pools.
+     */
+    public static final class Plan {
+        private final Map<String, Integer> slaveConfigIdToTargetMap;
+        private final Map<String, Integer> slaveConfigIdToChangeMap;
+
+        private Plan(Map<String, Integer> slaveConfigIdToTargetMap, Map<String, Integer> slaveConfigIdToChangeMap) {
+            this.slaveConfigIdToTargetMap = Collections.unmodifiableMap(slaveConfigIdToTargetMap);
+            this.slaveConfigIdToChangeMap = Collections.unmodifiableMap(slaveConfigIdToChangeMap);
+        }
+
+        /**
+         * Returns the number of idle agents to keep ready for the slave configuration.
+         */
+        public int getTarget(String slaveConfigId) {
+            Integer target = slaveConfigIdToTargetMap.get(slaveConfigId);
+            return target != null ? target : 0;
+        }
+
+        /**
+         * Returns the number of agents to deploy for the slave configuration, or to release if negative.
+         */
+        public int getChange(String slaveConfigId) {
+            Integer change = slaveConfigIdToChangeMap.get(slaveConfigId);
+            return change != null ? change : 0;
+        }
+
+        public Map<String, Integer> getTargets() {
+            return slaveConfigIdToTargetMap;
+        }
+    }
+
+    private static final class Demand {
+        private final double[] hourlyRates = new double[HOURS_PER_DAY];
+        private double recentRate;
+        private int arrivals;
+    }
+}
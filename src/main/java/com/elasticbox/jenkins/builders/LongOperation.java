@@ -13,24 +13,29 @@
 package com.elasticbox.jenkins.builders;
 
 import com.elasticbox.Client;
+import com.elasticbox.ClientException;
 import com.elasticbox.IProgressMonitor;
 import com.elasticbox.jenkins.util.TaskLogger;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import hudson.AbortException;
 
-import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpStatus;
 
 import java.io.IOException;
 
 import java.text.MessageFormat;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 public abstract class LongOperation extends Operation {
@@ -59,60 +64,65 @@ public abstract class LongOperation extends Operation {
         return waitForCompletionTimeout;
     }
 
+    /**
+     * Waits for the operations of the given monitors to complete. The instances are followed by the state tracker of
+     * the client, which fetches them in batches for all the waiters, so the build only waits for their futures.
+     */
     static void waitForCompletion(String operationDisplayName, List<IProgressMonitor> monitors, Client client,
             TaskLogger logger, int timeoutMinutes) throws IOException, InterruptedException {
-        Map<String, IProgressMonitor> instanceIdToMonitorMap = new HashMap<String, IProgressMonitor>();
+        Map<IProgressMonitor, ListenableFuture<JSONObject>> monitorToFutureMap =
+                new LinkedHashMap<IProgressMonitor, ListenableFuture<JSONObject>>();
         for (IProgressMonitor monitor : monitors) {
-            instanceIdToMonitorMap.put(Client.getResourceId(monitor.getResourceUrl()), monitor);
+            monitorToFutureMap.put(monitor, client.async().whenDone(monitor, timeoutMinutes));
         }
-        Object waitLock = new Object();
         long startWaitTime = System.currentTimeMillis();
+        List<String> missingInstanceIDs = new ArrayList<String>();
+        List<String> instancePageUrls = new ArrayList<String>();
 
-        while (!instanceIdToMonitorMap.isEmpty()
-            && TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - startWaitTime) < timeoutMinutes) {
-
-            synchronized (waitLock) {
-                waitLock.wait(3000);
-            }
-            List<String> instanceIDs = new ArrayList<String>(instanceIdToMonitorMap.keySet());
-            JSONArray instances = client.getInstances(instanceIDs);
-            for (Object instance : instances) {
-                JSONObject instanceJson = (JSONObject) instance;
-                String instanceId = instanceJson.getString("id");
-                instanceIDs.remove(instanceId);
-                IProgressMonitor monitor = instanceIdToMonitorMap.get(instanceId);
-                String instancePageUrl = Client.getPageUrl(client.getEndpointUrl(), instanceJson);
-                boolean done;
+        try {
+            for (Map.Entry<IProgressMonitor, ListenableFuture<JSONObject>> entry : monitorToFutureMap.entrySet()) {
+                IProgressMonitor monitor = entry.getKey();
+                String instancePageUrl = Client.getPageUrl(client.getEndpointUrl(), monitor.getResourceUrl());
                 try {
-                    done = monitor.isDone(instanceJson);
-                } catch (IProgressMonitor.IncompleteException ex) {
-                    logger.error("Failed to perform operation {0} for instance {1}: {1}", operationDisplayName,
-                            instancePageUrl, ex.getMessage());
-                    throw new AbortException(ex.getMessage());
-                }
-                if (done) {
-                    logger.info(MessageFormat.format("Operation {0} is successful for instance {1}",
-                            operationDisplayName, instancePageUrl));
-                    instanceIdToMonitorMap.remove(instanceId);
+                    entry.getValue().get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IProgressMonitor.TimeoutException) {
+                        instancePageUrls.add(instancePageUrl);
+                        continue;
+                    }
+                    if (cause instanceof IProgressMonitor.IncompleteException) {
+                        logger.error("Failed to perform operation {0} for instance {1}: {2}", operationDisplayName,
+                                instancePageUrl, cause.getMessage());
+                        throw new AbortException(cause.getMessage());
+                    }
+                    if (cause instanceof ClientException
+                            && ((ClientException) cause).getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                        missingInstanceIDs.add(Client.getResourceId(monitor.getResourceUrl()));
+                        continue;
+                    }
+                    Throwables.propagateIfInstanceOf(cause, IOException.class);
+                    throw Throwables.propagate(cause);
                 }
+                logger.info(MessageFormat.format("Operation {0} is successful for instance {1}",
+                        operationDisplayName, instancePageUrl));
             }
-            if (!instanceIDs.isEmpty()) {
-                throw new AbortException(MessageFormat.format("Cannot find the instances with the following IDs: {0}",
-                        StringUtils.join(instanceIDs, ", ")));
+        } finally {
+            // stops tracking the remaining instances if the build is aborted or one of the operations failed
+            for (ListenableFuture<JSONObject> future : monitorToFutureMap.values()) {
+                future.cancel(false);
             }
         }
-        
-        if (!instanceIdToMonitorMap.isEmpty()) {
 
-            List<String> instancePageUrls = new ArrayList<String>();
-
-            for (IProgressMonitor monitor : instanceIdToMonitorMap.values()) {
-                instancePageUrls.add(Client.getPageUrl(client.getEndpointUrl(), monitor.getResourceUrl()));
-            }
+        if (!missingInstanceIDs.isEmpty()) {
+            throw new AbortException(MessageFormat.format("Cannot find the instances with the following IDs: {0}",
+                    StringUtils.join(missingInstanceIDs, ", ")));
+        }
 
+        if (!instancePageUrls.isEmpty()) {
             String message = MessageFormat.format(
                 "The following instances still are not ready after waiting for {0} minutes: {1}",
-                TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - startWaitTime),
+                String.valueOf(TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - startWaitTime)),
                 StringUtils.join(instancePageUrls, ','));
 
             logger.error(message);
@@ -74,18 +74,25 @@ public abstract class AbstractDeploymentDataPoliciesHandler implements Deploymen
             if (ArrayUtils.isNotEmpty(requirements)) {
 
                 List<PolicyBox> filtered = new ArrayList<>();
+                final Set<String> requiredServices = new HashSet<>(Arrays.asList(requirements));
 
                 final ListIterator<PolicyBox> policyBoxListIterator = policyBoxes.listIterator();
                 while (policyBoxListIterator.hasNext()) {
                     final PolicyBox policyBox = policyBoxListIterator.next();
 
                     final String[] claims = policyBox.getClaims();
-                    if (ArrayUtils.isEmpty(claims)) {
+                    if (ArrayUtils.isEmpty(claims) || claims.length < requiredServices.size()) {
                         continue;
                     }
 
-                    Set<String> providedServices = new HashSet(Arrays.asList(claims));
-                    if (providedServices.containsAll(Arrays.asList(requirements))) {
+                    // count the distinct claims required, one hash lookup per claim
+                    Set<String> providedServices = new HashSet<>(requiredServices.size());
+                    for (String claim : claims) {
+                        if (requiredServices.contains(claim)) {
+                            providedServices.add(claim);
+                        }
+                    }
+                    if (providedServices.size() == requiredServices.size()) {
                         filtered.add(policyBox);
                     }
                 }
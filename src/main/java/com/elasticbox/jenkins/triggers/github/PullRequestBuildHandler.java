@@ -14,7 +14,7 @@ package com.elasticbox.jenkins.triggers.github;
 
 import com.cloudbees.jenkins.GitHubRepositoryName;
 import com.coravy.hudson.plugins.github.GithubProjectProperty;
-import com.elasticbox.jenkins.ElasticBoxExecutor;
+import com.elasticbox.jenkins.BoundedExecutor;
 import com.elasticbox.jenkins.triggers.IBuildHandler;
 import com.elasticbox.jenkins.triggers.PullRequestBuildTrigger;
 import hudson.model.AbstractBuild;
@@ -78,8 +78,9 @@ public class PullRequestBuildHandler implements IBuildHandler {
     public static final String PR_URL = "PR_URL";
     public static final String PR_TITLE = "PR_TITLE";
 
-    private static final SequentialExecutionQueue sequentialExecutionQueue
-        = new SequentialExecutionQueue(ElasticBoxExecutor.threadPool);
+    // a flood of webhook events is slowed down in the threads that receive them once the queue is full
+    private static final SequentialExecutionQueue sequentialExecutionQueue = new SequentialExecutionQueue(
+        BoundedExecutor.get("github", 4, 256, BoundedExecutor.OverflowPolicy.CALLER_RUNS));
 
     private static final Collection<GHEvent> WEBHOOK_EVENTS
         = Arrays.asList(GHEvent.PULL_REQUEST, GHEvent.ISSUE_COMMENT);
@@ -107,10 +107,13 @@ public class ClientCache {
 
     private static final class CachedClient extends Client {
         private final String cloudName;
+        private final String cloudToken;
 
         public CachedClient(ElasticBoxCloud cloud) throws IOException {
             super(cloud.getEndpointUrl(), cloud.getToken());
             cloudName = cloud.name;
+            cloudToken = cloud.getToken();
+            setConnectionSettings(cloud.getConnectionSettings());
         }
 
         private ElasticBoxCloud getElasticBoxCloud() {
@@ -118,8 +121,14 @@ public class ClientCache {
         }
 
         private void handleException(ClientException ex) {
+            // A new client would get the same token rejected, so the client is only removed if the token of the
+            // cloud has changed since it was created. Otherwise every request failing with 401 would create a new
+            // client and connect again.
             if (ex.getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
-                clientCache.remove(cloudName);
+                ElasticBoxCloud cloud = getElasticBoxCloud();
+                if (cloud == null || !StringUtils.equals(cloudToken, cloud.getToken())) {
+                    clientCache.remove(cloudName, this);
+                }
             }
         }
 
@@ -12,8 +12,8 @@
 
 package com.elasticbox.jenkins.util;
 
-import com.elasticbox.BoxStack;
 import com.elasticbox.Client;
+import com.elasticbox.InstanceSummary;
 import com.elasticbox.jenkins.AbstractSlaveConfiguration;
 import com.elasticbox.jenkins.ElasticBoxSlave;
 
@@ -71,11 +71,7 @@ public class SlaveInstance {
     public static JSONArray createJenkinsVariables(Client client, ElasticBoxSlave slave) throws IOException {
         Map<String, JSONObject> requiredVariables = Collections.EMPTY_MAP;
 
-        JSONArray boxStack = new BoxStack(
-                            slave.getBoxVersion(),
-                            client.getBoxStack(slave.getBoxVersion()),
-                            client
-        ).toJsonArray();
+        JSONArray boxStack = client.getIndexedBoxStack(slave.getBoxVersion()).toJsonArray();
 
         for (int i = 0; i < boxStack.size(); i++) {
             requiredVariables = getRequiredVariables(boxStack.getJSONObject(i));
@@ -138,7 +134,7 @@ public class SlaveInstance {
         return getRequiredVariables(boxJson).size() == REQUIRED_VARIABLES.size();
     }
 
-    public static Map<String, Integer> getSlaveConfigIdToInstanceCountMap(List<JSONObject> activeInstances) {
+    public static Map<String, Integer> getSlaveConfigIdToInstanceCountMap(List<InstanceSummary> activeInstances) {
         Map<String, String> slaveNameToConfigIdMap = new HashMap<String, String>();
         for (Node node : Jenkins.getInstance().getNodes()) {
             if (node instanceof ElasticBoxSlave) {
@@ -150,11 +146,11 @@ public class SlaveInstance {
             }
         }
         Map<String, Integer> slaveConfigIdToInstanceCountMap = new HashMap<String, Integer>();
-        for (JSONObject instance : activeInstances) {
-            List<?> tags = new ArrayList(instance.getJSONArray("tags"));
+        for (InstanceSummary instance : activeInstances) {
+            List<String> tags = new ArrayList<>(instance.getTags());
             tags.retainAll(slaveNameToConfigIdMap.keySet());
             if (!tags.isEmpty()) {
-                String slaveName = (String) tags.get(0);
+                String slaveName = tags.get(0);
                 String slaveConfigId = slaveNameToConfigIdMap.get(slaveName);
                 Integer instanceCount = slaveConfigIdToInstanceCountMap.get(slaveConfigId);
                 slaveConfigIdToInstanceCountMap.put(slaveConfigId, instanceCount == null ? 1 : ++instanceCount);
@@ -167,7 +163,7 @@ public class SlaveInstance {
     public static class InstanceCounter {
         private final Map<String, Integer> slaveConfigIdToInstanceCountMap;
 
-        public InstanceCounter(List<JSONObject> activeInstances) {
+        public InstanceCounter(List<InstanceSummary> activeInstances) {
             Map<String, AbstractSlaveConfiguration> instanceIdToSlaveConfigMap
                 = new HashMap<String, AbstractSlaveConfiguration>();
 
@@ -181,8 +177,8 @@ public class SlaveInstance {
                 }
             }
             slaveConfigIdToInstanceCountMap = new HashMap<String, Integer>();
-            for (JSONObject instance : activeInstances) {
-                AbstractSlaveConfiguration slaveConfig = instanceIdToSlaveConfigMap.get(instance.getString("id"));
+            for (InstanceSummary instance : activeInstances) {
+                AbstractSlaveConfiguration slaveConfig = instanceIdToSlaveConfigMap.get(instance.getId());
                 if (slaveConfig != null) {
                     Integer instanceCount = slaveConfigIdToInstanceCountMap.get(slaveConfig.getId());
                     slaveConfigIdToInstanceCountMap.put(
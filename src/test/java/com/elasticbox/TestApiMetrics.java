@@ -0,0 +1,63 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestApiMetrics {
+
+    @Test
+    public void testOperationNames() {
+        assertEquals("get-instances", ApiMetrics.toOperation("GET", "/services/workspaces/ws/instances", "ids=a,b"));
+        assertEquals("get-instance", ApiMetrics.toOperation("GET", "/services/instances/i-1", null));
+        assertEquals("get-box", ApiMetrics.toOperation("GET", "/services/boxes/b-1", null));
+        assertEquals("get-stack", ApiMetrics.toOperation("GET", "/services/boxes/b-1/stack", null));
+        assertEquals("get-workspaces", ApiMetrics.toOperation("GET", "/services/workspaces", null));
+        assertEquals("get-policy", ApiMetrics.toOperation("GET", "/services/policies/p-1", null));
+        assertEquals("deploy", ApiMetrics.toOperation("POST", "/services/instances", null));
+        assertEquals("create-box", ApiMetrics.toOperation("POST", "/services/boxes", null));
+        assertEquals("update-instance", ApiMetrics.toOperation("PUT", "/services/instances/i-1", null));
+        assertEquals("poweron", ApiMetrics.toOperation("PUT", "/services/instances/i-1/poweron", null));
+        assertEquals("terminate", ApiMetrics.toOperation("DELETE", "/services/instances/i-1", "operation=terminate"));
+        assertEquals("force-terminate",
+                ApiMetrics.toOperation("DELETE", "/services/instances/i-1", "operation=force_terminate"));
+        assertEquals("upload-blob", ApiMetrics.toOperation("POST", "/api/services/blobs/upload", null));
+    }
+
+    @Test
+    public void testOperationStats() {
+        OperationStats stats = new OperationStats("https://localhost", "get-instance");
+        for (int i = 1; i <= 100; i++) {
+            stats.record(200, TimeUnit.MILLISECONDS.toNanos(i), 0, 0);
+        }
+        stats.record(503, TimeUnit.SECONDS.toNanos(3), 2, 0);
+        stats.record(new IOException("Connection reset"), TimeUnit.MILLISECONDS.toNanos(1), 0, 0);
+
+        assertEquals(102, stats.getRequestCount());
+        assertEquals(2, stats.getErrorCount());
+        assertEquals(2, stats.getRetryCount());
+        assertEquals(50, stats.getLatencyPercentile50());
+        assertEquals(100, stats.getLatencyPercentile90());
+        assertEquals(3000, stats.getMaxLatency());
+        assertEquals(Long.valueOf(100), stats.getStatusCounts().get("200"));
+        assertEquals(Long.valueOf(1), stats.getStatusCounts().get("IOException"));
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestBlobCache {
+
+    @Test
+    public void testFileHashIsRecomputedWhenFileChanges() throws IOException {
+        BlobCache cache = new BlobCache(60 * 1000);
+        File file = File.createTempFile("blob", ".sh");
+        try {
+            FileUtils.writeStringToFile(file, "abc", StandardCharsets.UTF_8);
+            assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", cache.getHash(file));
+
+            FileUtils.writeStringToFile(file, "abcd", StandardCharsets.UTF_8);
+            assertEquals("88d4266fd4e6338d13b845fcf289579d209c897823b9217da3e161936f031589", cache.getHash(file));
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    @Test
+    public void testBlobsAreKeyedByEndpointAndAccount() {
+        BlobCache cache = new BlobCache(60 * 1000);
+        JSONObject blobInfo = new JSONObject();
+        blobInfo.put("url", "/services/blobs/download/1");
+        cache.put(BlobCache.toKey("https://a", "user1", "hash", "text/plain", "setup.sh"), blobInfo);
+
+        assertNotNull(cache.get(BlobCache.toKey("https://a", "user1", "hash", "text/plain", "setup.sh")));
+        assertNull(cache.get(BlobCache.toKey("https://b", "user1", "hash", "text/plain", "setup.sh")));
+        assertNull(cache.get(BlobCache.toKey("https://a", "user2", "hash", "text/plain", "setup.sh")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiredBlobsAreUploadedAgain() throws InterruptedException {
+        BlobCache cache = new BlobCache(10);
+        String key = BlobCache.toKey("https://a", "user1", "hash", "text/plain", "setup.sh");
+        cache.put(key, new JSONObject());
+        Thread.sleep(20);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+}
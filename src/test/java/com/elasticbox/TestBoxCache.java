@@ -0,0 +1,309 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBoxCache {
+
+    private static final String BOX = "{\"id\":\"b-1\",\"name\":\"test\"}";
+
+    private HttpServer server;
+    private String endpointUrl;
+    private final AtomicInteger boxesRequestCount = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/services/workspaces/w-1/boxes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                boxesRequestCount.incrementAndGet();
+                send(exchange, "[" + BOX + "]");
+            }
+        });
+        server.createContext("/services/boxes/b-1", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, BOX);
+            }
+        });
+        server.createContext("/services/instances", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, "{\"id\":\"i-1\"}");
+            }
+        });
+        server.start();
+        endpointUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testExpiresAfterTtl() throws Exception {
+        BoxCache cache = new BoxCache(200);
+        CountingLoader loader = new CountingLoader();
+        cache.getWorkspaceBoxes("w-1", loader);
+        cache.getWorkspaceBoxes("w-1", loader);
+        assertEquals(1, loader.loadCount.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        Thread.sleep(300);
+        cache.getWorkspaceBoxes("w-1", loader);
+        assertEquals(2, loader.loadCount.get());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testDisabledWithoutTtl() throws Exception {
+        BoxCache cache = new BoxCache(0);
+        CountingLoader loader = new CountingLoader();
+        cache.getWorkspaceBoxes("w-1", loader);
+        cache.getWorkspaceBoxes("w-1", loader);
+        assertEquals(2, loader.loadCount.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        BoxCache cache = new BoxCache(60 * 1000);
+        CountingLoader loader = new CountingLoader();
+        for (int i = 0; i < BoxCache.MAX_ENTRIES; i++) {
+            cache.getBoxVersions("b-" + i, loader);
+        }
+        assertEquals(BoxCache.MAX_ENTRIES, cache.size());
+
+        // the first box becomes the most recently used one, so the second one is evicted
+        cache.getBoxVersions("b-0", loader);
+        cache.getBoxVersions("b-" + BoxCache.MAX_ENTRIES, loader);
+        assertEquals(BoxCache.MAX_ENTRIES, cache.size());
+        assertEquals(BoxCache.MAX_ENTRIES + 1, loader.loadCount.get());
+
+        cache.getBoxVersions("b-0", loader);
+        assertEquals(BoxCache.MAX_ENTRIES + 1, loader.loadCount.get());
+        cache.getBoxVersions("b-1", loader);
+        assertEquals(BoxCache.MAX_ENTRIES + 2, loader.loadCount.get());
+    }
+
+    @Test
+    public void testCopiesOnRead() throws Exception {
+        BoxCache cache = new BoxCache(60 * 1000);
+        CountingLoader loader = new CountingLoader();
+        JSONArray boxes = cache.getWorkspaceBoxes("w-1", loader);
+        boxes.getJSONObject(0).put("name", "modified");
+        boxes.add(JSONObject.fromObject(BOX));
+
+        JSONArray cachedBoxes = cache.getWorkspaceBoxes("w-1", loader);
+        assertNotSame(boxes, cachedBoxes);
+        assertEquals(1, cachedBoxes.size());
+        assertEquals("test", cachedBoxes.getJSONObject(0).getString("name"));
+        assertEquals(1, loader.loadCount.get());
+    }
+
+    @Test
+    public void testInvalidatesOnBoxWrites() throws Exception {
+        Client client = new Client(endpointUrl, "token");
+        client.getAllBoxes("w-1");
+        client.getAllBoxes("w-1");
+        assertEquals(1, boxesRequestCount.get());
+
+        // writes to other resources keep the boxes
+        client.doPost("/services/instances", new JSONObject(), false);
+        client.getAllBoxes("w-1");
+        assertEquals(1, boxesRequestCount.get());
+
+        client.doUpdate("/services/boxes/b-1", JSONObject.fromObject(BOX));
+        client.getAllBoxes("w-1");
+        assertEquals(2, boxesRequestCount.get());
+
+        client.doDelete("/services/boxes/b-1");
+        client.getAllBoxes("w-1");
+        assertEquals(3, boxesRequestCount.get());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        final BoxCache cache = new BoxCache(60 * 1000);
+        final BlockingLoader loader = new BlockingLoader();
+        final List<JSONArray> results = new CopyOnWriteArrayList<JSONArray>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(cache.getWorkspaceBoxes("w-1", loader));
+                    } catch (IOException ex) {
+                        fail(ex.getMessage());
+                    }
+                }
+            };
+        }
+        threads[0].start();
+        assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < threads.length; i++) {
+            threads[i].start();
+        }
+        // give the other threads time to miss while the first one is loading
+        Thread.sleep(200);
+        loader.release.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+
+        assertEquals(1, loader.loadCount.get());
+        assertEquals(threads.length, results.size());
+        for (JSONArray boxes : results) {
+            assertEquals("b-1", boxes.getJSONObject(0).getString("id"));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(threads.length - 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testLoadInFlightIsNotCachedAfterInvalidation() throws Exception {
+        final BoxCache cache = new BoxCache(60 * 1000);
+        final BlockingLoader loader = new BlockingLoader();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    cache.getWorkspaceBoxes("w-1", loader);
+                } catch (IOException ex) {
+                    fail(ex.getMessage());
+                }
+            }
+        };
+        thread.start();
+        assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+        cache.invalidateBox("b-1");
+        loader.release.countDown();
+        thread.join(10000);
+        assertEquals(0, cache.size());
+
+        cache.getWorkspaceBoxes("w-1", loader);
+        assertEquals(2, loader.loadCount.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testSharedLoadFailure() throws Exception {
+        final BoxCache cache = new BoxCache(60 * 1000);
+        final BlockingLoader loader = new BlockingLoader();
+        loader.error = new IOException("Cannot load the boxes");
+        final AtomicInteger errorCount = new AtomicInteger();
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        cache.getWorkspaceBoxes("w-1", loader);
+                    } catch (IOException ex) {
+                        errorCount.incrementAndGet();
+                    }
+                }
+            };
+        }
+        threads[0].start();
+        assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+        threads[1].start();
+        Thread.sleep(200);
+        loader.release.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+
+        assertEquals(2, errorCount.get());
+        assertEquals(1, loader.loadCount.get());
+        assertEquals(0, cache.size());
+
+        // failures are not cached
+        loader.error = null;
+        cache.getWorkspaceBoxes("w-1", loader);
+        assertEquals(2, loader.loadCount.get());
+    }
+
+    private static void send(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class CountingLoader implements BoxCache.Loader<JSONArray> {
+        final AtomicInteger loadCount = new AtomicInteger();
+
+        @Override
+        public JSONArray load() throws IOException {
+            loadCount.incrementAndGet();
+            return JSONArray.fromObject("[" + BOX + "]");
+        }
+    }
+
+    private static class BlockingLoader extends CountingLoader {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile IOException error;
+
+        @Override
+        public JSONArray load() throws IOException {
+            JSONArray boxes = super.load();
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                throw error;
+            }
+            return boxes;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestBoxStack {
+
+    private final Client client = new Client("https://localhost", "token");
+
+    @Test
+    public void testNestedBoxesAndOverriddenVariables() {
+        BoxStack boxStack = new BoxStack("app", createBoxes(), client);
+        JSONArray stack = boxStack.toJsonArray();
+
+        assertEquals(3, stack.size());
+        assertEquals("app", stack.getJSONObject(0).getString("id"));
+        assertEquals("https://localhost/images/platform/box.png", stack.getJSONObject(0).getString("icon"));
+        assertEquals("db", stack.getJSONObject(1).getString("id"));
+        assertEquals("os", stack.getJSONObject(2).getString("id"));
+
+        // the app box overrides the port of the database
+        JSONObject port = boxStack.findVariable("port", "database");
+        assertEquals("5433", port.getString("value"));
+        assertEquals("5433", boxStack.getVariables("db").getJSONObject(0).getString("value"));
+        assertEquals("ubuntu", boxStack.findVariable("image", "database.os").getString("value"));
+        assertEquals("1", boxStack.findVariable("replicas", "").getString("value"));
+        assertNull(boxStack.findVariable("port", ""));
+
+        // callers get their own copies
+        port.put("value", "1234");
+        stack.getJSONObject(1).getJSONArray("variables").getJSONObject(0).put("value", "1234");
+        assertEquals("5433", boxStack.findVariable("port", "database").getString("value"));
+    }
+
+    @Test
+    public void testInstanceVariablesOverrideBoxVariables() {
+        JSONObject image = createVariable("image", "Text", "centos");
+        image.put("scope", "database.os");
+        BoxStack boxStack = new BoxStack("app", createBoxes(), client, Collections.singletonList(image));
+        assertEquals("centos", boxStack.findVariable("image", "database.os").getString("value"));
+    }
+
+    @Test
+    public void testFindBox() {
+        JSONArray boxes = createBoxes();
+        JSONObject version = createBox("os-v1", "OS");
+        JSONObject versionInfo = new JSONObject();
+        versionInfo.put("box", "os-box");
+        version.put("version", versionInfo);
+        boxes.add(version);
+
+        BoxStack boxStack = new BoxStack("app", boxes, client);
+        assertSame(version, boxStack.findBox("os-v1"));
+        assertSame(version, boxStack.findBox("os-box"));
+        assertSame(version, BoxStack.findBox("os-box", boxes));
+        assertSame(boxes.getJSONObject(0), BoxStack.findBox("app", boxes));
+        assertNull(boxStack.findBox("unknown"));
+        assertFalse(boxStack.isVersion());
+        assertTrue(new BoxStack("os-v1", boxes, client).isVersion());
+    }
+
+    @Test
+    public void testStacksOfVersionsAreMemoized() {
+        JSONArray boxes = new JSONArray();
+        JSONObject version = createBox("os-v1", "OS");
+        JSONObject versionInfo = new JSONObject();
+        versionInfo.put("box", "os-box");
+        version.put("version", versionInfo);
+        boxes.add(version);
+
+        BoxCache cache = new BoxCache(60000);
+        BoxStack boxStack = new BoxStack("os-v1", boxes, client);
+        cache.putBoxStack("os-v1", boxStack);
+        assertSame(boxStack, cache.getBoxStack("os-v1"));
+
+        cache.putBoxStack("app", new BoxStack("app", createBoxes(), client));
+        assertNull(cache.getBoxStack("app"));
+    }
+
+    private static JSONArray createBoxes() {
+        JSONObject app = createBox("app", "App");
+        JSONArray appVariables = app.getJSONArray("variables");
+        appVariables.add(createVariable("database", "Box", "db"));
+        JSONObject port = createVariable("port", "Number", "5433");
+        port.put("scope", "database");
+        appVariables.add(port);
+        appVariables.add(createVariable("replicas", "Number", "1"));
+
+        JSONObject db = createBox("db", "Database");
+        db.getJSONArray("variables").add(createVariable("port", "Number", "5432"));
+        db.getJSONArray("variables").add(createVariable("os", "Box", "os"));
+
+        JSONObject os = createBox("os", "OS");
+        os.getJSONArray("variables").add(createVariable("image", "Text", "ubuntu"));
+
+        JSONArray boxes = new JSONArray();
+        boxes.add(app);
+        boxes.add(db);
+        boxes.add(os);
+        return boxes;
+    }
+
+    private static JSONObject createBox(String id, String name) {
+        JSONObject box = new JSONObject();
+        box.put("id", id);
+        box.put("name", name);
+        box.put("variables", new JSONArray());
+        return box;
+    }
+
+    private static JSONObject createVariable(String name, String type, String value) {
+        JSONObject variable = new JSONObject();
+        variable.put("name", name);
+        variable.put("type", type);
+        variable.put("value", value);
+        return variable;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCircuitBreaker {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://localhost", 3, 50);
+        for (int i = 0; i < 3; i++) {
+            breaker.acquire();
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            breaker.acquire();
+            fail("Request allowed while the circuit breaker is open");
+        } catch (EndpointUnavailableException ex) {
+            assertEquals(503, ex.getStatusCode());
+        }
+
+        // a single probe is let through once the breaker has been open long enough
+        Thread.sleep(60);
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        try {
+            breaker.acquire();
+            fail("Second request allowed while probing");
+        } catch (EndpointUnavailableException ex) {
+            // expected
+        }
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testFailedProbeOpensAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://localhost", 1, 50);
+        breaker.acquire();
+        breaker.onFailure();
+        Thread.sleep(60);
+        breaker.acquire();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testSuccessResetsFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://localhost", 2, 50);
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(CircuitBreaker.isFailureStatus(503));
+        assertTrue(!CircuitBreaker.isFailureStatus(404));
+    }
+
+}
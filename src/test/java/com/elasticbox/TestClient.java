@@ -0,0 +1,62 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestClient {
+
+    @Test
+    public void testJoinIdsWithinMaxLength() throws IOException {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 2200; i++) {
+            ids.add("i-" + String.format("%06d", i));
+        }
+
+        List<String> chunks = Client.joinIds(ids, 100);
+
+        // each ID takes 8 characters plus the comma, so 11 IDs fit in each chunk
+        assertEquals(200, chunks.size());
+        List<String> joinedIds = new ArrayList<String>();
+        for (String chunk : chunks) {
+            assertTrue("Chunk is too long: " + chunk, chunk.length() <= 100);
+            joinedIds.addAll(Arrays.asList(chunk.split(",")));
+        }
+        assertEquals(ids, joinedIds);
+    }
+
+    @Test
+    public void testJoinIdsLongerThanMaxLength() throws IOException {
+        List<String> chunks = Client.joinIds(Arrays.asList("short", "much-longer-id", "id"), 8);
+
+        assertEquals(Arrays.asList("short,", "much-longer-id,", "id,"), chunks);
+    }
+
+    @Test
+    public void testJoinIdsEncodesIds() throws IOException {
+        assertEquals(Collections.singletonList("a%2Cb,c,"), Client.joinIds(Arrays.asList("a,b", "c"), 100));
+        assertTrue(Client.joinIds(Collections.<String>emptyList(), 100).isEmpty());
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestConcurrencyLimiter {
+
+    @Test
+    public void testLimiterBacksOffOnFailures() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("https://localhost", 20);
+        limiter.acquire(10);
+        limiter.release("get-instance", TimeUnit.MILLISECONDS.toNanos(10), true);
+        assertEquals(10, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(10);
+        }
+        try {
+            limiter.acquire(10);
+            fail("Request allowed over the limit");
+        } catch (EndpointUnavailableException ex) {
+            assertEquals(10, limiter.getInFlight());
+        }
+
+        // the limit grows back while requests succeed with the usual latency
+        for (int i = 0; i < 10; i++) {
+            limiter.release("get-instance", TimeUnit.MILLISECONDS.toNanos(10), false);
+        }
+        for (int i = 0; i < 2; i++) {
+            limiter.acquire(10);
+            limiter.release("get-instance", TimeUnit.MILLISECONDS.toNanos(10), false);
+        }
+        assertEquals(11, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimiterBacksOffWhenLatencyGrows() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("https://localhost", 20);
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire(10);
+            limiter.release("get-instance", TimeUnit.MILLISECONDS.toNanos(10), false);
+        }
+        limiter.acquire(10);
+        limiter.release("get-instance", TimeUnit.SECONDS.toNanos(1), false);
+        assertEquals(18, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimiterKeepsLatencyPerOperation() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("https://localhost", 20);
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire(10);
+            limiter.release("get-instance", TimeUnit.MILLISECONDS.toNanos(10), false);
+        }
+
+        // listing takes longer than reading one resource without the endpoint being slower
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire(10);
+            limiter.release("get-instances", TimeUnit.SECONDS.toNanos(1), false);
+        }
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimiterHoldsRequestUntilResponseConsumed() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("https://localhost", 20);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream("{}".getBytes("UTF-8")));
+        response.setEntity(entity);
+
+        limiter.acquire(10);
+        limiter.releaseWhenConsumed(response, "get-instance", System.nanoTime(), false);
+        assertEquals(1, limiter.getInFlight());
+        assertEquals("{}", EntityUtils.toString(response.getEntity()));
+        assertEquals(0, limiter.getInFlight());
+
+        // closing the body more than once releases the request only once
+        EntityUtils.consume(response.getEntity());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestContentCompression {
+
+    private static final String INSTANCES = '[' + StringUtils.repeat("{\"id\":\"i-1\",\"state\":\"done\"},", 200)
+            + "{\"id\":\"i-2\",\"state\":\"done\"}]";
+
+    @Test
+    public void testAcceptEncoding() {
+        HttpGet get = new HttpGet("https://localhost/services/workspaces");
+        ContentCompression.acceptCompressedResponse(get);
+        assertEquals(ContentCompression.ACCEPTED_ENCODINGS, get.getFirstHeader("Accept-Encoding").getValue());
+    }
+
+    @Test
+    public void testGzipResponse() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(INSTANCES.getBytes("UTF-8"));
+        gzip.close();
+
+        OperationStats stats = new OperationStats("https://localhost", "get-instances");
+        HttpResponse response = createResponse(compressed.toByteArray(), "gzip");
+        ContentCompression.decodeResponse(response, stats);
+
+        assertNull(response.getEntity().getContentEncoding());
+        assertEquals(INSTANCES, EntityUtils.toString(response.getEntity()));
+        assertEquals(INSTANCES.length(), stats.getResponseBytes());
+        assertEquals(compressed.size(), stats.getResponseWireBytes());
+        assertTrue(stats.getResponseWireBytes() < stats.getResponseBytes() / 10);
+    }
+
+    @Test
+    public void testDeflateResponse() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(compressed);
+        deflate.write(INSTANCES.getBytes("UTF-8"));
+        deflate.close();
+
+        OperationStats stats = new OperationStats("https://localhost", "get-instances");
+        HttpResponse response = createResponse(compressed.toByteArray(), "deflate");
+        ContentCompression.decodeResponse(response, stats);
+
+        assertEquals(INSTANCES, EntityUtils.toString(response.getEntity()));
+        assertEquals(INSTANCES.length(), stats.getResponseBytes());
+        assertEquals(compressed.size(), stats.getResponseWireBytes());
+    }
+
+    @Test
+    public void testUncompressedResponse() throws IOException {
+        OperationStats stats = new OperationStats("https://localhost", "get-instances");
+        HttpResponse response = createResponse(INSTANCES.getBytes("UTF-8"), null);
+        ContentCompression.decodeResponse(response, stats);
+
+        assertEquals(INSTANCES, EntityUtils.toString(response.getEntity()));
+        assertEquals(INSTANCES.length(), stats.getResponseBytes());
+        assertEquals(INSTANCES.length(), stats.getResponseWireBytes());
+    }
+
+    @Test
+    public void testCompressRequest() throws IOException {
+        HttpPost post = new HttpPost("https://localhost/services/instances");
+        post.setEntity(new StringEntity(INSTANCES, ContentType.APPLICATION_JSON));
+        assertEquals(INSTANCES.length(), ContentCompression.compressRequest(post, -1));
+        assertEquals(INSTANCES.length(), ContentCompression.compressRequest(post, INSTANCES.length() + 1));
+        assertNull(post.getEntity().getContentEncoding());
+
+        long wireLength = ContentCompression.compressRequest(post, 1024);
+        assertTrue(wireLength < INSTANCES.length() / 10);
+        assertEquals("gzip", post.getEntity().getContentEncoding().getValue());
+        assertTrue(post.getEntity().isRepeatable());
+
+        // already compressed bodies are sent as they are
+        assertEquals(wireLength, ContentCompression.compressRequest(post, 1024));
+
+        HttpResponse response = createResponse(EntityUtils.toByteArray(post.getEntity()), "gzip");
+        ContentCompression.decodeResponse(response, new OperationStats("https://localhost", "deploy"));
+        assertEquals(INSTANCES, EntityUtils.toString(response.getEntity()));
+    }
+
+    private static HttpResponse createResponse(byte[] body, String contentEncoding) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ByteArrayEntity entity = new ByteArrayEntity(body, ContentType.APPLICATION_JSON);
+        if (contentEncoding != null) {
+            entity.setContentEncoding(contentEncoding);
+        }
+        response.setEntity(entity);
+        return response;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestInstanceStateTracker {
+
+    private HttpServer server;
+    private String endpointUrl;
+    private Client client;
+    private final Map<String, String> instanceToStateMap = new ConcurrentHashMap<String, String>();
+    private final List<Set<String>> batches = new CopyOnWriteArrayList<Set<String>>();
+    private final AtomicInteger singleRequestCount = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/services/workspaces/w-1/instances", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String ids = URLDecoder.decode(exchange.getRequestURI().getRawQuery().substring("ids=".length()),
+                        "UTF-8");
+                Set<String> instanceIds = new HashSet<String>(Arrays.asList(ids.split(",")));
+                batches.add(instanceIds);
+                JSONArray instances = new JSONArray();
+                for (String instanceId : instanceIds) {
+                    instances.add(toInstance(instanceId));
+                }
+                send(exchange, instances.toString());
+            }
+        });
+        server.createContext("/services/instances", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                singleRequestCount.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                send(exchange, toInstance(path.substring(path.lastIndexOf('/') + 1)).toString());
+            }
+        });
+        server.start();
+        endpointUrl = "http://localhost:" + server.getAddress().getPort();
+        client = new Client(endpointUrl, "token");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBatchesInstancesOfWorkspace() throws Exception {
+        InstanceStateTracker tracker = client.getStateTracker();
+        Set<String> instanceIds = new HashSet<String>(Arrays.asList("i-1", "i-2", "i-3"));
+        for (String instanceId : instanceIds) {
+            instanceToStateMap.put(instanceId, "processing");
+        }
+        ListenableFuture<JSONObject> future1 = tracker.track(new TestMonitor("i-1"), "w-1", 1);
+        ListenableFuture<JSONObject> future2 = tracker.track(new TestMonitor("i-2"), "w-1", 1);
+        ListenableFuture<JSONObject> future3 = tracker.track(new TestMonitor("i-3"), "w-1", 1);
+        assertEquals(3, tracker.getTrackedCount());
+
+        waitFor(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return !batches.isEmpty();
+            }
+        });
+        for (String instanceId : instanceIds) {
+            instanceToStateMap.put(instanceId, "done");
+        }
+        assertEquals("i-1", future1.get(10, TimeUnit.SECONDS).getString("id"));
+        assertEquals("i-2", future2.get(10, TimeUnit.SECONDS).getString("id"));
+        assertEquals("i-3", future3.get(10, TimeUnit.SECONDS).getString("id"));
+
+        // every refresh fetched the three instances with a single request
+        for (Set<String> batch : batches) {
+            assertEquals(instanceIds, batch);
+        }
+        assertEquals(0, singleRequestCount.get());
+        waitForUntracked(tracker);
+    }
+
+    @Test
+    public void testWakesWaitersWhenInstanceIsFinished() throws Exception {
+        InstanceStateTracker tracker = client.getStateTracker();
+        instanceToStateMap.put("i-1", "processing");
+        instanceToStateMap.put("i-2", "processing");
+        final InstanceStateTracker.Registration registration = tracker.register(new TestMonitor("i-1"), "w-1");
+        final AtomicInteger result = new AtomicInteger();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result.set(registration.await(10000) ? 1 : -1);
+                } catch (IOException | InterruptedException ex) {
+                    result.set(-2);
+                } finally {
+                    registration.cancel();
+                }
+            }
+        };
+        waiter.start();
+        ListenableFuture<JSONObject> future = tracker.track(new TestMonitor("i-2"), "w-1", 1);
+
+        Thread.sleep(InstanceStateTracker.REFRESH_INTERVAL + 500);
+        assertTrue(waiter.isAlive());
+        assertFalse(future.isDone());
+
+        instanceToStateMap.put("i-1", "done");
+        waiter.join(10000);
+        assertEquals(1, result.get());
+
+        instanceToStateMap.put("i-2", "unavailable");
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("The instance is unavailable");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IProgressMonitor.IncompleteException);
+        }
+        waitForUntracked(tracker);
+    }
+
+    @Test
+    public void testTimesOut() throws Exception {
+        InstanceStateTracker tracker = client.getStateTracker();
+        instanceToStateMap.put("i-1", "processing");
+        ListenableFuture<JSONObject> future = tracker.track(new TestMonitor("i-1"), "w-1", 200,
+                TimeUnit.MILLISECONDS);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("The instance is never done");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IProgressMonitor.TimeoutException);
+        }
+        waitForUntracked(tracker);
+    }
+
+    @Test
+    public void testStopsTrackingAfterCancel() throws Exception {
+        InstanceStateTracker tracker = client.getStateTracker();
+        instanceToStateMap.put("i-1", "processing");
+        ListenableFuture<JSONObject> future = tracker.track(new TestMonitor("i-1"), "w-1", 1);
+        waitFor(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return !batches.isEmpty();
+            }
+        });
+
+        future.cancel(false);
+        assertEquals(0, tracker.getTrackedCount());
+        // a refresh may have been in flight when the future was cancelled
+        Thread.sleep(200);
+        int requestCount = batches.size();
+        Thread.sleep(2 * InstanceStateTracker.REFRESH_INTERVAL + 500);
+        assertEquals(requestCount, batches.size());
+        assertEquals(0, singleRequestCount.get());
+    }
+
+    private JSONObject toInstance(String instanceId) {
+        JSONObject instance = new JSONObject();
+        instance.put("id", instanceId);
+        instance.put("state", instanceToStateMap.get(instanceId));
+        return instance;
+    }
+
+    private static void waitForUntracked(final InstanceStateTracker tracker) throws InterruptedException {
+        // the registrations are removed by the listeners of the futures, which may run after get() returns
+        waitFor(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return tracker.getTrackedCount() == 0;
+            }
+        });
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.isTrue()) {
+            assertTrue("Timed out waiting for the condition", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    private static void send(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private interface Condition {
+        boolean isTrue();
+    }
+
+    private class TestMonitor extends AbstractProgressMonitor {
+
+        TestMonitor(String instanceId) {
+            super(endpointUrl + "/services/instances/" + instanceId);
+        }
+
+        @Override
+        protected JSONObject getResource() throws IOException {
+            return (JSONObject) client.doGet(getResourceUrl(), false);
+        }
+
+        @Override
+        protected InstanceStateTracker getStateTracker() {
+            return client.getStateTracker();
+        }
+
+        @Override
+        protected String getWorkspaceId() {
+            return "w-1";
+        }
+
+        @Override
+        public boolean isDone(JSONObject instance) throws IProgressMonitor.IncompleteException {
+            String state = instance.getString("state");
+            if ("unavailable".equals(state)) {
+                throw new IProgressMonitor.IncompleteException(getResourceUrl() + " is unavailable");
+            }
+            return "done".equals(state);
+        }
+    }
+}
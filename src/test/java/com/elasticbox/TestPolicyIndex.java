@@ -0,0 +1,121 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestPolicyIndex {
+
+    @Test
+    public void testPoliciesByClaims() {
+        JSONArray boxes = new JSONArray();
+        boxes.add(createBox("p-1", "policy", "linux", "aws"));
+        boxes.add(createBox("b-1", "script", "linux"));
+        boxes.add(createBox("p-2", "policy", "linux", "aws", "large"));
+        boxes.add(createBox("p-3", "policy", "windows", "aws"));
+        PolicyIndex index = new PolicyIndex(boxes);
+
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("p-1", "p-2"), getIds(index.getPolicies(Arrays.asList("aws", "linux"))));
+        assertEquals(Arrays.asList("p-2"), getIds(index.getPolicies(Arrays.asList("large", "aws"))));
+        assertEquals(Arrays.asList("p-1", "p-2", "p-3"), getIds(index.getPolicies(Collections.<String>emptyList())));
+        assertTrue(index.getPolicies(Arrays.asList("linux", "gcp")).isEmpty());
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        JSONArray boxes = new JSONArray();
+        boxes.add(createBox("p-1", "policy", "linux"));
+        boxes.add(createBox("p-2", "policy", "linux", "large"));
+        PolicyIndex index = new PolicyIndex(boxes);
+
+        // a replaced policy keeps its position
+        index.put(createBox("p-1", "policy", "linux", "large"));
+        assertEquals(Arrays.asList("p-1", "p-2"), getIds(index.getPolicies(Arrays.asList("large"))));
+
+        index.put(createBox("p-3", "policy", "large"));
+        index.remove("p-2");
+        assertEquals(Arrays.asList("p-1", "p-3"), getIds(index.getPolicies(Arrays.asList("large"))));
+        assertEquals(Arrays.asList("p-1"), getIds(index.getPolicies(Arrays.asList("linux"))));
+
+        // a policy replaced by a box that is not a policy is removed
+        index.put(createBox("p-3", "script"));
+        assertEquals(Arrays.asList("p-1"), getIds(index.getPolicies(Arrays.asList("large"))));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testIndexBuiltOncePerCacheRefresh() throws IOException {
+        final AtomicInteger loadCount = new AtomicInteger();
+        BoxCache.Loader<JSONArray> loader = new BoxCache.Loader<JSONArray>() {
+            @Override
+            public JSONArray load() {
+                loadCount.incrementAndGet();
+                JSONArray boxes = new JSONArray();
+                boxes.add(createBox("p-1", "policy", "linux"));
+                return boxes;
+            }
+        };
+        BoxCache cache = new BoxCache(60000);
+        PolicyIndex index = cache.getPolicyIndex("ws", loader);
+        assertSame(index, cache.getPolicyIndex("ws", loader));
+        assertEquals(1, loadCount.get());
+
+        // a fresh copy of an indexed policy updates the index
+        cache.getBox("p-1", new BoxCache.Loader<JSONObject>() {
+            @Override
+            public JSONObject load() {
+                return createBox("p-1", "policy", "windows");
+            }
+        });
+        assertEquals(Arrays.asList("p-1"), getIds(index.getPolicies(Arrays.asList("windows"))));
+        assertTrue(index.getPolicies(Arrays.asList("linux")).isEmpty());
+
+        cache.invalidateWorkspace("ws");
+        cache.getPolicyIndex("ws", loader);
+        assertEquals(2, loadCount.get());
+    }
+
+    private static JSONObject createBox(String id, String type, String... claims) {
+        JSONObject box = new JSONObject();
+        box.put("id", id);
+        box.put("schema", "http://elasticbox.net/schemas/boxes/" + type);
+        JSONArray claimArray = new JSONArray();
+        claimArray.addAll(Arrays.asList(claims));
+        box.put("claims", claimArray);
+        return box;
+    }
+
+    private static List<String> getIds(List<JSONObject> boxes) {
+        String[] ids = new String[boxes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = boxes.get(i).getString("id");
+        }
+        return Arrays.asList(ids);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class TestRequestCoalescer {
+
+    @Test
+    public void testConcurrentRequestsShareResponse() throws Exception {
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final AtomicInteger requestCount = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final RequestCoalescer.Request<JSONObject> request = new RequestCoalescer.Request<JSONObject>() {
+            @Override
+            public JSONObject execute() throws IOException {
+                requestCount.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                JSONObject instance = new JSONObject();
+                instance.put("id", "i-1");
+                return instance;
+            }
+        };
+        Callable<JSONObject> call = new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return coalescer.execute("/services/instances/i-1", request);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<JSONObject> first = executor.submit(call);
+            while (requestCount.get() == 0) {
+                Thread.sleep(10);
+            }
+            Future<JSONObject> second = executor.submit(call);
+            Future<JSONObject> third = executor.submit(call);
+            while (coalescer.getCoalescedCount() < 2) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            JSONObject firstInstance = first.get();
+            JSONObject secondInstance = second.get();
+            assertEquals("i-1", third.get().getString("id"));
+            assertEquals(1, requestCount.get());
+            assertNotSame(firstInstance, secondInstance);
+            assertEquals(firstInstance, secondInstance);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // once completed the response is not reused
+        coalescer.execute("/services/instances/i-1", request);
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test(expected = ClientException.class)
+    public void testErrorIsThrown() throws IOException {
+        new RequestCoalescer().execute("/services/instances/i-2", new RequestCoalescer.Request<JSONObject>() {
+            @Override
+            public JSONObject execute() throws IOException {
+                throw new ClientException("Not found", 404);
+            }
+        });
+    }
+
+}
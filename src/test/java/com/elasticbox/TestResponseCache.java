@@ -0,0 +1,190 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestResponseCache {
+
+    private static final String BOX = "{\"id\":\"b-1\",\"name\":\"test\"}";
+
+    private HttpServer server;
+    private String endpointUrl;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+    private volatile String etag = "\"v1\"";
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/services/boxes/b-1", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModifiedCount.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                send(exchange, etag, BOX);
+            }
+        });
+        server.createContext("/services/workspaces/w-1/boxes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModifiedCount.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                send(exchange, etag, "[" + BOX + "]");
+            }
+        });
+        server.createContext("/services/workspaces", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                send(exchange, null, BOX);
+            }
+        });
+        server.start();
+        endpointUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testRevalidation() throws IOException {
+        Client client = new Client(endpointUrl, "token");
+        for (int i = 0; i < 3; i++) {
+            client.doGet("/services/boxes/b-1", false);
+        }
+        assertEquals(3, requestCount.get());
+        assertEquals(2, notModifiedCount.get());
+
+        ResponseCache.ResourceStats stats = client.getResponseCache().getResourceStats("get-box");
+        assertEquals(2, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, client.getResponseCache().getEntryCount());
+
+        // a new version is downloaded again and replaces the cached one
+        etag = "\"v2\"";
+        client.doGet("/services/boxes/b-1", false);
+        client.doGet("/services/boxes/b-1", false);
+        assertEquals(5, requestCount.get());
+        assertEquals(3, notModifiedCount.get());
+        assertEquals(3, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(1, client.getResponseCache().getEntryCount());
+    }
+
+    @Test
+    public void testResponseWithoutValidators() throws IOException {
+        Client client = new Client(endpointUrl, "token");
+        client.doGet("/services/workspaces/w-1", false);
+        client.doGet("/services/workspaces/w-1", false);
+        assertEquals(2, requestCount.get());
+        assertEquals(0, client.getResponseCache().getEntryCount());
+        assertEquals(2, client.getResponseCache().getResourceStats("get-workspace").getMissCount());
+    }
+
+    @Test
+    public void testListRevalidation() throws IOException {
+        Client client = new Client(endpointUrl, "token");
+        client.doGet("/services/workspaces/w-1/boxes", true);
+        JSON boxes = client.doGet("/services/workspaces/w-1/boxes", true);
+        assertTrue(boxes.isArray());
+        assertEquals(2, requestCount.get());
+        assertEquals(1, notModifiedCount.get());
+        assertEquals(1, client.getResponseCache().getEntryCount());
+
+        ResponseCache.ResourceStats stats = client.getResponseCache().getResourceStats("get-boxes");
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+    }
+
+    @Test
+    public void testWeighsParsedJson() {
+        JSONObject box = new JSONObject();
+        box.put("id", "b-1");
+        box.put("name", "test");
+        assertEquals(2 * BOX.length() + 3 * 64, ResponseCache.weigh(box, BOX.length()));
+    }
+
+    @Test
+    public void testBoundedSize() {
+        ResponseCache cache = new ResponseCache(100);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setHeader("ETag", "\"v1\"");
+        cache.put("http://localhost/services/boxes/b-1", response, new JSONObject(), 40);
+        cache.put("http://localhost/services/boxes/b-2", response, new JSONObject(), 40);
+
+        // the first box is the most recently used one
+        assertTrue(cache.addValidators("http://localhost/services/boxes/b-1", new HttpGet()));
+        cache.put("http://localhost/services/boxes/b-3", response, new JSONObject(), 40);
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(80, cache.getSize());
+        assertNull(cache.getNotModified("http://localhost/services/boxes/b-2"));
+
+        // responses bigger than the cache are not kept
+        cache.put("http://localhost/services/boxes/b-1", response, new JSONObject(), 200);
+        assertFalse(cache.addValidators("http://localhost/services/boxes/b-1", new HttpGet()));
+        assertEquals(40, cache.getSize());
+    }
+
+    private static void send(HttpExchange exchange, String etag, String json) throws IOException {
+        byte[] body = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRetryPolicy {
+
+    @Test
+    public void testBackoffGrowsExponentiallyWithJitter() {
+        RetryPolicy policy = new RetryPolicy("https://localhost", 100, 1000, 0.2, 10);
+        for (int i = 0; i < 100; i++) {
+            long backoff = policy.getBackoff(0);
+            assertTrue("Unexpected backoff: " + backoff, backoff >= 50 && backoff <= 100);
+            backoff = policy.getBackoff(2);
+            assertTrue("Unexpected backoff: " + backoff, backoff >= 200 && backoff <= 400);
+            backoff = policy.getBackoff(10);
+            assertTrue("Unexpected backoff: " + backoff, backoff >= 500 && backoff <= 1000);
+        }
+    }
+
+    @Test
+    public void testRetriesLimitedByBudget() {
+        RetryPolicy policy = new RetryPolicy("https://localhost", 100, 1000, 0.5, 2);
+        assertTrue(policy.tryRetry());
+        assertTrue(policy.tryRetry());
+        assertFalse(policy.tryRetry());
+
+        // two more requests earn one more retry
+        policy.onRequest();
+        policy.onRequest();
+        assertTrue(policy.tryRetry());
+        assertFalse(policy.tryRetry());
+        assertEquals(3, policy.getRetryCount());
+        assertEquals(2, policy.getExhaustedBudgetCount());
+    }
+
+    @Test
+    public void testRetryableErrors() {
+        assertTrue(RetryPolicy.isIdempotent("GET"));
+        assertFalse(RetryPolicy.isIdempotent("PUT"));
+        assertFalse(RetryPolicy.isIdempotent("DELETE"));
+        assertFalse(RetryPolicy.isIdempotent("POST"));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertFalse(RetryPolicy.isRetryable(500));
+        assertFalse(RetryPolicy.isRetryable(404));
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(RetryPolicy.isRetryable(new IOException("Connection reset")));
+        assertFalse(RetryPolicy.isRetryable(new ClientException("Not found", 404)));
+        assertFalse(RetryPolicy.isRetryable(new EndpointUnavailableException("Circuit breaker open")));
+    }
+
+    @Test
+    public void testUnsentRequests() {
+        assertTrue(RetryPolicy.isUnsent(new ConnectException("Connection refused")));
+        assertTrue(RetryPolicy.isUnsent(new ConnectTimeoutException()));
+        assertFalse(RetryPolicy.isUnsent(new SocketTimeoutException()));
+        assertFalse(RetryPolicy.isUnsent(new IOException("Connection reset")));
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestStreamingJsonDecoder {
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDecodeInstancesKeepsOnlySummaryFields() throws IOException {
+        String json = "[{\"id\": \"i-1\", \"name\": \"slave\", \"uri\": \"/services/instances/i-1\", "
+                + "\"owner\": \"workspace\", \"state\": \"done\", \"operation\": {\"event\": \"deploy\", "
+                + "\"workspace\": \"workspace\"}, \"updated\": \"2016-01-01\", \"tags\": [\"slave-1\", \"linux\"], "
+                + "\"boxes\": [{\"id\": \"box-1\", \"variables\": [{\"name\": \"id\"}]}, {\"id\": \"box-2\"}], "
+                + "\"service\": {\"machines\": [{\"id\": \"m-1\"}]}}, "
+                + "{\"id\": \"i-2\", \"state\": \"processing\", \"operation\": \"shutdown\", \"tags\": []}]";
+
+        List<InstanceSummary> instances = StreamingJsonDecoder.decodeArray(toStream(json), InstanceSummary.DECODER);
+
+        assertEquals(2, instances.size());
+        InstanceSummary instance = instances.get(0);
+        assertEquals("i-1", instance.getId());
+        assertEquals("done", instance.getState());
+        assertEquals("deploy", instance.getOperation());
+        assertEquals("workspace", instance.getOwner());
+        assertEquals(Arrays.asList("slave-1", "linux"), instance.getTags());
+        assertEquals(Arrays.asList("box-1", "box-2"), instance.getBoxIds());
+
+        InstanceSummary oldInstance = instances.get(1);
+        assertEquals("shutdown", oldInstance.getOperation());
+        assertNull(oldInstance.getOwner());
+        assertTrue(oldInstance.getTags().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeTruncatedArray() throws IOException {
+        StreamingJsonDecoder.decodeArray(toStream("[{\"id\": \"i-1\", \"tags\": [\"a\""), InstanceSummary.DECODER);
+    }
+
+}
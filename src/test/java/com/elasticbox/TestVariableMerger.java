@@ -0,0 +1,104 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestVariableMerger {
+
+    private final Client client = new Client("https://localhost", "token");
+
+    @Test
+    public void testMergeReportsChangedVariables() {
+        JSONArray instanceVariables = new JSONArray();
+        instanceVariables.add(createVariable("port", "Number", "8080", null));
+        VariableMerger merger = new VariableMerger(instanceVariables, createBoxStack());
+
+        JSONArray variables = new JSONArray();
+        variables.add(createVariable("port", "Number", "8080", null));
+        variables.add(createVariable("image", "Text", "ubuntu", "os"));
+        assertTrue(merger.merge(variables).isEmpty());
+        // the box variable is added to the instance even if it didn't change
+        assertEquals(2, instanceVariables.size());
+        assertEquals("os", instanceVariables.getJSONObject(1).getString("scope"));
+
+        variables = new JSONArray();
+        variables.add(createVariable("port", "Number", "9090", null));
+        variables.add(createVariable("image", "Text", "centos", "os"));
+        variables.add(createVariable("unknown", "Text", "value", null));
+        List<JSONObject> changedVariables = merger.merge(variables);
+        assertEquals(2, changedVariables.size());
+        assertEquals("9090", changedVariables.get(0).getString("value"));
+        assertEquals("centos", instanceVariables.getJSONObject(1).getString("value"));
+        assertEquals(2, instanceVariables.size());
+    }
+
+    @Test
+    public void testNewVariableWithoutScope() {
+        JSONArray instanceVariables = new JSONArray();
+        VariableMerger merger = new VariableMerger(instanceVariables, createBoxStack());
+
+        JSONObject port = createVariable("port", "Number", "9090", null);
+        assertTrue(merger.contains(port));
+        assertFalse(merger.contains(createVariable("port", "Number", "9090", "os")));
+
+        JSONArray variables = new JSONArray();
+        variables.add(port);
+        assertEquals(1, merger.merge(variables).size());
+        assertFalse(instanceVariables.getJSONObject(0).containsKey("scope"));
+        assertEquals("9090", instanceVariables.getJSONObject(0).getString("value"));
+    }
+
+    private BoxStack createBoxStack() {
+        JSONObject app = createBox("app");
+        app.getJSONArray("variables").add(createVariable("port", "Number", "8080", null));
+        app.getJSONArray("variables").add(createVariable("os", "Box", "os", null));
+        JSONObject os = createBox("os");
+        os.getJSONArray("variables").add(createVariable("image", "Text", "ubuntu", null));
+
+        JSONArray boxes = new JSONArray();
+        boxes.add(app);
+        boxes.add(os);
+        return new BoxStack("app", boxes, client);
+    }
+
+    private static JSONObject createBox(String id) {
+        JSONObject box = new JSONObject();
+        box.put("id", id);
+        box.put("name", id);
+        box.put("variables", new JSONArray());
+        return box;
+    }
+
+    private static JSONObject createVariable(String name, String type, String value, String scope) {
+        JSONObject variable = new JSONObject();
+        variable.put("name", name);
+        variable.put("type", type);
+        variable.put("value", value);
+        if (scope != null) {
+            variable.put("scope", scope);
+        }
+        return variable;
+    }
+}
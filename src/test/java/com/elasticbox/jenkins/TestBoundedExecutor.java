@@ -0,0 +1,133 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox.jenkins;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBoundedExecutor {
+
+    @Test
+    public void testOverflowPolicies() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        BoundedExecutor discarding = fill("test-discard", BoundedExecutor.OverflowPolicy.DISCARD, release);
+        discarding.execute(block(release));
+        assertEquals(1, discarding.getRejectedCount());
+        assertEquals(1, discarding.getQueueSize());
+        assertEquals(1, discarding.getQueueCapacity());
+
+        BoundedExecutor aborting = fill("test-abort", BoundedExecutor.OverflowPolicy.ABORT, release);
+        try {
+            aborting.execute(block(release));
+            fail("The task doesn't fit in the queue");
+        } catch (RejectedExecutionException ex) {
+            assertEquals(1, aborting.getRejectedCount());
+        }
+
+        BoundedExecutor callerRunning = fill("test-caller", BoundedExecutor.OverflowPolicy.CALLER_RUNS, release);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        callerRunning.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        });
+        assertSame(Thread.currentThread(), thread.get());
+        assertEquals(1, callerRunning.getRejectedCount());
+
+        release.countDown();
+        for (BoundedExecutor executor : new BoundedExecutor[] { discarding, aborting, callerRunning }) {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, discarding.getCompletedTaskCount());
+    }
+
+    @Test
+    public void testNamesThreadsAfterExecutor() throws Exception {
+        BoundedExecutor executor = new BoundedExecutor("test-names", null, 1, 1,
+                BoundedExecutor.OverflowPolicy.ABORT);
+        final AtomicReference<String> threadName = new AtomicReference<>();
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                threadName.set(Thread.currentThread().getName());
+            }
+        }).get(5, TimeUnit.SECONDS);
+        assertEquals("ElasticBox-test-names-0", threadName.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRetainsExecutorsOfExistingClouds() {
+        BoundedExecutor kept = BoundedExecutor.forCloud("test", "kept", 1, 1, BoundedExecutor.OverflowPolicy.ABORT);
+        BoundedExecutor removed = BoundedExecutor.forCloud("test", "removed", 1, 1,
+                BoundedExecutor.OverflowPolicy.ABORT);
+        BoundedExecutor shared = BoundedExecutor.get("test", 1, 1, BoundedExecutor.OverflowPolicy.ABORT);
+        assertSame(kept, BoundedExecutor.forCloud("test", "kept", 1, 1, BoundedExecutor.OverflowPolicy.ABORT));
+        assertEquals("test-kept", kept.getName());
+
+        BoundedExecutor.retainClouds(Collections.singleton("kept"));
+        assertTrue(removed.isShutdown());
+        assertFalse(kept.isShutdown());
+        assertFalse(shared.isShutdown());
+        assertFalse(BoundedExecutor.getAll().contains(removed));
+        assertNotSame(removed, BoundedExecutor.forCloud("test", "removed", 1, 1,
+                BoundedExecutor.OverflowPolicy.ABORT));
+    }
+
+    private static BoundedExecutor fill(String name, BoundedExecutor.OverflowPolicy policy, CountDownLatch release)
+            throws InterruptedException {
+        BoundedExecutor executor = new BoundedExecutor(name, null, 1, 1, policy);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(block(release));
+        assertEquals(1, executor.getActiveCount());
+        assertEquals(1, executor.getQueueSize());
+        return executor;
+    }
+
+    private static Runnable block(CountDownLatch release) {
+        return block(new CountDownLatch(1), release);
+    }
+
+    private static Runnable block(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * ElasticBox Confidential
+ * Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ * NOTICE:  All information contained herein is, and remains the property
+ * of ElasticBox. The intellectual and technical concepts contained herein are
+ * proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination of this
+ * information or reproduction of this material is strictly forbidden unless prior
+ * written permission is obtained from ElasticBox.
+ */
+
+package com.elasticbox.jenkins;
+
+import com.elasticbox.IProgressMonitor;
+import com.elasticbox.InstanceSummary;
+
+import hudson.model.Node;
+
+import jenkins.model.Jenkins;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Jenkins.class)
+public class TestCapacityView {
+
+    private static final List<InstanceSummary> NO_INSTANCES = Collections.emptyList();
+
+    private AbstractSlaveConfiguration slaveConfig;
+
+    @Before
+    public void setUp() {
+        // no slaves, and no cloud so that the refreshes started by the releases fetch nothing
+        Jenkins jenkins = mock(Jenkins.class);
+        PowerMockito.mockStatic(Jenkins.class);
+        when(Jenkins.getInstance()).thenReturn(jenkins);
+        when(jenkins.getNodes()).thenReturn(Collections.<Node>emptyList());
+        when(jenkins.getCloud(anyString())).thenReturn(null);
+
+        slaveConfig = mock(AbstractSlaveConfiguration.class);
+        when(slaveConfig.getId()).thenReturn("slave-config-1");
+        when(slaveConfig.getMaxInstances()).thenReturn(2);
+    }
+
+    @Test
+    public void testNoReservationBeforeFirstFetch() {
+        CapacityView view = new CapacityView("cloud-1");
+        assertNull(view.tryReserve(slaveConfig, 10));
+    }
+
+    @Test
+    public void testReservationCountsUntilFetchedAfterRelease() {
+        CapacityView view = new CapacityView("cloud-1");
+        view.update(NO_INSTANCES, System.currentTimeMillis());
+
+        CapacityView.Reservation reservation1 = view.tryReserve(slaveConfig, 10);
+        CapacityView.Reservation reservation2 = view.tryReserve(slaveConfig, 10);
+        assertNotNull(reservation1);
+        assertNotNull(reservation2);
+        assertNull("The slave configuration allows 2 instances", view.tryReserve(slaveConfig, 10));
+        assertEquals(2, view.getUsage(NO_INSTANCES).count(slaveConfig));
+
+        long releaseStartTime = System.currentTimeMillis();
+        reservation1.release();
+        assertEquals(2, view.getUsage(NO_INSTANCES).count(slaveConfig));
+
+        // a fetch that started before the release may not include the deployed instance
+        view.update(NO_INSTANCES, releaseStartTime - 1);
+        assertEquals(2, view.getUsage(NO_INSTANCES).count(slaveConfig));
+        assertEquals(2, view.getReservationCount());
+
+        view.update(NO_INSTANCES, System.currentTimeMillis());
+        assertEquals(1, view.getUsage(NO_INSTANCES).count(slaveConfig));
+        assertEquals(1, view.getUsage(NO_INSTANCES).getInstanceCount());
+        assertEquals(1, view.getReservationCount());
+        assertNotNull(view.tryReserve(slaveConfig, 10));
+    }
+
+    @Test
+    public void testCloudLimitCountsReservations() {
+        CapacityView view = new CapacityView("cloud-1");
+        view.update(NO_INSTANCES, System.currentTimeMillis());
+
+        assertNotNull(view.tryReserve(slaveConfig, 1));
+        assertNull("The cloud allows 1 instance", view.tryReserve(slaveConfig, 1));
+    }
+
+    @Test
+    public void testReleaseWhenLaunchedWithDoneMonitor() {
+        CapacityView view = new CapacityView("cloud-1");
+        view.update(NO_INSTANCES, System.currentTimeMillis());
+
+        CapacityView.Reservation reservation = view.tryReserve(slaveConfig, 10);
+        LaunchSlaveProgressMonitor monitor = new LaunchSlaveProgressMonitor(null);
+        reservation.releaseWhenLaunched(monitor);
+
+        view.update(NO_INSTANCES, System.currentTimeMillis());
+        assertEquals("Not released before the slave is launched", 1, view.getReservationCount());
+
+        // the launch of the slave failed or the slave was removed before its deployment was submitted
+        monitor.setMonitor(IProgressMonitor.DONE_MONITOR);
+        view.update(NO_INSTANCES, System.currentTimeMillis());
+        assertEquals(0, view.getReservationCount());
+        assertEquals(0, view.getUsage(NO_INSTANCES).count(slaveConfig));
+    }
+
+    @Test
+    public void testReleaseWhenLaunchedWithOtherMonitor() {
+        CapacityView view = new CapacityView("cloud-1");
+        view.update(NO_INSTANCES, System.currentTimeMillis());
+
+        CapacityView.Reservation reservation = view.tryReserve(slaveConfig, 10);
+        reservation.releaseWhenLaunched(IProgressMonitor.DONE_MONITOR);
+
+        view.update(NO_INSTANCES, System.currentTimeMillis());
+        assertEquals(0, view.getReservationCount());
+    }
+}
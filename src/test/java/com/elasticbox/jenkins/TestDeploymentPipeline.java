@@ -0,0 +1,146 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox.jenkins;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestDeploymentPipeline {
+
+    @Test
+    public void testTakesTurnsInOrder() {
+        final List<Runnable> started = new ArrayList<>();
+        final List<String> deployments = new ArrayList<>();
+        DeploymentPipeline pipeline = new DeploymentPipeline("test", 2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                started.add(command);
+            }
+        });
+
+        for (String deployment : Arrays.asList("a1", "a2", "a3", "a4", "b1", "b2", "c1")) {
+            pipeline.submit(deployment.substring(0, 1), record(deployments, deployment));
+        }
+        assertEquals(2, pipeline.getInFlightCount());
+        assertEquals(5, pipeline.getQueuedCount());
+
+        while (!started.isEmpty()) {
+            started.remove(0).run();
+        }
+        // a1 and b1 start right away, then the slave configurations take turns, each one deploying one slave at a
+        // time in the order its deployments were submitted
+        assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "c1", "a3", "a4"), deployments);
+        assertEquals(0, pipeline.getInFlightCount());
+        assertEquals(0, pipeline.getQueuedCount());
+    }
+
+    @Test
+    public void testBoundsDeploymentsInFlight() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final AtomicInteger inFlight = new AtomicInteger();
+            final AtomicInteger maxInFlight = new AtomicInteger();
+            final AtomicIntegerArray configInFlight = new AtomicIntegerArray(4);
+            final AtomicInteger maxConfigInFlight = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(50);
+            DeploymentPipeline pipeline = new DeploymentPipeline("test", 3, executor);
+            for (int i = 0; i < 50; i++) {
+                final int config = i % 4;
+                pipeline.submit("config-" + config, new DeploymentPipeline.Deployment() {
+                    @Override
+                    public void cancel(Exception cause) {
+                        throw new AssertionError(cause);
+                    }
+
+                    @Override
+                    public void run() {
+                        int count = inFlight.incrementAndGet();
+                        int configCount = configInFlight.incrementAndGet(config);
+                        synchronized (maxInFlight) {
+                            maxInFlight.set(Math.max(maxInFlight.get(), count));
+                            maxConfigInFlight.set(Math.max(maxConfigInFlight.get(), configCount));
+                        }
+                        try {
+                            Thread.sleep(2);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        configInFlight.decrementAndGet(config);
+                        inFlight.decrementAndGet();
+                        done.countDown();
+                        if (done.getCount() % 10 == 0) {
+                            // a failing deployment doesn't stop the pipeline
+                            throw new IllegalStateException("Deployment failed");
+                        }
+                    }
+                });
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue("Max in flight " + maxInFlight.get(), maxInFlight.get() <= 3 && maxInFlight.get() > 1);
+            assertEquals(1, maxConfigInFlight.get());
+            assertEquals(Collections.emptyList(), executor.shutdownNow());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelsRejectedDeployments() {
+        final List<String> deployments = new ArrayList<>();
+        DeploymentPipeline pipeline = new DeploymentPipeline("test", 2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("Shut down");
+            }
+        });
+
+        for (String deployment : Arrays.asList("a1", "a2", "b1")) {
+            pipeline.submit(deployment.substring(0, 1), record(deployments, deployment));
+        }
+        assertEquals(Arrays.asList("cancelled a1", "cancelled a2", "cancelled b1"), deployments);
+        assertEquals(0, pipeline.getInFlightCount());
+        assertEquals(0, pipeline.getQueuedCount());
+    }
+
+    private static DeploymentPipeline.Deployment record(final List<String> deployments, final String deployment) {
+        return new DeploymentPipeline.Deployment() {
+            @Override
+            public void run() {
+                deployments.add(deployment);
+            }
+
+            @Override
+            public void cancel(Exception cause) {
+                deployments.add("cancelled " + deployment);
+            }
+        };
+    }
+}
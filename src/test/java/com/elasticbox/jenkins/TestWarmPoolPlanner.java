@@ -0,0 +1,259 @@
+/*
+ *
+ *  ElasticBox Confidential
+ *  Copyright (c) 2016 All Right Reserved, ElasticBox Inc.
+ *
+ *  NOTICE:  All information contained herein is, and remains the property
+ *  of ElasticBox. The intellectual and technical concepts contained herein are
+ *  proprietary and may be covered by U.S. and Foreign Patents, patents in process,
+ *  and are protected by trade secret or copyright law. Dissemination of this
+ *  information or reproduction of this material is strictly forbidden unless prior
+ *  written permission is obtained from ElasticBox.
+ *
+ */
+
+package com.elasticbox.jenkins;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestWarmPoolPlanner {
+
+    private static final long LEAD_TIME = TimeUnit.MINUTES.toMillis(5);
+    private static final long TICK = TimeUnit.SECONDS.toMillis(20);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Test
+    public void testLearnsTimeOfDay() {
+        WarmPoolPlanner planner = new WarmPoolPlanner(LEAD_TIME);
+        long start = DAY;
+        // one build a minute from 9:00 to 10:00 every day
+        for (long now = start; now < start + 3 * DAY; now += TICK) {
+            planner.recordArrivals("config", isBurst(now) && now % TimeUnit.MINUTES.toMillis(1) == 0 ? 1 : 0);
+            planner.update(now);
+        }
+
+        long fourthDay = start + 3 * DAY;
+        assertEquals(0, planner.getTarget("config", 1, fourthDay + TimeUnit.HOURS.toMillis(3)));
+        // the agents are ready before the first build of the day arrives
+        int target = planner.getTarget("config", 1, fourthDay + TimeUnit.MINUTES.toMillis(8 * 60 + 57));
+        assertTrue("Target " + target, target >= 3 && target <= 5);
+        assertEquals(0, planner.getTarget("other", 1, fourthDay + TimeUnit.MINUTES.toMillis(8 * 60 + 57)));
+    }
+
+    @Test
+    public void testFollowsRecentArrivals() {
+        WarmPoolPlanner planner = new WarmPoolPlanner(LEAD_TIME);
+        long now = DAY + TimeUnit.HOURS.toMillis(14);
+        planner.update(now);
+        for (int i = 0; i < 30; i++) {
+            now += TICK;
+            planner.recordArrivals("config", 2);
+            planner.update(now);
+        }
+        // six builds a minute for ten minutes, two executors per agent
+        int target = planner.getTarget("config", 2, now);
+        assertTrue("Target " + target, target >= 7 && target <= 15);
+
+        for (int i = 0; i < 360; i++) {
+            now += TICK;
+            planner.update(now);
+        }
+        assertEquals(0, planner.getTarget("config", 2, now));
+    }
+
+    @Test
+    public void testPlanRespectsLimits() {
+        WarmPoolPlanner planner = new WarmPoolPlanner(LEAD_TIME);
+        long now = DAY;
+        planner.update(now);
+        for (int i = 0; i < 90; i++) {
+            now += TICK;
+            planner.recordArrivals("big", 6);
+            planner.recordArrivals("small", 1);
+            planner.update(now);
+        }
+        assertTrue(planner.getTarget("big", 1, now) > 50);
+        assertTrue(planner.getTarget("small", 1, now) > 10);
+
+        List<WarmPoolPlanner.Pool> pools = Arrays.asList(
+                new WarmPoolPlanner.Pool("big", 1, 0, 100, 10, 0),
+                new WarmPoolPlanner.Pool("small", 1, 0, 4, 2, 1));
+        WarmPoolPlanner.Plan plan = planner.plan(pools, 1000, now);
+        assertEquals(planner.getTarget("big", 1, now), plan.getTarget("big"));
+        assertEquals(planner.getTarget("big", 1, now), plan.getChange("big"));
+        // the small pool is limited by its max instances
+        assertEquals(2, plan.getChange("small"));
+
+        // the capacity of the cloud goes to the largest shortfall first
+        plan = planner.plan(pools, 5, now);
+        assertEquals(5, plan.getChange("big"));
+        assertEquals(0, plan.getChange("small"));
+        plan = planner.plan(Arrays.asList(
+                new WarmPoolPlanner.Pool("big", 1, 0, 12, 10, 0),
+                new WarmPoolPlanner.Pool("small", 1, 0, 4, 2, 1)), 3, now);
+        assertEquals(2, plan.getChange("big"));
+        assertEquals(1, plan.getChange("small"));
+        assertEquals(0, planner.plan(pools, 0, now).getChange("big"));
+    }
+
+    @Test
+    public void testPlanReleasesSurplus() {
+        WarmPoolPlanner planner = new WarmPoolPlanner(LEAD_TIME);
+        long now = DAY;
+        planner.update(now);
+        for (int i = 0; i < 90; i++) {
+            now += TICK;
+            planner.recordArrivals("config", 1);
+            planner.update(now);
+        }
+        int target = planner.getTarget("config", 1, now);
+        assertTrue("Target " + target, target > 0);
+
+        WarmPoolPlanner.Plan plan = planner.plan(Collections.singletonList(
+                new WarmPoolPlanner.Pool("config", 1, 0, 100, target + 20, target + 10)), 100, now);
+        assertEquals(-10, plan.getChange("config"));
+        // never below the min instances
+        plan = planner.plan(Collections.singletonList(
+                new WarmPoolPlanner.Pool("config", 1, target + 15, 100, target + 20, target + 10)), 100, now);
+        assertEquals(-5, plan.getChange("config"));
+
+        // the agents of a pool without demand are left to their retention strategy
+        for (int i = 0; i < 1000; i++) {
+            now += TICK;
+            planner.update(now);
+        }
+        plan = planner.plan(Collections.singletonList(
+                new WarmPoolPlanner.Pool("config", 1, 0, 100, 10, 10)), 100, now);
+        assertEquals(0, plan.getTarget("config"));
+        assertEquals(0, plan.getChange("config"));
+
+        planner.retainAll(Collections.<String>emptyList());
+        assertEquals(0.0, planner.getForecastRate("config", now), 0);
+    }
+
+    @Test
+    public void testSimulatedQueue() {
+        SimulatedCloud warmCloud = new SimulatedCloud(new WarmPoolPlanner(LEAD_TIME));
+        SimulatedCloud coldCloud = new SimulatedCloud(null);
+        long start = DAY;
+        for (long now = start; now < start + 4 * DAY; now += TICK) {
+            if (now == start + 3 * DAY) {
+                warmCloud.builds = warmCloud.waitingBuilds = 0;
+                coldCloud.builds = coldCloud.waitingBuilds = 0;
+            }
+            int arrivals = isBurst(now) && now % TimeUnit.MINUTES.toMillis(2) == 0 ? 1 : 0;
+            warmCloud.tick(now, arrivals);
+            coldCloud.tick(now, arrivals);
+        }
+
+        // the last day, most builds of the burst find an agent ready
+        assertEquals(30, warmCloud.builds);
+        assertTrue("Waiting builds " + coldCloud.waitingBuilds, coldCloud.waitingBuilds >= 5);
+        assertTrue("Waiting builds " + warmCloud.waitingBuilds + " of " + coldCloud.waitingBuilds,
+                warmCloud.waitingBuilds * 2 < coldCloud.waitingBuilds);
+        // and the agents are released after the burst
+        assertEquals(0, warmCloud.agents.size());
+        assertTrue(warmCloud.maxAgents <= SimulatedCloud.MAX_INSTANCES);
+    }
+
+    private static boolean isBurst(long time) {
+        long timeOfDay = time % DAY;
+        return timeOfDay >= TimeUnit.HOURS.toMillis(9) && timeOfDay < TimeUnit.HOURS.toMillis(10);
+    }
+
+    /**
+     * Agents of one slave configuration, deployed on demand when a build finds no agent ready, and by the planner if
+     * there is one. Idle agents are terminated after the retention time unless the pool is warm.
+     */
+    private static final class SimulatedCloud {
+        private static final int MAX_INSTANCES = 8;
+        private static final long BUILD_TIME = TimeUnit.MINUTES.toMillis(10);
+        private static final long RETENTION_TIME = TimeUnit.MINUTES.toMillis(10);
+
+        private final WarmPoolPlanner planner;
+        private final List<Agent> agents = new ArrayList<>();
+        private int builds;
+        private int waitingBuilds;
+        private int maxAgents;
+        private int target;
+
+        private SimulatedCloud(WarmPoolPlanner planner) {
+            this.planner = planner;
+        }
+
+        private void tick(long now, int arrivals) {
+            for (int i = 0; i < arrivals; i++) {
+                builds++;
+                Agent agent = null;
+                for (Agent idleAgent : agents) {
+                    if (idleAgent.busyUntil <= now && idleAgent.readyAt <= now) {
+                        agent = idleAgent;
+                        break;
+                    }
+                }
+                if (agent == null) {
+                    waitingBuilds++;
+                    agent = deploy(now);
+                }
+                agent.busyUntil = Math.max(agent.readyAt, now) + BUILD_TIME;
+            }
+
+            if (planner != null) {
+                planner.recordArrivals("config", arrivals);
+                planner.update(now);
+                int idle = 0;
+                for (Agent agent : agents) {
+                    if (agent.busyUntil <= now) {
+                        idle++;
+                    }
+                }
+                WarmPoolPlanner.Plan plan = planner.plan(Collections.singletonList(
+                        new WarmPoolPlanner.Pool("config", 1, 0, MAX_INSTANCES, agents.size(), idle)),
+                        MAX_INSTANCES - agents.size(), now);
+                target = plan.getTarget("config");
+                for (int change = plan.getChange("config"); change > 0; change--) {
+                    deploy(now);
+                }
+                for (Iterator<Agent> iter = agents.iterator(); iter.hasNext() && idle > target && target > 0; ) {
+                    if (iter.next().busyUntil <= now) {
+                        iter.remove();
+                        idle--;
+                    }
+                }
+            }
+
+            for (Iterator<Agent> iter = agents.iterator(); iter.hasNext() && target == 0; ) {
+                Agent agent = iter.next();
+                if (Math.max(agent.busyUntil, agent.readyAt) + RETENTION_TIME <= now) {
+                    iter.remove();
+                }
+            }
+        }
+
+        private Agent deploy(long now) {
+            Agent agent = new Agent(now + LEAD_TIME);
+            agents.add(agent);
+            maxAgents = Math.max(maxAgents, agents.size());
+            return agent;
+        }
+    }
+
+    private static final class Agent {
+        private final long readyAt;
+        private long busyUntil;
+
+        private Agent(long readyAt) {
+            this.readyAt = readyAt;
+        }
+    }
+}